@@ -0,0 +1,160 @@
+package rationalpiano.consonance;
+
+import java.util.logging.Logger;
+
+import rationalpiano.tuning.ITuning;
+
+
+/**
+ * Calculates the same consonances as Consonance, but stores the dissonance table and does the per-frame arithmetic in a compact representation for hosts with a weak (or no) floating point unit.
+ * Two representations are available:
+ * FLOAT32 stores the dissonances as float and calculates in float. The relative error of a consonance value compared to Consonance is at most (activeCount + 2) * 2^-24, i.e. about 7e-7 for 10 sounding keys.
+ * FIXED_16_16 stores the dissonances as 16.16 fixed point integers (saturated at 32767.99998, or lower for more than 256 keys so that the sum can't overflow) and calculates with integers only; volumes are converted to 0.24 fixed point and products are summed up in 16.40 fixed point before being rounded once.
+ * The absolute error of a consonance value compared to Consonance is at most activeCount * (2^-17 + maxDiss * 2^-25) + 2^-16, where maxDiss is the biggest dissonance in the table (see getMaxError()); this is below 2e-4 for 10 sounding keys and maxfrac up to 256, which is less than a tenth of a step of the line drawing.
+ * Saturated dissonances only occur for intervals wider than log2(maxfrac) octaves, where the reference value is infinite; the consonance then is not 0 but below 1 / (saturation * volume).
+ * Both tables take half the memory of the double table of Consonance (4 instead of 8 bytes per key distance).
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class CompactConsonance implements IConsonance {
+
+	/**
+	 * Possible representations of the dissonance table and the per-frame arithmetic.
+	 */
+	public enum representations {FLOAT32, FIXED_16_16}
+
+	private static final int FIXED_ONE = 1 << 16;
+	private static final int VOLUME_ONE = 1 << 24;
+
+	private int notecount;
+	private representations representation;
+
+	private float[] noteDissFloat;
+	private float[] activeVolumesFloat;
+
+	private int[] noteDissFixed;
+	private long[] activeVolumesFixed;
+	private double maxDiss;
+
+	private static final Logger logger = Logger.getLogger(CompactConsonance.class.getName());
+
+	/**
+	 * @param notestart Pitch index of the first key in range.
+	 * @param notecount Count of keys above (and inclusively) notestart to include.
+	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for. 157 is a good value. High values will cause longer initialization times!
+	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth==1 means it's inflection point is at +- 1/Sqrt(e) semitones. bellWidth>0
+	 * @param tuning An equal tempered tuning (tuning.isEqualTempered() == true) which maps the keys to pitches.
+	 * @param representation The representation of the dissonance table and the arithmetic.
+	 */
+	public CompactConsonance(int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, representations representation) {
+		this.notecount = notecount;
+		this.representation = representation;
+
+		assert(tuning.isEqualTempered());
+
+		logger.info("Calculating " + representation + " consonances for a range of " + notecount + " notes in tuning '" + tuning.getDescription() + "' with a maximum fraction dissonance of " + maxfrac + " and an approximating bell curve with width " + bellWidth);
+
+		DissonanceCurve curve = new DissonanceCurve(maxfrac, bellWidth);
+
+		if(representation == representations.FLOAT32){
+			noteDissFloat = new float[notecount];
+			activeVolumesFloat = new float[notecount];
+		}else{
+			noteDissFixed = new int[notecount];
+			activeVolumesFixed = new long[notecount];
+		}
+
+		//the sum of notecount saturated products in 16.40 must fit into a long
+		long saturation = Math.min(Integer.MAX_VALUE, (Long.MAX_VALUE / 2) / VOLUME_ONE / notecount);
+
+		for(int notedistance = 0; notedistance < notecount; notedistance++){
+			double diss = curve.getDissonance(tuning.getPitch(notestart + notedistance) - tuning.getPitch(notestart));
+
+			if(representation == representations.FLOAT32){
+				noteDissFloat[notedistance] = (float)diss;
+			}else{
+				double fixed = Math.rint(diss * FIXED_ONE);
+				noteDissFixed[notedistance] = (fixed >= saturation) ? (int)saturation : (int)fixed; //saturate, also catches infinity
+				maxDiss = Math.max(maxDiss, noteDissFixed[notedistance] / (double)FIXED_ONE);
+			}
+		}
+
+		logger.config("Dissonance table takes " + getTableBytes() + " bytes instead of " + (8 * notecount) + " bytes with doubles");
+	}
+
+	@Override
+	public void calculate(double[] volumes, int[] activeKeys, int activeCount, double[] consonances) {
+		if(representation == representations.FLOAT32){
+			calculateFloat(volumes, activeKeys, activeCount, consonances);
+		}else{
+			calculateFixed(volumes, activeKeys, activeCount, consonances);
+		}
+	}
+
+	/**
+	 * @return The size of the dissonance table in bytes.
+	 */
+	public long getTableBytes() {
+		return 4L * notecount;
+	}
+
+	/**
+	 * @param activeCount Count of sounding keys.
+	 * @return The documented maximum error compared to Consonance: the relative error for FLOAT32, the absolute error for FIXED_16_16.
+	 */
+	public double getMaxError(int activeCount) {
+		if(representation == representations.FLOAT32){
+			return (activeCount + 2) * Math.pow(2, -24);
+		}else{
+			return activeCount * (Math.pow(2, -17) + maxDiss * Math.pow(2, -25)) + Math.pow(2, -16);
+		}
+	}
+
+	/**
+	 * Same algorithm as Consonance.calculate(), but in float.
+	 */
+	private void calculateFloat(double[] volumes, int[] activeKeys, int activeCount, double[] consonances) {
+		for(int a = 0; a < activeCount; a++){
+			activeVolumesFloat[a] = (float)volumes[activeKeys[a]];
+		}
+
+		for(int keyout = 0; keyout < notecount; keyout++){
+			float comboDiss = 1; //make sure the calculated dissonance value is always greater or equal to 1
+			for(int a = 0; a < activeCount; a++){
+				int keywith = activeKeys[a];
+				if(keywith == keyout){
+					continue; //as every key can only be played once at a time, the dissonance to itself doesn't have to be considered
+				}
+				comboDiss += noteDissFloat[Math.abs(keywith - keyout)] * activeVolumesFloat[a];
+			}
+			consonances[keyout] = 1 / comboDiss;
+		}
+	}
+
+	/**
+	 * Same algorithm as Consonance.calculate(), but with integers only.
+	 * Dissonances are 16.16, volumes 0.24 and the products get summed up in 16.40 fixed point.
+	 */
+	private void calculateFixed(double[] volumes, int[] activeKeys, int activeCount, double[] consonances) {
+		for(int a = 0; a < activeCount; a++){
+			activeVolumesFixed[a] = Math.round(volumes[activeKeys[a]] * VOLUME_ONE);
+		}
+
+		for(int keyout = 0; keyout < notecount; keyout++){
+			long comboDiss = (long)FIXED_ONE * VOLUME_ONE; //1 in 16.40, make sure the calculated dissonance value is always greater or equal to 1
+			for(int a = 0; a < activeCount; a++){
+				int keywith = activeKeys[a];
+				if(keywith == keyout){
+					continue; //as every key can only be played once at a time, the dissonance to itself doesn't have to be considered
+				}
+				comboDiss += noteDissFixed[Math.abs(keywith - keyout)] * activeVolumesFixed[a];
+			}
+			//back to 16.16 with rounding, then 1/comboDiss in 16.16
+			long comboDissFixed = (comboDiss + (VOLUME_ONE >> 1)) >> 24;
+			consonances[keyout] = ((1L << 32) / comboDissFixed) / (double)FIXED_ONE;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package rationalpiano.consonance;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Provides the CompactConsonance engine in the FIXED_16_16 representation, which only supports equal tempered tunings.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class CompactFixedConsonanceProvider implements IConsonanceProvider {
+	
+	/**
+	 * The name of this engine.
+	 */
+	public static final String NAME = "compact-fixed";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean supports(ITuning tuning) {
+		return tuning.isEqualTempered();
+	}
+
+	@Override
+	public IConsonance create(int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder) {
+		return new CompactConsonance(notestart, notecount, maxfrac, bellWidth, tuning, CompactConsonance.representations.FIXED_16_16);
+	}
+
+}
@@ -0,0 +1,204 @@
+package rationalpiano.consonance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Selects and creates IConsonance engines which are discovered via java.util.ServiceLoader.
+ * In "auto" mode, all engines which support the tuning get created and micro-benchmarked with random sets of sounding keys; the fastest one whose results match the reference engine is chosen.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class ConsonanceEngines {
+
+	/**
+	 * Engine name which selects the fastest equivalent engine at startup.
+	 */
+	public static final String AUTO = "auto";
+
+	/**
+	 * Maximum absolute difference of a consonance value to the reference engine's one for an engine to be considered equivalent.
+	 * Consonances are between 0 and 1 and end up as line widths with a resolution of about 1/255, so this is invisible.
+	 * An absolute instead of a relative difference is needed as the reference value is 0 for intervals too wide to be approximated by a rational number.
+	 */
+	public static final double EQUIVALENCE_TOLERANCE = 1e-3;
+
+	private static final int BENCHMARK_SETS = 16;
+	private static final int BENCHMARK_SOUNDING = 10;
+	private static final long BENCHMARK_NANOS = 50 * 1000 * 1000;
+
+	private static final Logger logger = Logger.getLogger(ConsonanceEngines.class.getName());
+
+	/**
+	 * Only static methods.
+	 */
+	private ConsonanceEngines() {
+	}
+
+	/**
+	 * @return The names of all discovered engines.
+	 */
+	public static String[] getEngineNames() {
+		ArrayList<String> names = new ArrayList<String>();
+		for(IConsonanceProvider provider : ServiceLoader.load(IConsonanceProvider.class)){
+			names.add(provider.getName());
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Creates the engine with the given name, or the fastest equivalent one in "auto" mode.
+	 * If the named engine doesn't exist or doesn't support the tuning, the reference engine gets used.
+	 * @param engineName Name of the engine to create, or "auto".
+	 * @param notestart Pitch index (or MIDI note number) of the first key in range.
+	 * @param notecount Count of keys above (and inclusively) notestart to include.
+	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for.
+	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth>0
+	 * @param tuning The tuning which maps keys to pitches.
+	 * @param cacheFolder Folder the engines may cache precalculated data in; null disables caching.
+	 * @return The created engine.
+	 */
+	public static IConsonance create(String engineName, int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder) {
+		IConsonanceProvider reference = null;
+		ArrayList<IConsonanceProvider> candidates = new ArrayList<IConsonanceProvider>();
+
+		for(IConsonanceProvider provider : ServiceLoader.load(IConsonanceProvider.class)){
+			if(!provider.supports(tuning)){
+				continue;
+			}
+			candidates.add(provider);
+			if(provider.getName().equals(tuning.isEqualTempered() ? ConsonanceProvider.NAME : TuningConsonanceProvider.NAME)){
+				reference = provider;
+			}
+		}
+
+		if(reference == null){
+			//service file not on the classpath, eg. when the resources of src weren't copied to the output folder
+			reference = tuning.isEqualTempered() ? new ConsonanceProvider() : new TuningConsonanceProvider();
+			candidates.add(reference);
+		}
+
+		if(!engineName.equalsIgnoreCase(AUTO)){
+			for(IConsonanceProvider provider : candidates){
+				if(provider.getName().equalsIgnoreCase(engineName)){
+					logger.info("Using consonance engine '" + provider.getName() + "'");
+					return provider.create(notestart, notecount, maxfrac, bellWidth, tuning, cacheFolder);
+				}
+			}
+			logger.warning("Consonance engine '" + engineName + "' not found or not supporting tuning '" + tuning.getDescription() + "', using '" + reference.getName() + "' instead");
+			return reference.create(notestart, notecount, maxfrac, bellWidth, tuning, cacheFolder);
+		}
+
+		return calibrate(reference, candidates, notestart, notecount, maxfrac, bellWidth, tuning, cacheFolder);
+	}
+
+	/**
+	 * Creates all candidate engines, checks them against the reference engine and benchmarks them.
+	 * @return The fastest engine which is equivalent to the reference engine.
+	 */
+	private static IConsonance calibrate(IConsonanceProvider reference, ArrayList<IConsonanceProvider> candidates, int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder) {
+		//deterministic random sets of sounding keys
+		Random random = new Random(0);
+		int sounding = Math.min(BENCHMARK_SOUNDING, notecount);
+		double[][] volumes = new double[BENCHMARK_SETS][notecount];
+		int[][] soundingKeys = new int[BENCHMARK_SETS][sounding];
+		for(int set = 0; set < BENCHMARK_SETS; set++){
+			for(int a = 0; a < sounding; a++){
+				int key;
+				do{
+					key = random.nextInt(notecount);
+				}while(volumes[set][key] != 0);
+				soundingKeys[set][a] = key;
+				volumes[set][key] = 0.05 + 0.95 * random.nextDouble();
+			}
+		}
+
+		IConsonance referenceEngine = reference.create(notestart, notecount, maxfrac, bellWidth, tuning, cacheFolder);
+		double[][] expected = new double[BENCHMARK_SETS][notecount];
+		for(int set = 0; set < BENCHMARK_SETS; set++){
+			referenceEngine.calculate(volumes[set], soundingKeys[set], sounding, expected[set]);
+		}
+
+		IConsonance best = referenceEngine;
+		String bestName = reference.getName();
+		double bestNanos = benchmark(referenceEngine, volumes, soundingKeys, sounding, notecount);
+		logger.info("Consonance engine '" + reference.getName() + "' (reference): " + (long)bestNanos + " ns per calculation");
+
+		double[] result = new double[notecount];
+		for(IConsonanceProvider provider : candidates){
+			if(provider == reference){
+				continue;
+			}
+
+			IConsonance engine = provider.create(notestart, notecount, maxfrac, bellWidth, tuning, cacheFolder);
+
+			double maxError = 0;
+			for(int set = 0; set < BENCHMARK_SETS; set++){
+				Arrays.fill(result, Double.NaN);
+				engine.calculate(volumes[set], soundingKeys[set], sounding, result);
+				for(int key = 0; key < notecount; key++){
+					double error = Math.abs(result[key] - expected[set][key]);
+					if(!(error <= maxError)){
+						maxError = error; //also catches NaN
+					}
+				}
+			}
+
+			if(!(maxError <= EQUIVALENCE_TOLERANCE)){
+				logger.warning("Consonance engine '" + provider.getName() + "' differs from the reference by up to " + maxError + ", not using it");
+				continue;
+			}
+
+			double nanos = benchmark(engine, volumes, soundingKeys, sounding, notecount);
+			logger.info("Consonance engine '" + provider.getName() + "': " + (long)nanos + " ns per calculation, maximum difference to reference " + maxError);
+
+			if(nanos < bestNanos){
+				best = engine;
+				bestName = provider.getName();
+				bestNanos = nanos;
+			}
+		}
+
+		logger.info("Using consonance engine '" + bestName + "'");
+		return best;
+	}
+
+	/**
+	 * Runs the engine with the given sets of sounding keys for a fixed time, after a warmup of the same length.
+	 * @return The average duration of one calculation in nanoseconds.
+	 */
+	private static double benchmark(IConsonance engine, double[][] volumes, int[][] soundingKeys, int sounding, int notecount) {
+		double[] result = new double[notecount];
+
+		run(engine, volumes, soundingKeys, sounding, result); //warmup for the JIT compiler
+		return run(engine, volumes, soundingKeys, sounding, result);
+	}
+
+	/**
+	 * Runs the engine with the given sets of sounding keys for BENCHMARK_NANOS.
+	 * @return The average duration of one calculation in nanoseconds.
+	 */
+	private static double run(IConsonance engine, double[][] volumes, int[][] soundingKeys, int sounding, double[] result) {
+		long start = System.nanoTime();
+		long calculations = 0;
+		long now;
+
+		do{
+			for(int set = 0; set < volumes.length; set++){
+				engine.calculate(volumes[set], soundingKeys[set], sounding, result);
+			}
+			calculations += volumes.length;
+			now = System.nanoTime();
+		}while(now - start < BENCHMARK_NANOS);
+
+		return (now - start) / (double)calculations;
+	}
+}
@@ -0,0 +1,36 @@
+package rationalpiano.consonance;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Provides the Consonance engine which stores one dissonance per key distance and thus only supports equal tempered tunings.
+ * This is the reference engine for equal tempered tunings.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class ConsonanceProvider implements IConsonanceProvider {
+	
+	/**
+	 * The name of this engine.
+	 */
+	public static final String NAME = "toeplitz";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean supports(ITuning tuning) {
+		return tuning.isEqualTempered();
+	}
+
+	@Override
+	public IConsonance create(int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder) {
+		return new Consonance(notestart, notecount, maxfrac, bellWidth, tuning);
+	}
+
+}
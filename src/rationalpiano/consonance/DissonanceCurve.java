@@ -0,0 +1,250 @@
+package rationalpiano.consonance;
+
+import java.util.ArrayList;
+
+
+/**
+ * The dissonance curve over a continuous interval axis (measured in semitones), built from all rational numbers up to a maximum dissonance.
+ * Each rational number n/d denotes a point (x=log2(n/d)*12, y=n*d) which gets "fuzzified" by a bell curve of the given width; the dissonance of an interval is the minimum over all those bells.
+ * Once constructed this object is immutable and may be queried from several threads concurrently.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class DissonanceCurve {
+
+	private final int maxfrac;
+	private final double bellWidth;
+
+	private final Rational[] rationals;
+	private final double[] rationalSemitones;
+	private final double[] rationalDiss;
+
+	/**
+	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for. 157 is a good value. High values will cause longer initialization times!
+	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth==1 means it's inflection point is at +- 1/Sqrt(e) semitones. bellWidth>0
+	 */
+	public DissonanceCurve(int maxfrac, double bellWidth) {
+		this.maxfrac = maxfrac;
+		this.bellWidth = bellWidth;
+
+		ArrayList<Rational> rationalList = calcAllSublists(calcAllCombinedFactorizations(maxfrac));
+
+		rationals = rationalList.toArray(new Rational[rationalList.size()]);
+		rationalSemitones = new double[rationals.length];
+		rationalDiss = new double[rationals.length];
+
+		for(int i = 0; i < rationals.length; i++){
+			rationalSemitones[i] = Math.log(rationals[i].getValue())/Math.log(2)*12;
+			rationalDiss[i] = rationals[i].getDiss();
+		}
+	}
+
+	/**
+	 * @return The maximum dissonance value for rational numbers this curve was built with.
+	 */
+	public int getMaxfrac() {
+		return maxfrac;
+	}
+
+	/**
+	 * @return The width of the bell curve this curve was built with.
+	 */
+	public double getBellWidth() {
+		return bellWidth;
+	}
+
+	/**
+	 * Calculates the dissonance of an interval, which is the minimum of all bellcurves centered about the fraction values respectively multiplied with the individual dissonances (numerator * denominator).
+	 * @param semitones The size of the interval in semitones, may be fractional. The curve is symmetrical, so the sign does not matter.
+	 * @return The dissonance of the interval. Yet there is no taking account for volumes.
+	 */
+	public double getDissonance(double semitones) {
+		int i = findBestRationalIndex(semitones);
+		return rationalDiss[i] * bell(semitones, rationalSemitones[i]);
+	}
+
+	/**
+	 * @param semitones The size of the interval in semitones, may be fractional.
+	 * @return The rational number which best explains the given interval, i.e. the one the dissonance of the interval results from.
+	 */
+	public Rational getBestRational(double semitones) {
+		return rationals[findBestRationalIndex(semitones)];
+	}
+
+	/**
+	 * @param semitones The size of the interval in semitones, may be fractional.
+	 * @return The size of the interval of the rational number that best explains the given interval, in semitones.
+	 */
+	public double getBestRationalSemitones(double semitones) {
+		return rationalSemitones[findBestRationalIndex(semitones)];
+	}
+
+	/**
+	 * @param semitones The size of the interval in semitones, may be fractional.
+	 * @return The index of the rational number with the smallest weighted bell value at the given interval.
+	 */
+	private int findBestRationalIndex(double semitones) {
+		double minDiss = Double.MAX_VALUE;
+		int imin = 0;
+
+		for(int i = 0; i < rationals.length; i++){
+			//TODO maybe other curve or better parameters for curve
+			double diss = rationalDiss[i] * bell(semitones, rationalSemitones[i]);
+
+			if(diss < minDiss){
+				minDiss = diss;
+				imin = i;
+			}
+		}
+
+		return imin;
+	}
+
+	/**
+	 * @param semitones The position to evaluate the (inverted) bell curve at.
+	 * @param center The center of the bell curve.
+	 * @return The scale factor of the inverted bell curve; 1 at the center and growing to both sides.
+	 */
+	private double bell(double semitones, double center) {
+		return Math.exp((semitones - center)*(semitones - center) / (2*bellWidth*bellWidth));
+	}
+
+
+	/**
+	 * Calculates all sublists for all factor lists respectively.
+	 * @param factorlist A list of lists with factors which are individually put in the nominator or denominator.
+	 * @return A list of fractions which represent all the sublists.
+	 */
+	private static ArrayList<Rational> calcAllSublists(ArrayList<ArrayList<Integer>> factorlist){
+		ArrayList<Rational> sublists = new ArrayList<Rational>();
+
+		for(ArrayList<Integer> factors : factorlist){
+			ArrayList<Rational> rationals = calcSublists(factors);
+			sublists.addAll(rationals);
+		}
+
+		return sublists;
+	}
+
+	/**
+	 * Calculates from a given list of integers all possibilities of putting them on the left or right side of a fraction bar.
+	 * If intlist is empty it will still return 1/1.
+	 * @param intlist A list of integers which can all be put on either the numerator or the denominator. Size can be of a maximum of 31 elements (Integer.SIZE-1).
+	 * @return A list of all possible rational numbers.
+	 */
+	private static ArrayList<Rational> calcSublists(ArrayList<Integer> intlist){
+		ArrayList<Rational> sublists = new ArrayList<Rational>();
+
+		assert(Integer.SIZE-1 < intlist.size());
+		//can not happen with the prime factorization of an integer number as the first whole number that's got more combined prime factors is the multiplication of the first 32 primes and that's way bigger than the maximum integer: 525896479052627740771371797072411912900610967452630
+
+		for(int walkthrough = 0; walkthrough < 1<<intlist.size(); walkthrough++){
+			int num = 1;
+			int denom = 1;
+
+			for(int place = 0; place<intlist.size(); place++){
+				if((walkthrough & 1<<place) > 0){
+					num *= intlist.get(place);
+				}else{
+					denom *= intlist.get(place);
+				}
+			}
+
+			sublists.add(new Rational(num,denom));
+		}
+
+		return sublists;
+	}
+
+	/**
+	 * Calculates all factorizations from 1 to upto.
+	 * Same primes get multiplied back together, so not {2,2,3,3,5} but {4,9,5}.
+	 * Needs to calculate all prime numbers in the range of [2,upto], does this only once for all integer's factorizations to save unnecessary computation time.
+	 * @param upto The maximum integer to calculate the factorization for. upto numbers smaller than 1 get replaced by 1.
+	 * @return A list containing upto lists with the factorizations of the single integers.
+	 */
+	private static ArrayList<ArrayList<Integer>> calcAllCombinedFactorizations(int upto){
+		ArrayList<ArrayList<Integer>> allFactors = new ArrayList<ArrayList<Integer>>();
+
+		if(upto < 1){
+			upto = 1;
+		}
+
+		ArrayList<Integer> primes = calcPrimes(upto);
+
+		for(int num = 1; num<=upto; num++){
+			ArrayList<Integer> factors;
+			factors = calcCombinedFactorization(num, primes);
+
+			allFactors.add(factors);
+		}
+
+		return allFactors;
+	}
+
+	/**
+	 * Calculates the factorization for the given integer number.
+	 * Same primes get multiplied back together, so not {2,2,3,3,5} but {4,9,5}.
+	 * @param num The number to calculate the prime factorization for.
+	 * @param primes The list of primes in the range of [2,num].
+	 * @return A list with all (same primes back multipled) prime factors of the given number. Returns an empty list if num < 1.
+	 */
+	private static ArrayList<Integer> calcCombinedFactorization(int num, ArrayList<Integer> primes){
+		ArrayList<Integer> factors = new ArrayList<Integer>();
+
+		if(num <= 1){
+			return factors;
+		}
+
+		for(int p : primes){
+			int mulfact = 1;
+			while(num%p == 0){
+				num /= p;
+				mulfact *= p;
+			}
+			if(mulfact != 1){
+				factors.add(mulfact);
+			}
+			if(num == 1){
+				break;
+			}
+		}
+
+		return factors;
+	}
+
+	/**
+	 * Calculates all primes from 2 to upto.
+	 * @param upto Maximum prime to detect.
+	 * @return A list of prime numbers. Returns an empty list if upto < 1.
+	 */
+	private static ArrayList<Integer> calcPrimes(int upto){
+		ArrayList<Integer> primes = new ArrayList<Integer>();
+
+		if(upto <= 1){
+			return primes;
+		}
+
+		primes.add(2);
+
+		for(int p = 3; p<=upto; p+=2){
+			boolean isDivisible = false;
+			for(int i : primes){
+				//TODO do not walk through ALL primes here.. up to 1/3 would be enough
+				if(p%i == 0){
+					isDivisible = true;
+					break; //not a prime
+				}
+			}
+			if(!isDivisible){
+				//is a new prime
+				primes.add(p);
+			}
+		}
+
+		return primes;
+	}
+}
@@ -0,0 +1,297 @@
+package rationalpiano.consonance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Holds the dissonances between all pairs of keys in a range for an arbitrary tuning.
+ * As the intervals of an arbitrary tuning don't only depend on the distance of two keys, this matrix is not a Toeplitz matrix and has to be stored completely.
+ * The matrix is symmetrical and the diagonal is never needed, so only the strict upper triangle gets stored as floats.
+ * Instances are immutable, so they can be swapped while another thread still reads from an old one.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class DissonanceMatrix {
+
+	private static final int FILE_MAGIC = 0x52504449; //"RPDI"
+
+	private final int notecount;
+	private final long hash;
+	private final float[] values;
+	private final int[] rowStart;
+
+	private static final Logger logger = Logger.getLogger(DissonanceMatrix.class.getName());
+
+	/**
+	 * @param notecount Count of keys in the range.
+	 * @param hash The hash of the tuning and dissonance curve parameters this matrix was calculated for.
+	 * @param values The strict upper triangle of the matrix, row by row; notecount*(notecount-1)/2 values.
+	 */
+	private DissonanceMatrix(int notecount, long hash, float[] values) {
+		this.notecount = notecount;
+		this.hash = hash;
+		this.values = values;
+
+		rowStart = new int[notecount];
+		for(int row = 0, start = 0; row < notecount; row++){
+			//index of element (row,row+1) minus row+1, so that (row,col) is at rowStart[row]+col
+			rowStart[row] = start - row - 1;
+			start += notecount - row - 1;
+		}
+	}
+
+	/**
+	 * Gets the matrix for the given tuning, either from the cache folder or by calculating it in parallel.
+	 * A freshly calculated matrix gets written to the cache folder; a failed calculation never gets cached.
+	 * @param tuning The tuning to calculate the pitches of the keys with.
+	 * @param notestart Midi note number of the first key in range.
+	 * @param notecount Count of keys above (and inclusively) notestart to include.
+	 * @param curve The dissonance curve to calculate the dissonances of the intervals with.
+	 * @param cacheFolder Folder to read and write cached matrices from/to; null disables caching.
+	 * @return The dissonance matrix.
+	 * @throws IllegalStateException Thrown if the calculation failed or was interrupted.
+	 */
+	public static DissonanceMatrix create(ITuning tuning, int notestart, int notecount, DissonanceCurve curve, String cacheFolder) {
+		double[] pitches = new double[notecount];
+		for(int i = 0; i < notecount; i++){
+			pitches[i] = tuning.getPitch(notestart + i);
+		}
+
+		long hash = calcHash(pitches, curve);
+
+		File cacheFile = null;
+		if(cacheFolder != null){
+			cacheFile = new File(cacheFolder, "dissonance_" + Long.toHexString(hash) + ".bin");
+			DissonanceMatrix cached = load(cacheFile, notecount, hash);
+			if(cached != null){
+				logger.info("Loaded dissonance matrix for tuning '" + tuning.getDescription() + "' from cache file '" + cacheFile + "'");
+				return cached;
+			}
+		}
+
+		logger.info("Calculating dissonance matrix for tuning '" + tuning.getDescription() + "' with " + notecount + " notes");
+		DissonanceMatrix matrix = new DissonanceMatrix(notecount, hash, calcValues(pitches, curve));
+
+		if(cacheFile != null){
+			try{
+				matrix.save(cacheFile);
+			}catch(IOException e){
+				logger.warning("Couldn't write dissonance matrix cache file '" + cacheFile + "', error: " + e.toString());
+			}
+		}
+
+		return matrix;
+	}
+
+	/**
+	 * @param keyA Index of the first key relative to the start of the range.
+	 * @param keyB Index of the second key relative to the start of the range; keyA != keyB.
+	 * @return The dissonance between the two keys. 0 if one of them is not mapped to a pitch.
+	 */
+	public float get(int keyA, int keyB) {
+		if(keyA < keyB){
+			return values[rowStart[keyA] + keyB];
+		}else{
+			return values[rowStart[keyB] + keyA];
+		}
+	}
+
+	/**
+	 * @return Count of keys in the range.
+	 */
+	public int getNotecount() {
+		return notecount;
+	}
+
+	/**
+	 * @return The hash of the tuning and dissonance curve parameters this matrix was calculated for.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Calculates the strict upper triangle of the matrix with one thread per available processor.
+	 * The rows get distributed in an interleaved way as they get shorter towards the bottom.
+	 * @param pitches The pitches of all keys in range.
+	 * @param curve The dissonance curve to calculate the dissonances of the intervals with.
+	 * @return The strict upper triangle of the matrix, row by row.
+	 * @throws IllegalStateException Thrown if a row couldn't be calculated or the calculation was interrupted, as the matrix would be incomplete.
+	 */
+	private static float[] calcValues(final double[] pitches, final DissonanceCurve curve) {
+		final int notecount = pitches.length;
+		final float[] values = new float[notecount * (notecount - 1) / 2];
+		final int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "DissonanceMatrix");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int t = 0; t < threads; t++){
+			final int firstRow = t;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for(int row = firstRow; row < notecount; row += threads){
+						int index = row * notecount - row * (row + 1) / 2;
+						for(int col = row + 1; col < notecount; col++){
+							if(Double.isNaN(pitches[row]) || Double.isNaN(pitches[col])){
+								values[index++] = 0; //unmapped keys have no pitch to be dissonant with
+							}else{
+								values[index++] = (float)curve.getDissonance(pitches[col] - pitches[row]);
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		try{
+			for(Future<Void> f : executor.invokeAll(tasks)){
+				f.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Calculating the dissonance matrix was interrupted", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Calculating the dissonance matrix failed", e.getCause());
+		}finally{
+			executor.shutdown();
+		}
+
+		return values;
+	}
+
+	/**
+	 * Calculates a 64 bit FNV-1a hash over the pitches and the parameters of the dissonance curve.
+	 * @param pitches The pitches of all keys in range.
+	 * @param curve The dissonance curve.
+	 * @return The hash which identifies a matrix in the cache folder.
+	 */
+	private static long calcHash(double[] pitches, DissonanceCurve curve) {
+		long hash = 0xcbf29ce484222325L;
+
+		hash = hashLong(hash, curve.getMaxfrac());
+		hash = hashLong(hash, Double.doubleToLongBits(curve.getBellWidth()));
+		hash = hashLong(hash, pitches.length);
+		for(double p : pitches){
+			hash = hashLong(hash, Double.doubleToLongBits(p));
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Adds the 8 bytes of value to the given FNV-1a hash.
+	 */
+	private static long hashLong(long hash, long value) {
+		for(int i = 0; i < 8; i++){
+			hash ^= (value >>> (8 * i)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Loads a matrix from the given cache file.
+	 * @param file The cache file.
+	 * @param notecount The expected count of keys.
+	 * @param hash The expected hash.
+	 * @return The loaded matrix, or null if the file doesn't exist or doesn't match.
+	 */
+	private static DissonanceMatrix load(File file, int notecount, long hash) {
+		if(!file.isFile()){
+			return null;
+		}
+
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try{
+				if(in.readInt() != FILE_MAGIC || in.readLong() != hash || in.readInt() != notecount){
+					logger.warning("Dissonance matrix cache file '" + file + "' doesn't match, ignoring it");
+					return null;
+				}
+
+				float[] values = new float[notecount * (notecount - 1) / 2];
+				for(int i = 0; i < values.length; i++){
+					values[i] = in.readFloat();
+				}
+
+				return new DissonanceMatrix(notecount, hash, values);
+			}finally{
+				in.close();
+			}
+		}catch(IOException e){
+			logger.warning("Couldn't read dissonance matrix cache file '" + file + "', error: " + e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Saves this matrix to the given cache file. Nonexistant folders get created automatically.
+	 * The matrix gets written to a temporary file in the same folder first and then renamed, so a crash while writing never leaves a truncated cache file.
+	 * @param file The cache file.
+	 * @throws IOException Thrown if either folders couldn't get created or writing to the file failed.
+	 */
+	private void save(File file) throws IOException {
+		File folder = file.getAbsoluteFile().getParentFile();
+		if(folder != null && !folder.isDirectory() && !folder.mkdirs()){
+			throw new IOException("Couldn't create necessary folders for file '" + file + "'.");
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		boolean written = false;
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try{
+				out.writeInt(FILE_MAGIC);
+				out.writeLong(hash);
+				out.writeInt(notecount);
+				for(float v : values){
+					out.writeFloat(v);
+				}
+			}finally{
+				out.close();
+			}
+
+			if(!temp.renameTo(file)){
+				//some platforms don't rename onto an existing file
+				file.delete();
+				if(!temp.renameTo(file)){
+					throw new IOException("Couldn't rename '" + temp + "' to '" + file + "'.");
+				}
+			}
+			written = true;
+		}finally{
+			if(!written){
+				temp.delete();
+			}
+		}
+	}
+}
@@ -1,23 +1,24 @@
 package rationalpiano.consonance;
 
-import java.util.HashMap;
-
 /**
- * Calculates the consonances for a range of notes (on the 12TET scale) given a set of active notes with different volumes.
+ * Calculates the consonances for a range of keys given a set of active keys with different volumes.
+ * Keys are given as indices relative to the first key of the range, so for a range starting at notestart, index 0 denotes the pitch index (or MIDI note number) notestart.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-15
- * @version 1.0
+ * @date 2026-10-19
+ * @version 1.1
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public interface IConsonance {
 
 	/**
-	 * Gets the dissonances for all notes in range [notestart, notestart+notecount-1] for the given set of sounding notes with their according volumes.
-	 * @param voicesValues A map with the sounding notes; the Integer key value denotes the midi note number and the Double value denotes the according volume; all notes not in the map are assumed to have volume 0.
-	 * @return A map with consonance values between 0 and 1 for all notes in range [notestart, notestart+notecount-1].
+	 * Calculates the consonances for all keys in range for the given set of sounding keys with their according volumes.
+	 * Costs are proportional to the count of keys in range times activeCount, so this scales to thousands of keys as long as only few of them are sounding.
+	 * @param volumes The volumes of the keys in range, 0<=volume<=1; only the entries listed in activeKeys are read.
+	 * @param activeKeys The indices of the sounding keys in the first activeCount entries; all keys not listed are assumed to have volume 0.
+	 * @param activeCount Count of valid entries in activeKeys.
+	 * @param consonances Gets filled with consonance values between 0 and 1 for all keys in range; must have a length of at least the count of keys in range.
 	 */
-	public abstract HashMap<Integer, Double> calculate(
-			HashMap<Integer, Double> voicesValues);
+	public abstract void calculate(double[] volumes, int[] activeKeys, int activeCount, double[] consonances);
 
 }
\ No newline at end of file
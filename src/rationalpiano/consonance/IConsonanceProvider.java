@@ -0,0 +1,39 @@
+package rationalpiano.consonance;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Creates IConsonance engines of one kind.
+ * Implementations get discovered with java.util.ServiceLoader, so they must have a public constructor without parameters and be listed in META-INF/services/rationalpiano.consonance.IConsonanceProvider.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public interface IConsonanceProvider {
+
+	/**
+	 * @return The unique name of the engine which is used to select it in the configuration.
+	 */
+	public abstract String getName();
+	
+	/**
+	 * @param tuning The tuning the engine should work with.
+	 * @return true if this engine can calculate consonances for the given tuning.
+	 */
+	public abstract boolean supports(ITuning tuning);
+	
+	/**
+	 * Creates a new engine. This may take a while as the dissonances of the intervals get calculated here.
+	 * @param notestart Pitch index (or MIDI note number) of the first key in range.
+	 * @param notecount Count of keys above (and inclusively) notestart to include.
+	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for.
+	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth>0
+	 * @param tuning The tuning which maps keys to pitches; supports(tuning) must be true.
+	 * @param cacheFolder Folder the engine may cache precalculated data in; null disables caching.
+	 * @return The new engine.
+	 */
+	public abstract IConsonance create(int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder);
+
+}
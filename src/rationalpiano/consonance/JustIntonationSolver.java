@@ -0,0 +1,241 @@
+package rationalpiano.consonance;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Calculates per-voice pitch offsets in cents which retune the sounding keys towards just intervals.
+ * For every pair of sounding keys, the rational number which best explains their interval (the same one the dissonance of the interval results from) gives the wanted just interval.
+ * As not all pairs can be just at the same time, the solver minimizes the sum of the squared deviations from the just intervals, weighted by both volumes and by the consonance of the rational (1 / numerator*denominator).
+ * A small anchor term pulls all offsets towards 0 so that the whole chord doesn't drift away over time.
+ * The minimization is done by Gauss-Seidel iterations which start at the offsets of the previous frame, so only a few iterations per frame are needed.
+ * The just intervals of all key pairs are calculated up front, so solve() only looks them up; setTuning() calculates them for a new tuning in the background and swaps them in when done.
+ * Not thread safe, call solve() from the ticking thread only.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class JustIntonationSolver {
+
+	private static final double ANCHOR_WEIGHT = 0.01;
+	private static final double TOLERANCE_CENTS = 0.01;
+
+	private int notestart;
+	private int notecount;
+	private int iterations;
+	private DissonanceCurve curve;
+
+	/**
+	 * The deviations of the best fitting just intervals from the tuned intervals and their weights, of one tuning.
+	 * Only one of the two pairs of arrays is set. Never changed once calculated, so it may be swapped in from another thread.
+	 */
+	private static class Intervals {
+		//equal tempered tunings: indexed by key distance
+		double[] deviationByDistance;
+		double[] weightByDistance;
+
+		//other tunings: strict upper triangle
+		float[] deviationByPair;
+		float[] weightByPair;
+	}
+
+	private volatile Intervals intervals;
+
+	private ExecutorService tuningExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "JustIntonationSolver");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private double[] offsets;
+	private boolean[] isSounding;
+	private int[] previousKeys;
+	private int previousCount = 0;
+
+	private long lastSolveNanos = 0;
+
+	private static final Logger logger = Logger.getLogger(JustIntonationSolver.class.getName());
+
+	/**
+	 * Calculates the just intervals for the initial tuning before returning.
+	 * @param notestart Pitch index (or MIDI note number) of the first key in range.
+	 * @param notecount Count of keys above (and inclusively) notestart to include.
+	 * @param curve The dissonance curve which provides the best fitting rational numbers.
+	 * @param tuning The tuning which maps keys to pitches.
+	 * @param iterations Maximum count of Gauss-Seidel iterations per call of solve(); a small number like 4 is enough as every call starts at the previous solution.
+	 */
+	public JustIntonationSolver(int notestart, int notecount, DissonanceCurve curve, ITuning tuning, int iterations) {
+		this.notestart = notestart;
+		this.notecount = notecount;
+		this.curve = curve;
+		this.iterations = iterations;
+
+		offsets = new double[notecount];
+		isSounding = new boolean[notecount];
+		previousKeys = new int[notecount];
+
+		intervals = calcIntervals(tuning);
+	}
+
+	/**
+	 * Changes the tuning. The just intervals of the new tuning get calculated in the background, so this method returns immediately.
+	 * Until they are ready, solve() uses the intervals of the previous tuning.
+	 * @param tuning The new tuning which maps keys to pitches.
+	 */
+	public void setTuning(final ITuning tuning) {
+		tuningExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				intervals = calcIntervals(tuning);
+				logger.info("Switched just intonation to tuning '" + tuning.getDescription() + "'");
+			}
+		});
+	}
+
+	/**
+	 * Calculates deviation and weight of all key pairs of the given tuning.
+	 */
+	private Intervals calcIntervals(ITuning tuning) {
+		long start = System.nanoTime();
+		Intervals result = new Intervals();
+
+		if(tuning.isEqualTempered()){
+			result.deviationByDistance = new double[notecount];
+			result.weightByDistance = new double[notecount];
+			for(int distance = 0; distance < notecount; distance++){
+				double tempered = tuning.getPitch(notestart + distance) - tuning.getPitch(notestart);
+				result.deviationByDistance[distance] = 100 * (curve.getBestRationalSemitones(tempered) - tempered);
+				result.weightByDistance[distance] = 1. / curve.getBestRational(tempered).getDiss();
+			}
+		}else{
+			result.deviationByPair = new float[notecount * (notecount - 1) / 2];
+			result.weightByPair = new float[result.deviationByPair.length];
+			int index = 0;
+			for(int low = 0; low < notecount; low++){
+				for(int high = low + 1; high < notecount; high++){
+					double tempered = tuning.getPitch(notestart + high) - tuning.getPitch(notestart + low);
+					if(!Double.isNaN(tempered)){ //unmapped keys have no interval to tune
+						result.weightByPair[index] = (float)(1. / curve.getBestRational(tempered).getDiss());
+						result.deviationByPair[index] = (float)(100 * (curve.getBestRationalSemitones(tempered) - tempered));
+					}
+					index++;
+				}
+			}
+		}
+
+		logger.info("Calculated just intervals of " + notecount + " keys in tuning '" + tuning.getDescription() + "' in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return result;
+	}
+
+	/**
+	 * Advances the solution by a few iterations for the given set of sounding keys.
+	 * Keys which start sounding get an offset which fits best to the other sounding keys, keys which stopped sounding get reset to 0.
+	 * @param volumes The volumes of the keys in range, indexed relative to notestart; only the entries listed in soundingKeys are read.
+	 * @param soundingKeys The indices (relative to notestart) of the sounding keys in the first soundingCount entries.
+	 * @param soundingCount Count of valid entries in soundingKeys.
+	 */
+	public void solve(double[] volumes, int[] soundingKeys, int soundingCount) {
+		long start = System.nanoTime();
+		Intervals intervals = this.intervals; //read once so a concurrent swap can't mix two tunings in one call
+
+		//reset keys which stopped sounding
+		for(int a = 0; a < soundingCount; a++){
+			isSounding[soundingKeys[a]] = true;
+		}
+		for(int p = 0; p < previousCount; p++){
+			if(!isSounding[previousKeys[p]]){
+				offsets[previousKeys[p]] = 0;
+			}
+		}
+		for(int a = 0; a < soundingCount; a++){
+			isSounding[soundingKeys[a]] = false;
+			previousKeys[a] = soundingKeys[a];
+		}
+		previousCount = soundingCount;
+
+		for(int iteration = 0; iteration < iterations; iteration++){
+			double maxChange = 0;
+
+			for(int a = 0; a < soundingCount; a++){
+				int i = soundingKeys[a];
+				double numerator = 0;
+				double denominator = ANCHOR_WEIGHT * volumes[i];
+
+				for(int b = 0; b < soundingCount; b++){
+					int j = soundingKeys[b];
+					if(i == j){
+						continue;
+					}
+					double w = volumes[i] * volumes[j] * getWeight(intervals, i, j);
+					//wanted: offsets[j] - offsets[i] == deviation(i,j)
+					numerator += w * (offsets[j] - getDeviation(intervals, i, j));
+					denominator += w;
+				}
+
+				double newOffset = (denominator > 0) ? numerator / denominator : 0;
+				maxChange = Math.max(maxChange, Math.abs(newOffset - offsets[i]));
+				offsets[i] = newOffset;
+			}
+
+			if(maxChange < TOLERANCE_CENTS){
+				break;
+			}
+		}
+
+		lastSolveNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * @param key Index of the key relative to notestart.
+	 * @return The current pitch offset of the given key in cents. 0 for keys which are not sounding.
+	 */
+	public double getOffset(int key) {
+		return offsets[key];
+	}
+
+	/**
+	 * @return The duration of the last call of solve() in nanoseconds.
+	 */
+	public long getLastSolveNanos() {
+		return lastSolveNanos;
+	}
+
+	/**
+	 * @return The deviation of the best fitting just interval from the tuned interval from key i to key j in cents.
+	 */
+	private double getDeviation(Intervals intervals, int i, int j) {
+		if(intervals.deviationByDistance != null){
+			return (j > i) ? intervals.deviationByDistance[j - i] : -intervals.deviationByDistance[i - j];
+		}
+		float deviation = intervals.deviationByPair[calcPairIndex(i, j)];
+		return (j > i) ? deviation : -deviation;
+	}
+
+	/**
+	 * @return The weight of the interval between key i and key j, which is the consonance of the best fitting rational number.
+	 */
+	private double getWeight(Intervals intervals, int i, int j) {
+		if(intervals.weightByDistance != null){
+			return intervals.weightByDistance[Math.abs(j - i)];
+		}
+		return intervals.weightByPair[calcPairIndex(i, j)];
+	}
+
+	/**
+	 * @return The index of the key pair in the strict upper triangle.
+	 */
+	private int calcPairIndex(int i, int j) {
+		int low = Math.min(i, j);
+		int high = Math.max(i, j);
+		return low * notecount - low * (low + 1) / 2 + (high - low - 1);
+	}
+}
@@ -0,0 +1,112 @@
+package rationalpiano.consonance;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Calculates the consonances for a range of keys in an arbitrary tuning given a set of active keys with different volumes.
+ * Works like Consonance, but as the intervals between keys don't only depend on their distance, the dissonances of all key pairs are held in a DissonanceMatrix.
+ * The tuning can be changed at runtime; the new matrix gets calculated in the background and is swapped in as soon as it is ready, calculate() keeps using the old one until then.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class TuningConsonance implements IConsonance {
+
+	private int notestart;
+	private int notecount;
+	private String cacheFolder;
+
+	private DissonanceCurve curve;
+	private volatile DissonanceMatrix matrix;
+	private volatile Runnable switchHandler;
+
+	private ExecutorService tuningExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "TuningConsonance");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static final Logger logger = Logger.getLogger(TuningConsonance.class.getName());
+
+	/**
+	 * Calculates the dissonance matrix for the initial tuning before returning.
+	 * @param notestart Midi note number of the first key in range.
+	 * @param notecount Count of keys above (and inclusively) notestart to include.
+	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for. 157 is a good value. High values will cause longer initialization times!
+	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth==1 means it's inflection point is at +- 1/Sqrt(e) semitones. bellWidth>0
+	 * @param tuning The initial tuning which maps keys to pitches.
+	 * @param cacheFolder Folder to read and write calculated dissonance matrices from/to, keyed by a hash of the tuning; null disables caching.
+	 * @throws IllegalStateException Thrown if the dissonance matrix couldn't be calculated.
+	 */
+	public TuningConsonance(int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder) {
+		this.notestart = notestart;
+		this.notecount = notecount;
+		this.cacheFolder = cacheFolder;
+
+		logger.info("Calculating consonances for a range of " + notecount + " notes in tuning '" + tuning.getDescription() + "' with a maximum fraction dissonance of " + maxfrac + " and an approximating bell curve with width " + bellWidth);
+
+		curve = new DissonanceCurve(maxfrac, bellWidth);
+		matrix = DissonanceMatrix.create(tuning, notestart, notecount, curve, cacheFolder);
+	}
+
+	/**
+	 * Changes the tuning. The new dissonance matrix gets loaded or calculated in the background, so this method returns immediately.
+	 * Until the new matrix is ready, calculate() uses the matrix of the previous tuning.
+	 * @param tuning The new tuning which maps keys to pitches.
+	 */
+	public void setTuning(final ITuning tuning) {
+		tuningExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					matrix = DissonanceMatrix.create(tuning, notestart, notecount, curve, cacheFolder);
+				}catch(IllegalStateException e){
+					logger.severe("Couldn't switch to tuning '" + tuning.getDescription() + "', keeping the previous one, error: " + e.toString());
+					return;
+				}
+				logger.info("Switched to tuning '" + tuning.getDescription() + "'");
+				Runnable handler = switchHandler;
+				if(handler != null){
+					handler.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the handler which gets called when the matrix of a new tuning has been swapped in, so the consonances can be calculated anew.
+	 * @param switchHandler Handler to run, called from the background thread; null for none.
+	 */
+	public void setSwitchHandler(Runnable switchHandler) {
+		this.switchHandler = switchHandler;
+	}
+
+	@Override
+	public void calculate(double[] volumes, int[] activeKeys, int activeCount, double[] consonances) {
+		//add up single dissonances and then invert
+
+		DissonanceMatrix m = matrix; //read once so a concurrent swap can't mix two tunings in one frame
+
+		for(int keyout = 0; keyout < notecount; keyout++){
+			double comboDiss = 1; //make sure the calculated dissonance value is always greater or equal to 1
+			for(int a = 0; a < activeCount; a++){
+				int keywith = activeKeys[a];
+				if(keywith == keyout){
+					continue; //as every key can only be played once at a time, the dissonance to itself doesn't have to be considered
+				}
+				comboDiss += m.get(keyout, keywith) * volumes[keywith];
+			}
+			consonances[keyout] = 1 / (comboDiss);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package rationalpiano.consonance;
+
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Provides the TuningConsonance engine which stores a full dissonance matrix.
+ * This is the reference engine for tunings which are not equal tempered; equal tempered tunings are left to engines with a smaller memory footprint.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class TuningConsonanceProvider implements IConsonanceProvider {
+	
+	/**
+	 * The name of this engine.
+	 */
+	public static final String NAME = "matrix";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean supports(ITuning tuning) {
+		return !tuning.isEqualTempered();
+	}
+
+	@Override
+	public IConsonance create(int notestart, int notecount, int maxfrac, double bellWidth, ITuning tuning, String cacheFolder) {
+		return new TuningConsonance(notestart, notecount, maxfrac, bellWidth, tuning, cacheFolder);
+	}
+
+}
@@ -1,23 +1,23 @@
 package rationalpiano.graphic;
 
-import java.util.ArrayList;
 //import java.util.HashMap;
 
 import processing.core.PApplet;
 
 /**
- * Represents an array of several IGraphicVisualizationElement objects with iterated corresponding MIDI note numbers
+ * Represents an array of several IGraphicVisualizationElement objects with iterated corresponding MIDI note numbers (or pitch indices in EDO mode)
+ * When there are more lines than pixels, the lines get placed at fractional positions and several lines share one pixel column.
  * 
  * @author Fabian Ehrentraud
- * @date 2010-10-20
- * @version 1.01
+ * @date 2026-10-19
+ * @version 1.02
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class GraphicNoteLineArray implements IGraphicVisualizationElementArray {
 
 	private PApplet papplet;
 	
-	private ArrayList<IGraphicVisualizationElement> lines = new ArrayList<IGraphicVisualizationElement>();
+	private IGraphicVisualizationElement[] lines;
 	private int lineCount;
 	private int x_min;
 	private int x_max;
@@ -25,12 +25,13 @@ public class GraphicNoteLineArray implements IGraphicVisualizationElementArray {
 	private int y_bottom;
 	private int midi_notestart;
 	private int roundOffset;
+	private double spacing;
 
 	/**
 	 * Initializes the array of Note Lines
 	 * @param papplet The processing applet to draw the note lines to
 	 * @param lineCount Count of Note Lines to display
-	 * @param midi_notestart The MIDI note number of the leftmost line, the other lines have incremental MIDI note numbers 
+	 * @param midi_notestart The MIDI note number (or pitch index) of the leftmost line, the other lines have incremental MIDI note numbers 
 	 * @param x_min The left x coordinate relative to the PApplet window to start the drawing of the lines; x_min < x_max
 	 * @param x_max The right x coordinate relative to the PApplet window to start the drawing of the lines; x_min < x_max
 	 * @param y_top The top y coordinate relative to the PApplet window to start the drawing of the lines; y_top < y_bottom
@@ -50,12 +51,18 @@ public class GraphicNoteLineArray implements IGraphicVisualizationElementArray {
 		this.y_bottom = y_bottom;
 		this.midi_notestart = midi_notestart;
 		
-		roundOffset = ((x_max-x_min) - (x_max-x_min)/lineCount*lineCount) / 2; //every line has a width that's a whole number; if the width of the notelinearray is not divisible by the line count, they will get centered 
-		int spacing = (x_max-x_min)/(lineCount);
-		IGraphicVisualizationElement line;
+		if(x_max-x_min >= lineCount){
+			roundOffset = ((x_max-x_min) - (x_max-x_min)/lineCount*lineCount) / 2; //every line has a width that's a whole number; if the width of the notelinearray is not divisible by the line count, they will get centered 
+			spacing = (x_max-x_min)/(lineCount);
+		}else{
+			//more lines than pixels (eg. several octaves of a 53-EDO keyboard), lines get fractional positions
+			roundOffset = 0;
+			spacing = (x_max-x_min)/(double)lineCount;
+		}
+		
+		lines = new IGraphicVisualizationElement[lineCount];
 		for(int i=0; i<lineCount; i++){
-			line = new GraphicVerticalLineTriangle2(this.papplet, spacing, y_bottom-y_top, x_min + roundOffset + spacing*(i+1) - spacing/2 , y_top, lineBend, lineColorHueInactive, lineColorHueActive, lineColorSaturation, lineColorBrightness);
-			lines.add(line);
+			lines[i] = new GraphicVerticalLineTriangle2(this.papplet, (int)spacing, y_bottom-y_top, x_min + roundOffset + (int)(spacing*(i+1)) - (int)spacing/2, y_top, lineBend, lineColorHueInactive, lineColorHueActive, lineColorSaturation, lineColorBrightness);
 		}
 	}
 
@@ -65,20 +72,18 @@ public class GraphicNoteLineArray implements IGraphicVisualizationElementArray {
 			return -1;
 		}
 		
-		int spacing = (x_max-x_min)/(lineCount);
-		int i;
-		for(i=0; i<lineCount; i++){
-			if(x_min + roundOffset + spacing*i > at_x){
-				//found according line
-				if(i == 0){
-					//area left of the first line belongs to the first line too
-					i++;
-				}
-				break;
-			}
+		//direct calculation instead of searching, as there might be thousands of lines
+		int i = (int)Math.floor((at_x - x_min - roundOffset) / spacing);
+		
+		if(i < 0){
+			//area left of the first line belongs to the first line too
+			i = 0;
+		}else if(i >= lineCount){
+			//area right of the last line belongs to the last line too
+			i = lineCount - 1;
 		}
 
-		return midi_notestart + i-1;
+		return midi_notestart + i;
 	}
 
 	@Override
@@ -96,8 +101,8 @@ public class GraphicNoteLineArray implements IGraphicVisualizationElementArray {
 
 	@Override
 	public IGraphicVisualizationElement getElement(int midiNoteNumber) {
-		if(midiNoteNumber - midi_notestart >= 0 && midiNoteNumber - midi_notestart < lines.size()){
-			return lines.get(midiNoteNumber - midi_notestart);
+		if(midiNoteNumber - midi_notestart >= 0 && midiNoteNumber - midi_notestart < lines.length){
+			return lines[midiNoteNumber - midi_notestart];
 		} else {
 			return null;
 		}
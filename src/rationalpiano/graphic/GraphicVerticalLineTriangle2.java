@@ -7,8 +7,8 @@ import processing.core.*;
  * The width is drawn with a color transistion.
  * 
  * @author Fabian Ehrentraud
- * @date 2010-07-26
- * @version 1.01
+ * @date 2026-10-19
+ * @version 1.02
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class GraphicVerticalLineTriangle2 implements IGraphicVisualizationElement {
@@ -44,7 +44,7 @@ public class GraphicVerticalLineTriangle2 implements IGraphicVisualizationElemen
 	 */
 	public GraphicVerticalLineTriangle2(PApplet papplet, int width, int height, int x_center, int y_top, double bend, int lineColorHueInactive, int lineColorHueActive, int lineColorSaturation, int lineColorBrightness) {
 		this.papplet = papplet;
-		this.halfwidth = (int)Math.ceil(width/2);
+		this.halfwidth = Math.max(1, (int)Math.ceil(width/2)); //lines narrower than 2 pixels still get drawn with one pixel
 		this.height = height;
 		this.x = x_center;
 		this.y = y_top;
@@ -2,24 +2,32 @@ package rationalpiano.input;
 
 import java.util.logging.Logger;
 
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.ShortMessage;
+
 import processing.core.PApplet;
 import rationalpiano.noteout.INoteOutput;
+import rationalpiano.noteout.MidiDevices;
 import rationalpiano.voicemanagement.IVoices;
 
 import rwmidi.Controller;
 import rwmidi.Note;
 import rwmidi.ProgramChange;
-import rwmidi.RWMidi;
 import rwmidi.MidiInput;
 import rwmidi.SysexMessage;
 
 /**
- * Receives Midi Notes and CC Messages for Sustain.
- * Translates presses to newVoice() and noteOn() and releases to releaseVoice() and noteOff().
+ * Receives Midi Notes, CC Messages for Sustain and Polyphonic Aftertouch.
+ * Translates presses to newVoice() and noteOn() and releases to releaseVoice() and noteOff(), and aftertouch to setPressure().
+ * The MIDI channel of the messages selects the voice set, so players on different channels don't collide on the same keys.
+ * As the note output is keyed by the note number only, a key held in several channels gets its note off sent when it is released in the last of them.
+ * rwmidi doesn't pass aftertouch on to plugged objects, so it gets taken from the raw messages before they are handed to the plugs.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-30
- * @version 1.1
+ * @date 2026-10-19
+ * @version 1.5
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class InputMidi {
@@ -31,6 +39,10 @@ public class InputMidi {
 	
 	private String chosenMidiInput;
 	
+	//only touched by the MIDI input thread
+	private boolean[][] held = new boolean[16][128]; //indexed by channel, note
+	private int[] heldChannels = new int[128]; //count of channels each note is held in
+	
 	private static final Logger logger = Logger.getLogger(InputMidi.class.getName());
 
 	/**
@@ -52,7 +64,7 @@ public class InputMidi {
 	 * @return The String names of all Midi Input Devices
 	 */
 	public String[] getMidiInputDevices(){
-		return RWMidi.getInputDeviceNames();
+		return MidiDevices.getNames(true);
 	}
 	
 	/**
@@ -67,29 +79,29 @@ public class InputMidi {
 		}catch(NullPointerException e){
 		}
 		
-		String devices[] = RWMidi.getInputDeviceNames();
-		
-		logger.config("Available MIDI Input Devices:");
-		for(String device : devices){
-			logger.config("    " + device);
-		}
-		logger.config("Searching for MIDI Device containing string '" + midiInputDevice + "'");
-		
-		int i;
-		for(i=0; i<devices.length; i++){
-			if(devices[i].toLowerCase().contains(midiInputDevice.toLowerCase())){
-				logger.config("MIDI Device chosen: '" + devices[i] + "'");
-				chosenMidiInput = devices[i];
-				break;
-			}
-		}
-		if(i==devices.length){
-			i--;
-			logger.severe("MIDI Device not found, choosing last device: '" + devices[i] + "'");
-			chosenMidiInput = devices[i];
+		MidiDevice device = MidiDevices.choose(true, midiInputDevice);
+		if(device == null){
+			midiinput = null;
+			return;
 		}
+		chosenMidiInput = MidiDevices.getName(device);
 
-		midiinput = RWMidi.getInputDevices()[i].createInput(); //FIXME exception can happen here but the library catches it (as it is a processing library) => modify library to throw the exeption
+		try{
+			midiinput = new MidiInput(device) {
+				@Override
+				public void send(MidiMessage message, long timeStamp) {
+					if(message instanceof ShortMessage && ((ShortMessage)message).getCommand() == ShortMessage.POLY_PRESSURE){
+						polyPressureReceived((ShortMessage)message);
+						return;
+					}
+					super.send(message, timeStamp);
+				}
+			};
+		}catch(MidiUnavailableException e){
+			logger.severe("Couldn't open MIDI Device '" + chosenMidiInput + "', error: " + e.toString());
+			midiinput = null;
+			return;
+		}
 		
 		midiinput.plug(this);
 	}
@@ -105,23 +117,42 @@ public class InputMidi {
 			return;
 		}
 		else{
+			if(!held[note.getChannel()][note.getPitch()]){
+				held[note.getChannel()][note.getPitch()] = true;
+				heldChannels[note.getPitch()]++;
+			}
 			noteoutput.noteOn(note.getPitch(), (double)note.getVelocity()/127);
-			voices.newVoice(note.getPitch(),(double)note.getVelocity()/127);
+			voices.newVoice(note.getChannel(), note.getPitch(), (double)note.getVelocity()/127);
 			//logger.config("Note On: Pitch = " + note.getPitch() + ", Velocity = " + note.getVelocity());
 		}
 	}
 	
 	/**
 	 * Handles incoming Note Off messages.
-	 * Translates these calls to according method calls in the IVoices and INoteOutput objects.
+	 * Translates these calls to according method calls in the IVoices and INoteOutput objects; the note output only gets the note off when no other channel holds the key anymore.
 	 * @param note The received Note Off message.
 	 */
 	public void noteOffReceived(Note note){
-		noteoutput.noteOff(note.getPitch());
-		voices.releaseVoice(note.getPitch());
+		if(held[note.getChannel()][note.getPitch()]){
+			held[note.getChannel()][note.getPitch()] = false;
+			heldChannels[note.getPitch()]--;
+		}
+		if(heldChannels[note.getPitch()] == 0){
+			noteoutput.noteOff(note.getPitch());
+		}
+		voices.releaseVoice(note.getChannel(), note.getPitch());
 		//logger.config("Note Off: Pitch = " + note.getPitch());
 	}
 	
+	/**
+	 * Handles incoming Polyphonic Aftertouch messages.
+	 * Forwards the pressure as the new velocity of the key to the IVoices object, which coalesces bursts of them.
+	 * @param message The received Polyphonic Aftertouch message.
+	 */
+	public void polyPressureReceived(ShortMessage message){
+		voices.setPressure(message.getChannel(), message.getData1(), (double)message.getData2() / 127);
+	}
+	
 	/**
 	 * Handles incoming CC messages.
 	 * Only pays attention to Sustain (damper) messages which are CC64 and forwards them to the IVoices and INoteOutput objects.
@@ -131,9 +162,9 @@ public class InputMidi {
 		if(controller.getCC() == 64){
 			noteoutput.sustain((double)controller.getValue() / 127);
 			if(controller.getValue() >= 64){
-				voices.setSustain(true);
+				voices.setSustain(controller.getChannel(), true);
 			}else{
-				voices.setSustain(false);
+				voices.setSustain(controller.getChannel(), false);
 			}
 		}
 	}
@@ -0,0 +1,527 @@
+package rationalpiano.noteout;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import rationalpiano.voicemanagement.CoalescingValues;
+
+/**
+ * Passes all calls to another INoteOutput on a dedicated sender thread, so a slow MIDI driver or a blocked socket never stalls the input handling or the drawing.
+ * The calls get queued in a bounded lock-free ring of preallocated slots (after D. Vyukov's bounded queue, with a compare-and-set on both ends so a producer can also drop the oldest entry); neither the callers nor the sender thread allocate any objects or wait for a lock.
+ * What happens when the ring is full depends on the overflow policy:
+ * BLOCK = the caller waits until the sender thread has freed a slot, so nothing gets lost.
+ * DROP_OLDEST = the oldest queued call gets dropped to make room. Note offs never get lost though, so no note is left hanging: a note off which has to make room is kept aside and passed on before the calls queued after it, several ones of the same note only once.
+ * COALESCE = retune and consonance calls which find the ring full only keep their latest value per note, which the sender thread passes on after the calls queued before them; until it has taken them, further retune and consonance calls get merged as well, so an older value never overtakes a newer one. Note on/off and sustain calls keep their order and wait like with BLOCK.
+ * An isolated output never lets a caller wait: when its ring is full it drops the oldest call (keeping note offs aside the same way) whatever the policy, so a destination which hangs only loses its own calls (see MultiNoteOutput).
+ * Exceptions thrown by the output are caught on the sender thread and counted, only the first one gets logged.
+ * Metrics for the queue depth and the latency from a call to its completion on the sender thread are kept and logged with level FINE every 10 seconds.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.4
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class AsyncNoteOutput implements INoteOutput, Runnable {
+
+	private enum commands {NOTE_ON, NOTE_OFF, SUSTAIN, RETUNE, CONSONANCE, FLUSH}
+
+	//notes which keep their latest retune value in COALESCE mode, followed by the slots for their consonance
+	private static final int COALESCED_NOTES = 128;
+	private static final int CONSONANCE_SLOTS = COALESCED_NOTES;
+
+	private static final long BLOCK_PARK_NANOS = 50 * 1000;
+	private static final long IDLE_PARK_NANOS = 1000 * 1000;
+	private static final long METRICS_LOG_INTERVAL_NANOS = 10L * 1000 * 1000 * 1000;
+
+	private INoteOutput output;
+	private overflowPolicies overflowPolicy;
+	private String name;
+	private boolean isolated;
+
+	private int mask;
+
+	//indexed by position & mask
+	private AtomicLongArray sequences;
+	private commands[] types;
+	private int[] midiNoteNumbers;
+	private double[] values;
+	private long[] nanoTimes;
+
+	private AtomicLong tail = new AtomicLong(0); //next position to write
+	private AtomicLong head = new AtomicLong(0); //next position to read
+
+	//COALESCE mode only
+	private CoalescingValues coalescing;
+	private int[] takenSlots;
+	private double[] takenValues;
+	private volatile boolean coalescingPending = false; //values were set which the sender thread hasn't taken yet
+
+	//note offs which had to make room, passed on by the sender thread before the calls queued after them
+	private int[] keptNoteOffs; //guarded by itself
+	private int keptCount = 0;
+	private volatile boolean noteOffsKept = false;
+	private int[] sendingNoteOffs; //sender thread only
+
+	private volatile Thread thread;
+	private volatile boolean running = false;
+	private volatile boolean waiting = false;
+
+	private AtomicLong dropped = new AtomicLong(0);
+	private AtomicLong blocked = new AtomicLong(0);
+	private volatile long failed = 0;
+
+	//metrics, written by the sender thread only
+	private volatile long sent = 0;
+	private volatile long maxDepth = 0;
+	private volatile long latencySum = 0;
+	private volatile long maxLatency = 0;
+	private long lastMetricsLog = System.nanoTime();
+
+	private static final Logger logger = Logger.getLogger(AsyncNoteOutput.class.getName());
+
+	/**
+	 * @param output The output to pass the calls to on the sender thread.
+	 * @param capacity Maximum count of queued calls. Gets rounded up to the next power of two.
+	 * @param overflowPolicy What to do when the queue is full.
+	 */
+	public AsyncNoteOutput(INoteOutput output, int capacity, overflowPolicies overflowPolicy) {
+		this(output, capacity, overflowPolicy, "NoteOutputSender", false);
+	}
+
+	/**
+	 * @param output The output to pass the calls to on the sender thread.
+	 * @param capacity Maximum count of queued calls. Gets rounded up to the next power of two.
+	 * @param overflowPolicy What to do when the queue is full.
+	 * @param name Name of the sender thread, also used in the log messages.
+	 * @param isolated true to drop the oldest call instead of waiting when the queue is full, even with the BLOCK and COALESCE policies.
+	 */
+	public AsyncNoteOutput(INoteOutput output, int capacity, overflowPolicies overflowPolicy, String name, boolean isolated) {
+		this.output = output;
+		this.overflowPolicy = overflowPolicy;
+		this.name = name;
+		this.isolated = isolated;
+
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+
+		sequences = new AtomicLongArray(size);
+		types = new commands[size];
+		midiNoteNumbers = new int[size];
+		values = new double[size];
+		nanoTimes = new long[size];
+
+		for(int i = 0; i < size; i++){
+			sequences.set(i, i);
+		}
+		keptNoteOffs = new int[size];
+		sendingNoteOffs = new int[size];
+
+		if(overflowPolicy == overflowPolicies.COALESCE){
+			coalescing = new CoalescingValues(2 * COALESCED_NOTES);
+			takenSlots = new int[2 * COALESCED_NOTES];
+			takenValues = new double[2 * COALESCED_NOTES];
+		}
+	}
+
+	/**
+	 * Starts the sender thread.
+	 */
+	public synchronized void start() {
+		if(running){
+			return;
+		}
+		logger.info("Starting asynchronous note output " + name + " with a queue of " + (mask + 1) + " and overflow policy " + overflowPolicy + (isolated ? ", isolated" : ""));
+		running = true;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the sender thread after it has passed on all queued calls.
+	 */
+	public synchronized void stop() {
+		running = false;
+		Thread t = thread;
+		if(t != null){
+			LockSupport.unpark(t);
+		}
+	}
+
+	@Override
+	public void noteOn(int midiNoteNumber, double velocity) {
+		enqueue(commands.NOTE_ON, midiNoteNumber, velocity);
+	}
+
+	@Override
+	public void noteOff(int midiNoteNumber) {
+		enqueue(commands.NOTE_OFF, midiNoteNumber, 0);
+	}
+
+	@Override
+	public void sustain(double sustain) {
+		enqueue(commands.SUSTAIN, 0, sustain);
+	}
+
+	@Override
+	public void retune(int midiNoteNumber, double cents) {
+		enqueue(commands.RETUNE, midiNoteNumber, cents);
+	}
+
+	@Override
+	public void consonance(int midiNoteNumber, double consonance) {
+		enqueue(commands.CONSONANCE, midiNoteNumber, consonance);
+	}
+
+	@Override
+	public void flush() {
+		enqueue(commands.FLUSH, 0, 0);
+	}
+
+	/**
+	 * Queues a call, handling a full queue according to the overflow policy. May be called concurrently from any count of threads.
+	 */
+	private void enqueue(commands type, int midiNoteNumber, double value) {
+		if(coalescingPending && coalesce(type, midiNoteNumber, value)){
+			return;
+		}
+
+		long nanoTime = System.nanoTime();
+		long position;
+
+		while(true){
+			position = tail.get();
+			long diff = sequences.get((int)position & mask) - position;
+			if(diff == 0){
+				if(tail.compareAndSet(position, position + 1)){
+					break;
+				}
+			}else if(diff < 0){
+				//full, the sender hasn't freed this slot yet
+				if(coalesce(type, midiNoteNumber, value)){
+					return;
+				}
+				if(overflowPolicy == overflowPolicies.DROP_OLDEST || isolated){
+					dequeue(false);
+				}else{
+					blocked.incrementAndGet();
+					wakeSender();
+					LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				}
+			}
+			//else another producer claimed this position in the meantime, try the next one
+		}
+
+		int index = (int)position & mask;
+		types[index] = type;
+		midiNoteNumbers[index] = midiNoteNumber;
+		values[index] = value;
+		nanoTimes[index] = nanoTime;
+		sequences.set(index, position + 1); //publish, the volatile write makes the fields above visible to the sender
+
+		wakeSender();
+	}
+
+	/**
+	 * Keeps the value of a retune or consonance call in its coalescing slot instead of queueing it (COALESCE).
+	 * @return false if the call can't be coalesced.
+	 */
+	private boolean coalesce(commands type, int midiNoteNumber, double value) {
+		if(coalescing == null || midiNoteNumber < 0 || midiNoteNumber >= COALESCED_NOTES){
+			return false;
+		}
+		if(type == commands.RETUNE){
+			coalescing.set(midiNoteNumber, value);
+		}else if(type == commands.CONSONANCE){
+			coalescing.set(CONSONANCE_SLOTS + midiNoteNumber, value);
+		}else{
+			return false;
+		}
+		coalescingPending = true; //after the value, so the sender either takes it or leaves the flag set
+		wakeSender();
+		return true;
+	}
+
+	/**
+	 * Takes the oldest completely written call from the queue and frees its slot.
+	 * Before freeing, it waits until the call before has been taken completely, so a note off kept aside by a producer is known to the sender thread before it passes on a later call.
+	 * @param execute true to pass the call on to the output (sender thread), false to drop it, or keep it aside if it is a note off (producers in DROP_OLDEST mode).
+	 * @return false if the queue was empty or the oldest call is still being written.
+	 */
+	private boolean dequeue(boolean execute) {
+		long position;
+		int index;
+
+		while(true){
+			position = head.get();
+			index = (int)position & mask;
+			if(sequences.get(index) != position + 1){
+				return false;
+			}
+			if(head.compareAndSet(position, position + 1)){
+				break;
+			}
+		}
+
+		commands type = types[index];
+		int midiNoteNumber = midiNoteNumbers[index];
+		double value = values[index];
+		long nanoTime = nanoTimes[index];
+		while(sequences.get((int)(position - 1) & mask) == position){
+			Thread.yield(); //the previous call has been claimed but not freed yet
+		}
+		if(!execute){
+			if(type == commands.NOTE_OFF){
+				keepNoteOff(midiNoteNumber);
+			}else{
+				dropped.incrementAndGet();
+			}
+		}
+		sequences.set(index, position + mask + 1); //free the slot for the next round before calling the output, so a failing output can't block the queue
+
+		if(execute){
+			sendKeptNoteOffs();
+			execute(type, midiNoteNumber, value);
+			recordLatency(nanoTime);
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps a note off which had to make room aside for the sender thread, unless one of the same note is kept already. Only called by producers.
+	 */
+	private void keepNoteOff(int midiNoteNumber) {
+		synchronized(keptNoteOffs){
+			for(int a = 0; a < keptCount; a++){
+				if(keptNoteOffs[a] == midiNoteNumber){
+					dropped.incrementAndGet(); //the note gets turned off anyway
+					return;
+				}
+			}
+			if(keptCount == keptNoteOffs.length){
+				dropped.incrementAndGet(); //more distinct notes than the queue holds, the sender is hanging
+				return;
+			}
+			keptNoteOffs[keptCount++] = midiNoteNumber;
+			noteOffsKept = true;
+		}
+	}
+
+	/**
+	 * Passes the note offs on which were kept aside. Only called by the sender thread; the output gets called outside of the lock, so a hanging output can't block the producers.
+	 */
+	private void sendKeptNoteOffs() {
+		if(!noteOffsKept){
+			return;
+		}
+		int count;
+		synchronized(keptNoteOffs){
+			noteOffsKept = false;
+			count = keptCount;
+			System.arraycopy(keptNoteOffs, 0, sendingNoteOffs, 0, count);
+			keptCount = 0;
+		}
+		for(int a = 0; a < count; a++){
+			execute(commands.NOTE_OFF, sendingNoteOffs[a], 0);
+			sent++;
+		}
+	}
+
+	/**
+	 * Passes a call on to the output. Only called by the sender thread.
+	 */
+	private void execute(commands type, int midiNoteNumber, double value) {
+		try{
+			switch(type){
+				case NOTE_ON:
+					output.noteOn(midiNoteNumber, value);
+					break;
+				case NOTE_OFF:
+					output.noteOff(midiNoteNumber);
+					break;
+				case SUSTAIN:
+					output.sustain(value);
+					break;
+				case RETUNE:
+					output.retune(midiNoteNumber, value);
+					break;
+				case CONSONANCE:
+					output.consonance(midiNoteNumber, value);
+					break;
+				case FLUSH:
+					if(coalescing != null){
+						sendCoalesced(false); //so the values of this frame get into the frame's bundle
+					}
+					output.flush();
+					break;
+			}
+		}catch(RuntimeException e){
+			if(failed == 0){
+				logger.warning("Note output " + name + " failed, further failures only get counted: " + e);
+			}
+			failed++;
+		}
+	}
+
+	/**
+	 * Passes the latest coalesced retune and consonance values on to the output. Only called by the sender thread in COALESCE mode.
+	 * @param drain true to empty the queue after taking the values, so the calls which were queued before a value was set get passed on before it. Not needed on a flush, as the retunes of a frame are set by the same thread before its flush gets queued.
+	 */
+	private void sendCoalesced(boolean drain) {
+		coalescingPending = false; //before taking, so a value set in the meantime leaves it set again
+		int count = coalescing.take(takenSlots, takenValues);
+		if(count == 0){
+			return;
+		}
+
+		if(drain){
+			while(dequeue(true)){
+			}
+		}
+
+		for(int a = 0; a < count; a++){
+			if(takenSlots[a] >= CONSONANCE_SLOTS){
+				execute(commands.CONSONANCE, takenSlots[a] - CONSONANCE_SLOTS, takenValues[a]);
+			}else{
+				execute(commands.RETUNE, takenSlots[a], takenValues[a]);
+			}
+		}
+	}
+
+	/**
+	 * Run by the sender thread: passes on all queued calls and parks while there are none.
+	 */
+	@Override
+	public void run() {
+		while(true){
+			long depth = tail.get() - head.get();
+			if(depth > maxDepth){
+				maxDepth = depth;
+			}
+
+			boolean busy = false;
+			while(dequeue(true)){
+				busy = true;
+			}
+			sendKeptNoteOffs();
+			if(coalescing != null){
+				sendCoalesced(true);
+			}
+
+			if(!busy){
+				if(!running){
+					return; //everything queued before stop() has been passed on
+				}
+				waiting = true;
+				if(tail.get() == head.get()){
+					LockSupport.parkNanos(IDLE_PARK_NANOS); //the timeout also picks up coalesced values set without a wake up
+				}
+				waiting = false;
+			}
+
+			logMetrics();
+		}
+	}
+
+	/**
+	 * Wakes the sender thread if it is parked.
+	 */
+	private void wakeSender() {
+		if(waiting){
+			Thread t = thread;
+			if(t != null){
+				LockSupport.unpark(t);
+			}
+		}
+	}
+
+	private void recordLatency(long nanoTime) {
+		long latency = System.nanoTime() - nanoTime;
+		sent++;
+		latencySum += latency;
+		if(latency > maxLatency){
+			maxLatency = latency;
+		}
+	}
+
+	private void logMetrics() {
+		if(System.nanoTime() - lastMetricsLog > METRICS_LOG_INTERVAL_NANOS){
+			lastMetricsLog = System.nanoTime();
+			logger.fine("Asynchronous note output " + name + ": " + sent + " calls passed on, queue depth " + getQueueDepth() + " (maximum " + maxDepth + "), average latency " + (long)getAverageLatency() / 1000 + " us (maximum " + maxLatency / 1000 + " us), " + dropped.get() + " dropped, " + blocked.get() + " waits on a full queue, " + failed + " failed");
+		}
+	}
+
+	/**
+	 * @return The count of calls currently queued.
+	 */
+	public long getQueueDepth() {
+		return Math.max(0, tail.get() - head.get());
+	}
+
+	/**
+	 * @return The highest count of queued calls the sender thread found.
+	 */
+	public long getMaxQueueDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return The average time in nanoseconds from a call to its completion on the sender thread; 0 if no call was passed on.
+	 */
+	public double getAverageLatency() {
+		long count = sent;
+		return (count == 0) ? 0 : latencySum / (double)count;
+	}
+
+	/**
+	 * @return The longest time in nanoseconds from a call to its completion on the sender thread.
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * @return The count of calls which were passed on to the output.
+	 */
+	public long getSentCount() {
+		return sent;
+	}
+
+	/**
+	 * @return The count of calls for which the output threw an exception.
+	 */
+	public long getFailedCount() {
+		return failed;
+	}
+
+	/**
+	 * @return The name of the sender thread.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The count of calls which got dropped because the queue was full (DROP_OLDEST, or any policy if isolated); note offs which were kept aside and passed on later don't count.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return The count of times a caller had to wait for a free slot (BLOCK, and note on/off in COALESCE).
+	 */
+	public long getBlockedCount() {
+		return blocked.get();
+	}
+
+	/**
+	 * @return The count of retune and consonance values which were replaced by a newer one before being passed on (COALESCE).
+	 */
+	public long getCoalescedCount() {
+		return (coalescing == null) ? 0 : coalescing.getCoalescedCount();
+	}
+
+}
@@ -0,0 +1,138 @@
+package rationalpiano.noteout;
+
+import java.util.logging.Logger;
+
+/**
+ * Streams the consonance of every sounding key to an INoteOutput, so synths can use it as a modulation source.
+ * A key only gets sent when it started sounding or its consonance changed by more than a threshold since it was last sent, and the count of messages per second is capped by a token bucket, so the stream doesn't swamp a MIDI link.
+ * Keys which didn't fit into the cap keep their old value as reference and get sent in a later tick; the keys are visited starting at a rotating offset, so no key is starved.
+ * Not thread safe, meant to be updated by the thread which calculates the consonances.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class ConsonanceStream {
+
+	//the bucket holds at most the messages of this time, so after a quiet phase not too many get sent at once
+	private static final double BURST_SECONDS = 0.05;
+
+	private static final long METRICS_LOG_INTERVAL_NANOS = 10L * 1000 * 1000 * 1000;
+
+	private INoteOutput output;
+	private int notestart;
+	private double threshold;
+	private double rate;
+	private double burst;
+
+	//indexed by key
+	private double[] sentValues;
+	private long[] soundingTick; //the tick in which the key was last sounding
+
+	private long tick = 0;
+	private int offset = 0;
+	private double tokens;
+	private long lastNanoTime = -1;
+
+	private long sent = 0;
+	private long suppressed = 0;
+	private long deferred = 0;
+	private long lastMetricsLog = System.nanoTime();
+
+	private static final Logger logger = Logger.getLogger(ConsonanceStream.class.getName());
+
+	/**
+	 * @param output The output to send the consonances to.
+	 * @param notestart MIDI note number of the first key.
+	 * @param notecount Count of keys.
+	 * @param threshold Minimum change of the consonance of a key since it was last sent to send it again. 0<=threshold<=1
+	 * @param maxRate Maximum count of messages per second. maxRate>0
+	 */
+	public ConsonanceStream(INoteOutput output, int notestart, int notecount, double threshold, int maxRate) {
+		logger.info("Streaming consonances with a threshold of " + threshold + " and at most " + maxRate + " messages per second");
+		this.output = output;
+		this.notestart = notestart;
+		this.threshold = threshold;
+		this.rate = maxRate;
+		this.burst = Math.max(1, maxRate * BURST_SECONDS);
+		this.tokens = burst;
+
+		sentValues = new double[notecount];
+		soundingTick = new long[notecount];
+		for(int key = 0; key < notecount; key++){
+			soundingTick[key] = -2;
+		}
+	}
+
+	/**
+	 * Sends the consonances of the sounding keys which changed enough, as far as the rate cap allows. To be called once per tick.
+	 * @param consonances Consonance of each key; 0<=consonance<=1
+	 * @param soundingKeys The keys which are sounding.
+	 * @param soundingCount Count of valid entries in soundingKeys.
+	 * @param nanoTime The current time, as given by System.nanoTime().
+	 */
+	public void update(double[] consonances, int[] soundingKeys, int soundingCount, long nanoTime) {
+		if(lastNanoTime >= 0){
+			tokens = Math.min(burst, tokens + (nanoTime - lastNanoTime) * rate / 1e9);
+		}
+		lastNanoTime = nanoTime;
+
+		if(soundingCount > 0){
+			offset = (offset + 1) % soundingCount;
+		}
+
+		for(int a = 0; a < soundingCount; a++){
+			int key = soundingKeys[(a + offset) % soundingCount];
+			boolean started = (soundingTick[key] < tick - 1); //wasn't sounding in the last tick, so the synth has no value yet
+			soundingTick[key] = tick;
+
+			double consonance = consonances[key];
+			if(!started && Math.abs(consonance - sentValues[key]) <= threshold){
+				suppressed++;
+				continue;
+			}
+			if(tokens < 1){
+				deferred++;
+				if(started){
+					soundingTick[key] = tick - 2; //still counts as started in the next tick
+				}
+				continue;
+			}
+
+			output.consonance(notestart + key, consonance);
+			sentValues[key] = consonance;
+			tokens--;
+			sent++;
+		}
+
+		tick++;
+
+		if(nanoTime - lastMetricsLog > METRICS_LOG_INTERVAL_NANOS){
+			lastMetricsLog = nanoTime;
+			logger.fine("Consonance stream: " + sent + " sent, " + suppressed + " below threshold, " + deferred + " deferred by the rate cap");
+		}
+	}
+
+	/**
+	 * @return The count of sent consonance messages.
+	 */
+	public long getSentCount() {
+		return sent;
+	}
+
+	/**
+	 * @return The count of times a key wasn't sent because its consonance hadn't changed by more than the threshold.
+	 */
+	public long getSuppressedCount() {
+		return suppressed;
+	}
+
+	/**
+	 * @return The count of times a key wasn't sent because of the rate cap.
+	 */
+	public long getDeferredCount() {
+		return deferred;
+	}
+
+}
@@ -5,16 +5,32 @@ package rationalpiano.noteout;
  * Allows to turn on/off notes/voices on a midi channel / osc port and to de/activate sustain
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-28
- * @version 1.01
+ * @date 2026-10-19
+ * @version 1.07
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public interface INoteOutput {
 
 	/**
-	 * Possible modes of note message outputs: either only via MIDI, only via OSC or both
+	 * Possible modes of note message outputs: either only via MIDI, only via OSC or both; MPE = via MIDI with every note on its own channel of an MPE lower zone, tuned just by pitch bends
 	 */
-	public enum outputModes {MIDI_ONLY, OSC_ONLY, MIDI_AND_OSC, NO_OUTPUT}
+	public enum outputModes {MIDI_ONLY, OSC_ONLY, MIDI_AND_OSC, NO_OUTPUT, MPE}
+
+	/**
+	 * Possible ways of bundling OSC messages: OFF = every message in its own packet; FRAME = all messages of one frame in one timetagged bundle, sent by flush() at the end of the frame; WINDOW = all messages within a time window after the first one in one timetagged bundle.
+	 * In both bundling modes a bundle gets sent at the latest when the window after its first message has passed.
+	 */
+	public enum bundlingModes {OFF, FRAME, WINDOW}
+
+	/**
+	 * Possible ways of encoding and sending OSC messages: SYNOSCP5 = via the synOscP5/OscXXL libraries; DIRECT = encoded into a reused buffer and sent via a non-blocking NIO channel, producing the same packets without allocating per message.
+	 */
+	public enum oscBackends {SYNOSCP5, DIRECT}
+
+	/**
+	 * Possible ways of handling a full queue of asynchronous output: BLOCK = wait for room; DROP_OLDEST = drop the oldest queued message; COALESCE = keep only the latest retune and consonance value per note, note on/off and sustain keep their order and wait for room.
+	 */
+	public enum overflowPolicies {BLOCK, DROP_OLDEST, COALESCE}
 
 	/**
 	 * Turns on the given note via MIDI and/or OSC
@@ -34,5 +50,26 @@ public interface INoteOutput {
 	 * @param sustain Value of the sustain parameter; 0<=sustain<=1
 	 */
 	public abstract void sustain(double sustain);
+	
+	/**
+	 * Detunes an active note by the given offset, eg. to retune it towards just intervals.
+	 * Only supported by outputs which can address single voices (OSC, MPE), others ignore it.
+	 * @param midiNoteNumber The MIDI note number of the active note to retune
+	 * @param cents Pitch offset relative to the note's tuned pitch in cents
+	 */
+	public abstract void retune(int midiNoteNumber, double cents);
+	
+	/**
+	 * Sends the consonance of an active note as a modulation value for the synth, eg. as polyphonic aftertouch.
+	 * @param midiNoteNumber The MIDI note number of the active note
+	 * @param consonance Consonance of the note; 0<=consonance<=1
+	 */
+	public abstract void consonance(int midiNoteNumber, double consonance);
+	
+	/**
+	 * Sends all messages which were collected since the last call, if the output collects messages (eg. into OSC bundles).
+	 * Called at the end of every frame.
+	 */
+	public abstract void flush();
 
 }
\ No newline at end of file
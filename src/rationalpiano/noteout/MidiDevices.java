@@ -0,0 +1,97 @@
+package rationalpiano.noteout;
+
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Finds MIDI devices via Java Sound the same way RWMidi does: in the order of MidiSystem.getMidiDeviceInfo(), skipping devices which are unavailable, with inputs being the devices with transmitters and outputs the ones with receivers, named by their name and vendor.
+ * The device gets chosen from the same enumeration its name was matched in, so devices appearing or disappearing in the meantime can't make it pick another one.
+ * Used by MIDI input and output, which open the devices themselves as rwmidi doesn't pass on polyphonic aftertouch.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MidiDevices {
+
+	private static final Logger logger = Logger.getLogger(MidiDevices.class.getName());
+
+	private MidiDevices() {
+	}
+
+	/**
+	 * @param inputs true for the MIDI input devices, false for the MIDI output devices.
+	 * @return The devices in the same order as RWMidi.getInputDevices() or RWMidi.getOutputDevices().
+	 */
+	public static ArrayList<MidiDevice> list(boolean inputs) {
+		ArrayList<MidiDevice> devices = new ArrayList<MidiDevice>();
+		for(MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()){
+			try{
+				MidiDevice device = MidiSystem.getMidiDevice(info);
+				if((inputs ? device.getMaxTransmitters() : device.getMaxReceivers()) != 0){
+					devices.add(device);
+				}
+			}catch(MidiUnavailableException e){
+				logger.fine("Skipping unavailable MIDI Device '" + info.getName() + "', error: " + e.toString());
+			}
+		}
+		return devices;
+	}
+
+	/**
+	 * @param inputs true for the MIDI input devices, false for the MIDI output devices.
+	 * @return The names of the devices, the same as RWMidi.getInputDeviceNames() or RWMidi.getOutputDeviceNames().
+	 */
+	public static String[] getNames(boolean inputs) {
+		ArrayList<MidiDevice> devices = list(inputs);
+		String[] names = new String[devices.size()];
+		for(int i = 0; i < names.length; i++){
+			names[i] = getName(devices.get(i));
+		}
+		return names;
+	}
+
+	/**
+	 * @param device The device.
+	 * @return The name of the device the way RWMidi shows it.
+	 */
+	public static String getName(MidiDevice device) {
+		return device.getDeviceInfo().getName() + " " + device.getDeviceInfo().getVendor();
+	}
+
+	/**
+	 * Chooses the first device whose name contains the given string, or the last one if none does, and logs all devices and the choice.
+	 * @param inputs true for the MIDI input devices, false for the MIDI output devices.
+	 * @param partialName The partial and case-insensitive name of the device.
+	 * @return The chosen device, not opened yet; null if there is no device at all.
+	 */
+	public static MidiDevice choose(boolean inputs, String partialName) {
+		ArrayList<MidiDevice> devices = list(inputs);
+
+		logger.config("Available MIDI " + (inputs ? "Input" : "Output") + " Devices:");
+		for(MidiDevice device : devices){
+			logger.config("    " + getName(device));
+		}
+		logger.config("Searching for MIDI Device containing string '" + partialName + "'");
+
+		if(devices.isEmpty()){
+			logger.severe("No MIDI " + (inputs ? "Input" : "Output") + " Device available");
+			return null;
+		}
+		for(MidiDevice device : devices){
+			if(getName(device).toLowerCase().contains(partialName.toLowerCase())){
+				logger.config("MIDI Device chosen: '" + getName(device) + "'");
+				return device;
+			}
+		}
+		MidiDevice last = devices.get(devices.size() - 1);
+		logger.severe("MIDI Device not found, choosing last device: '" + getName(last) + "'");
+		return last;
+	}
+
+}
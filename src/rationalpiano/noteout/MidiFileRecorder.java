@@ -0,0 +1,450 @@
+package rationalpiano.noteout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Records all calls passed on to another INoteOutput into a Standard MIDI File (format 0 or 1), while passing them on unchanged.
+ * The calls get timestamped with System.nanoTime() and put into a bounded lock-free ring of preallocated slots, so recording neither allocates nor waits for a lock or the disk on the note path; when the ring is full, the event gets dropped and counted.
+ * Note offs never get dropped though: one which finds the ring full is kept aside per note under a short lock and written before the events recorded after it, so a full ring can't leave a note hanging.
+ * A writer thread takes the events from the ring, encodes them into a reused chunk buffer and appends the chunks to the file, so the memory used stays the same however long the session is; the length of the track chunk gets patched into the file after every chunk, so the file stays readable up to the last written chunk if the program ends without stopping the recording.
+ * Note ons, note offs, sustain and consonance (as polyphonic aftertouch) get recorded on channel 0; retunes can't be expressed per note in a single channel and are left out.
+ * The writer closes retriggered notes before their note on, skips note offs of notes which aren't sounding and turns off all sounding notes at the end, so the file has no hanging notes.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.2
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MidiFileRecorder implements INoteOutput, Runnable {
+
+	//ticks per quarter note and microseconds per quarter note (120 bpm), so one tick is 1/960 s
+	private static final int DIVISION = 480;
+	private static final int TEMPO = 500000;
+	private static final long TICKS_PER_SECOND = 1000000L * DIVISION / TEMPO;
+
+	private static final int CHUNK_BYTES = 64 * 1024;
+	private static final int MAX_EVENT_BYTES = 2 * (5 + 3); //a note off closing a retriggered note and the event, each with its delta time
+
+	private static final long WRITE_INTERVAL_NANOS = 100L * 1000 * 1000;
+	private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+	private INoteOutput output;
+	private File file;
+	private int format;
+
+	private int mask;
+
+	//indexed by position & mask
+	private AtomicLongArray sequences;
+	private long[] nanoTimes;
+	private int[] messages; //status << 16 | data1 << 8 | data2
+
+	private AtomicLong tail = new AtomicLong(0); //next position to write
+	private long head = 0; //next position to read, only used by the writer thread
+
+	//only used by the writer thread
+	private RandomAccessFile out;
+	private byte[] chunk = new byte[CHUNK_BYTES];
+	private int chunkLength = 0;
+	private long trackStart; //file position of the length of the streamed track chunk
+	private long startNanos;
+	private long lastTick = 0;
+	private boolean[] sounding = new boolean[128];
+
+	private volatile Thread thread;
+	private volatile boolean running = false;
+
+	//note offs which found the ring full, indexed by note; guarded by keptNoteOffs
+	private boolean[] keptNoteOffs = new boolean[128];
+	private long[] keptNanoTimes = new long[128];
+	private volatile boolean noteOffsKept = false;
+	private boolean[] writingNoteOffs = new boolean[128]; //writer thread only
+	private long[] writingNanoTimes = new long[128]; //writer thread only
+
+	private AtomicLong dropped = new AtomicLong(0);
+	private volatile long recorded = 0;
+
+	private static final Logger logger = Logger.getLogger(MidiFileRecorder.class.getName());
+
+	/**
+	 * @param output The output to pass all calls on to.
+	 * @param file The file to record to; gets overwritten.
+	 * @param format The format of the Standard MIDI File: 0 = one track; 1 = a tempo track followed by the track with the notes.
+	 * @param capacity Maximum count of events waiting to be written. Gets rounded up to the next power of two.
+	 */
+	public MidiFileRecorder(INoteOutput output, File file, int format, int capacity) {
+		if(format != 0 && format != 1){
+			throw new IllegalArgumentException("Standard MIDI File format " + format + " is not supported, only 0 and 1");
+		}
+		this.output = output;
+		this.file = file;
+		this.format = format;
+
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+
+		sequences = new AtomicLongArray(size);
+		nanoTimes = new long[size];
+		messages = new int[size];
+		for(int i = 0; i < size; i++){
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Creates the file, writes its header and starts the writer thread. The time of this call is the start of the recording.
+	 * @throws IOException If the file can't be created.
+	 */
+	public synchronized void start() throws IOException {
+		if(running){
+			return;
+		}
+		logger.info("Recording to Standard MIDI File '" + file + "' in format " + format + " with a buffer of " + (mask + 1) + " events");
+
+		out = new RandomAccessFile(file, "rw");
+		try{
+			out.setLength(0);
+			startNanos = System.nanoTime();
+
+			writeChunkHeader("MThd", 6);
+			writeShort(format);
+			writeShort(format + 1); //count of tracks
+			writeShort(DIVISION);
+			if(format == 1){
+				writeChunkHeader("MTrk", 7 + 4);
+				writeTempo();
+				writeEndOfTrack();
+			}
+			trackStart = chunkLength + 4;
+			writeChunkHeader("MTrk", 0); //length gets patched after every chunk
+			if(format == 0){
+				writeTempo();
+			}
+			writeChunk();
+		}catch(IOException e){
+			chunkLength = 0;
+			try{
+				out.close();
+			}catch(IOException f){
+			}
+			throw e;
+		}
+
+		running = true;
+		thread = new Thread(this, "MidiFileRecorder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops recording, waits until the writer thread has written all recorded events and completed the file.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized(this){
+			running = false;
+			t = thread;
+		}
+		if(t == null){
+			return;
+		}
+		LockSupport.unpark(t);
+		try{
+			t.join(STOP_TIMEOUT_MILLIS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void noteOn(int midiNoteNumber, double velocity) {
+		record(0x90, midiNoteNumber, Math.max(1, Math.min(127, (int)(127 * velocity))));
+		output.noteOn(midiNoteNumber, velocity);
+	}
+
+	@Override
+	public void noteOff(int midiNoteNumber) {
+		record(0x80, midiNoteNumber, 0);
+		output.noteOff(midiNoteNumber);
+	}
+
+	@Override
+	public void sustain(double sustain) {
+		record(0xB0, 64, (int)(127 * sustain));
+		output.sustain(sustain);
+	}
+
+	@Override
+	public void retune(int midiNoteNumber, double cents) {
+		output.retune(midiNoteNumber, cents);
+	}
+
+	@Override
+	public void consonance(int midiNoteNumber, double consonance) {
+		record(0xA0, midiNoteNumber, (int)Math.round(127 * consonance));
+		output.consonance(midiNoteNumber, consonance);
+	}
+
+	@Override
+	public void flush() {
+		output.flush();
+	}
+
+	/**
+	 * Puts an event into the ring, or drops it if the ring is full; a note off gets kept aside instead. May be called concurrently from any count of threads.
+	 */
+	private void record(int status, int data1, int data2) {
+		if(!running || data1 < 0 || data1 > 127){
+			return;
+		}
+		long nanoTime = System.nanoTime();
+		long position;
+
+		while(true){
+			position = tail.get();
+			long diff = sequences.get((int)position & mask) - position;
+			if(diff == 0){
+				if(tail.compareAndSet(position, position + 1)){
+					break;
+				}
+			}else if(diff < 0){
+				//full, the writer hasn't caught up
+				if(status == 0x80){
+					keepNoteOff(data1, nanoTime);
+				}else{
+					dropped.incrementAndGet();
+				}
+				return;
+			}
+			//else another producer claimed this position in the meantime, try the next one
+		}
+
+		int index = (int)position & mask;
+		nanoTimes[index] = nanoTime;
+		messages[index] = status << 16 | data1 << 8 | (data2 & 0x7F);
+		sequences.set(index, position + 1); //publish
+	}
+
+	/**
+	 * Keeps a note off which found the ring full aside for the writer thread; a later one of the same note replaces it, as the note on in between got dropped or closed by the retrigger.
+	 */
+	private void keepNoteOff(int midiNoteNumber, long nanoTime) {
+		synchronized(keptNoteOffs){
+			keptNoteOffs[midiNoteNumber] = true;
+			keptNanoTimes[midiNoteNumber] = nanoTime;
+			noteOffsKept = true;
+		}
+	}
+
+	/**
+	 * Writes the note offs kept aside which happened up to the given time, in note order. Only called by the writer thread.
+	 * @param nanoTime Time of the next event from the ring; kept note offs after it stay for later.
+	 */
+	private void writeKeptNoteOffs(long nanoTime) throws IOException {
+		if(!noteOffsKept){
+			return;
+		}
+		synchronized(keptNoteOffs){
+			boolean remaining = false;
+			for(int note = 0; note < keptNoteOffs.length; note++){
+				writingNoteOffs[note] = keptNoteOffs[note] && keptNanoTimes[note] - nanoTime <= 0;
+				if(writingNoteOffs[note]){
+					writingNanoTimes[note] = keptNanoTimes[note];
+					keptNoteOffs[note] = false;
+				}else{
+					remaining |= keptNoteOffs[note];
+				}
+			}
+			noteOffsKept = remaining;
+		}
+		for(int note = 0; note < writingNoteOffs.length; note++){
+			if(writingNoteOffs[note] && sounding[note]){
+				if(chunkLength + MAX_EVENT_BYTES > chunk.length){
+					writeChunk();
+				}
+				writeEvent(Math.max(lastTick, (writingNanoTimes[note] - startNanos) * TICKS_PER_SECOND / 1000000000L), 0x80, note, 0);
+				sounding[note] = false;
+				recorded++;
+			}
+		}
+	}
+
+	/**
+	 * Run by the writer thread: writes the recorded events every 100 ms and completes the file when stopped.
+	 */
+	@Override
+	public void run() {
+		try{
+			while(true){
+				boolean stopping = !running;
+				while(takeEvent()){
+				}
+				if(tail.get() == head){
+					writeKeptNoteOffs(System.nanoTime()); //no event recorded before them is still being written
+				}
+				writeChunk();
+				if(stopping){
+					break; //everything recorded before stop() has been written
+				}
+				LockSupport.parkNanos(WRITE_INTERVAL_NANOS);
+			}
+
+			//turn off all sounding notes at the time of stopping
+			writeChunk();
+			long tick = (System.nanoTime() - startNanos) * TICKS_PER_SECOND / 1000000000L;
+			for(int note = 0; note < sounding.length; note++){
+				if(sounding[note]){
+					writeEvent(tick, 0x80, note, 0);
+				}
+			}
+			writeEndOfTrack();
+			writeChunk();
+
+			logger.info("Recorded " + recorded + " events to '" + file + "', " + dropped.get() + " dropped because the buffer was full");
+		}catch(IOException e){
+			logger.severe("Couldn't write Standard MIDI File '" + file + "', stopping to record: " + e.toString());
+			running = false;
+		}finally{
+			try{
+				out.close();
+			}catch(IOException e){
+			}
+		}
+	}
+
+	/**
+	 * Takes the oldest event from the ring and encodes it into the chunk buffer, writing the buffer to the file if it is full.
+	 * @return false if the ring was empty or the oldest event is still being written.
+	 */
+	private boolean takeEvent() throws IOException {
+		int index = (int)head & mask;
+		if(sequences.get(index) != head + 1){
+			return false;
+		}
+		long nanoTime = nanoTimes[index];
+		int message = messages[index];
+		sequences.set(index, head + mask + 1); //free the slot for the next round
+		head++;
+
+		writeKeptNoteOffs(nanoTime);
+
+		if(chunkLength + MAX_EVENT_BYTES > chunk.length){
+			writeChunk();
+		}
+
+		int status = message >> 16;
+		int data1 = (message >> 8) & 0x7F;
+		int data2 = message & 0x7F;
+		long tick = Math.max(lastTick, (nanoTime - startNanos) * TICKS_PER_SECOND / 1000000000L); //events of several threads may be slightly out of order
+
+		if(status == 0x90){
+			if(sounding[data1]){
+				writeEvent(tick, 0x80, data1, 0); //retriggered
+			}
+			sounding[data1] = true;
+		}else if(status == 0x80){
+			if(!sounding[data1]){
+				return true;
+			}
+			sounding[data1] = false;
+		}else if(status == 0xA0 && !sounding[data1]){
+			return true;
+		}
+		writeEvent(tick, status, data1, data2);
+		recorded++;
+		return true;
+	}
+
+	/**
+	 * Encodes a channel message with its delta time into the chunk buffer.
+	 */
+	private void writeEvent(long tick, int status, int data1, int data2) {
+		writeVariableLength(tick - lastTick);
+		lastTick = tick;
+		chunk[chunkLength++] = (byte)status;
+		chunk[chunkLength++] = (byte)data1;
+		chunk[chunkLength++] = (byte)data2;
+	}
+
+	/**
+	 * Appends the chunk buffer to the file and patches the length of the streamed track chunk to include it.
+	 */
+	private void writeChunk() throws IOException {
+		if(chunkLength == 0){
+			return;
+		}
+		out.write(chunk, 0, chunkLength);
+		chunkLength = 0;
+
+		long end = out.getFilePointer();
+		out.seek(trackStart);
+		out.writeInt((int)(end - trackStart - 4));
+		out.seek(end);
+	}
+
+	private void writeVariableLength(long value) {
+		long buffer = value & 0x7F;
+		while((value >>= 7) > 0){
+			buffer <<= 8;
+			buffer |= 0x80 | (value & 0x7F);
+		}
+		while(true){
+			chunk[chunkLength++] = (byte)buffer;
+			if((buffer & 0x80) == 0){
+				break;
+			}
+			buffer >>>= 8;
+		}
+	}
+
+	private void writeChunkHeader(String type, int length) {
+		for(int a = 0; a < 4; a++){
+			chunk[chunkLength++] = (byte)type.charAt(a);
+		}
+		writeShort(length >>> 16);
+		writeShort(length & 0xFFFF);
+	}
+
+	private void writeShort(int value) {
+		chunk[chunkLength++] = (byte)(value >> 8);
+		chunk[chunkLength++] = (byte)value;
+	}
+
+	private void writeTempo() {
+		chunk[chunkLength++] = 0; //delta time
+		chunk[chunkLength++] = (byte)0xFF;
+		chunk[chunkLength++] = 0x51;
+		chunk[chunkLength++] = 3;
+		chunk[chunkLength++] = (byte)(TEMPO >> 16);
+		chunk[chunkLength++] = (byte)(TEMPO >> 8);
+		chunk[chunkLength++] = (byte)TEMPO;
+	}
+
+	private void writeEndOfTrack() {
+		chunk[chunkLength++] = 0; //delta time
+		chunk[chunkLength++] = (byte)0xFF;
+		chunk[chunkLength++] = 0x2F;
+		chunk[chunkLength++] = 0;
+	}
+
+	/**
+	 * @return The count of events written to the file.
+	 */
+	public long getRecordedCount() {
+		return recorded;
+	}
+
+	/**
+	 * @return The count of events which got dropped because the buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+}
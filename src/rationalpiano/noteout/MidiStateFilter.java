@@ -0,0 +1,162 @@
+package rationalpiano.noteout;
+
+/**
+ * Tracks the state of a MIDI device from the messages sent to it, to drop messages which wouldn't change anything:
+ * note offs for notes which aren't sounding, and controller, aftertouch and pitch bend messages which repeat the last sent value.
+ * Controllers which are events rather than values always pass: data entry, increment and decrement, the (N)RPN selects and the channel mode messages; the latter also reset the tracked state they affect.
+ * Note ons always pass, as a retriggered note needs them; the state is kept per channel and in preallocated arrays.
+ * Not thread safe, the caller has to synchronize.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.2
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MidiStateFilter {
+
+	private static final int CHANNELS = 16;
+	private static final int NUMBERS = 128;
+
+	//indexed by channel * NUMBERS + note or controller number
+	private boolean[] sounding = new boolean[CHANNELS * NUMBERS];
+	private int[] controllers = new int[CHANNELS * NUMBERS]; //-1 = unknown
+	private int[] pressures = new int[CHANNELS * NUMBERS]; //-1 = unknown
+	
+	//indexed by channel
+	private int[] channelPressures = new int[CHANNELS]; //-1 = unknown
+	private int[] pitchBends = new int[CHANNELS]; //-1 = unknown
+
+	private long dropped = 0;
+
+	public MidiStateFilter() {
+		for(int i = 0; i < CHANNELS * NUMBERS; i++){
+			controllers[i] = -1;
+			pressures[i] = -1;
+		}
+		for(int channel = 0; channel < CHANNELS; channel++){
+			channelPressures[channel] = -1;
+			pitchBends[channel] = -1;
+		}
+	}
+
+	/**
+	 * Updates the state with a note on, which always has to be sent.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param midiNoteNumber MIDI note number; 0<=midiNoteNumber<=127
+	 */
+	public void noteOn(int channel, int midiNoteNumber) {
+		int index = channel * NUMBERS + midiNoteNumber;
+		sounding[index] = true;
+		pressures[index] = -1; //a new note starts without pressure
+	}
+
+	/**
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param midiNoteNumber MIDI note number; 0<=midiNoteNumber<=127
+	 * @return true if the note off has to be sent, false if the note isn't sounding.
+	 */
+	public boolean noteOff(int channel, int midiNoteNumber) {
+		int index = channel * NUMBERS + midiNoteNumber;
+		if(!sounding[index]){
+			dropped++;
+			return false;
+		}
+		sounding[index] = false;
+		return true;
+	}
+
+	/**
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param controller Controller number; 0<=controller<=127
+	 * @param value Value of the controller; 0<=value<=127
+	 * @return true if the controller message has to be sent, false if the controller already has this value.
+	 */
+	public boolean controller(int channel, int controller, int value) {
+		if(isEvent(controller)){
+			if(controller == 120 || controller == 123){
+				//all sound off, all notes off
+				for(int note = 0; note < NUMBERS; note++){
+					sounding[channel * NUMBERS + note] = false;
+				}
+			}else if(controller == 121){
+				//reset all controllers
+				for(int number = 0; number < NUMBERS; number++){
+					controllers[channel * NUMBERS + number] = -1;
+					pressures[channel * NUMBERS + number] = -1;
+				}
+				channelPressures[channel] = -1;
+				pitchBends[channel] = -1;
+			}
+			return true;
+		}
+		
+		int index = channel * NUMBERS + controller;
+		if(controllers[index] == value){
+			dropped++;
+			return false;
+		}
+		controllers[index] = value;
+		return true;
+	}
+
+	/**
+	 * @param controller Controller number; 0<=controller<=127
+	 * @return true if the controller triggers something on every message instead of setting a value, so repeating it isn't redundant:
+	 * data entry MSB/LSB (6, 38), data increment/decrement (96, 97), NRPN/RPN LSB/MSB (98-101) and the channel mode messages (120-127).
+	 */
+	private static boolean isEvent(int controller) {
+		return controller == 6 || controller == 38 || (controller >= 96 && controller <= 101) || controller >= 120;
+	}
+
+	/**
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param midiNoteNumber MIDI note number; 0<=midiNoteNumber<=127
+	 * @param pressure The pressure; 0<=pressure<=127
+	 * @return true if the aftertouch message has to be sent, false if the note isn't sounding or already has this pressure.
+	 */
+	public boolean polyPressure(int channel, int midiNoteNumber, int pressure) {
+		int index = channel * NUMBERS + midiNoteNumber;
+		if(!sounding[index] || pressures[index] == pressure){
+			dropped++;
+			return false;
+		}
+		pressures[index] = pressure;
+		return true;
+	}
+
+	/**
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param pressure The pressure; 0<=pressure<=127
+	 * @return true if the channel aftertouch message has to be sent, false if the channel already has this pressure.
+	 */
+	public boolean channelPressure(int channel, int pressure) {
+		if(channelPressures[channel] == pressure){
+			dropped++;
+			return false;
+		}
+		channelPressures[channel] = pressure;
+		return true;
+	}
+
+	/**
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param bend The 14 bit pitch bend value; 0<=bend<=16383
+	 * @return true if the pitch bend message has to be sent, false if the channel already has this pitch bend.
+	 */
+	public boolean pitchBend(int channel, int bend) {
+		if(pitchBends[channel] == bend){
+			dropped++;
+			return false;
+		}
+		pitchBends[channel] = bend;
+		return true;
+	}
+
+	/**
+	 * @return The count of messages which weren't needed.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+}
@@ -0,0 +1,190 @@
+package rationalpiano.noteout;
+
+import java.util.logging.Logger;
+
+import rationalpiano.consonance.DissonanceCurve;
+import rationalpiano.tuning.ITuning;
+
+/**
+ * Precomputed MIDI pitch bends which tune a note just towards a reference note, for MPE output where every note has its own channel.
+ * For every pair of a reference key and a key at or above it, the rational number which best explains their interval in the tuning (the same one the dissonance of the interval results from) gives the wanted pitch of the key, relative to the pitch the reference is tuned to.
+ * Every key gets played as the MIDI note number nearest to its pitch in the tuning, and the table holds the pitch bend of the remaining difference on a synth playing MIDI note numbers in 12TET, so N-EDO and scala tunings get realised as well; with an equal tempered tuning only one row has to be calculated.
+ * Keys are pitch indices like in the tuning, so with other divisions than 12 there may be more than 128 of them; keys whose pitch isn't mapped or lies outside the MIDI note numbers can't be played.
+ * Once constructed this object is immutable, so getting a bend is an array lookup and an addition and may be done from any thread; a new tuning needs a new table, see withTuning().
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MpeBendTable {
+
+	public static final int BEND_CENTER = 8192;
+	public static final int BEND_MAX = 16383;
+
+	/**
+	 * Count of keys of a table by default, as many as there are MIDI note numbers
+	 */
+	public static final int DEFAULT_KEYS = 128;
+	
+	/**
+	 * Maximum count of keys of a table, as the size of the table grows with the square of it
+	 */
+	public static final int MAX_KEYS = 2048;
+
+	private DissonanceCurve curve;
+	private int bendRange;
+	private double unitsPerCent;
+	private int keys;
+
+	//indexed by key
+	private int[] notes; //MIDI note number nearest to the pitch of the key; -1 if it can't be played
+
+	//indexed by reference * keys + key, for key >= reference; offset from BEND_CENTER, relative to the note of the key
+	private int[] bends;
+
+	private static final Logger logger = Logger.getLogger(MpeBendTable.class.getName());
+
+	/**
+	 * @param curve The dissonance curve which provides the best fitting rational numbers.
+	 * @param tuning The tuning which maps keys to pitches.
+	 * @param bendRange Pitch bend range of the synth in semitones, 48 by default in MPE. bendRange>0
+	 */
+	public MpeBendTable(DissonanceCurve curve, ITuning tuning, int bendRange) {
+		this(curve, tuning, bendRange, DEFAULT_KEYS);
+	}
+
+	/**
+	 * @param curve The dissonance curve which provides the best fitting rational numbers.
+	 * @param tuning The tuning which maps keys to pitches.
+	 * @param bendRange Pitch bend range of the synth in semitones, 48 by default in MPE. bendRange>0
+	 * @param keys Count of keys to calculate the bends for, from 0 to keys-1; limited to MAX_KEYS. keys>0
+	 */
+	public MpeBendTable(DissonanceCurve curve, ITuning tuning, int bendRange, int keys) {
+		long start = System.nanoTime();
+		this.curve = curve;
+		this.bendRange = bendRange;
+		unitsPerCent = BEND_CENTER / (100. * bendRange);
+		
+		if(keys > MAX_KEYS){
+			logger.warning("MPE pitch bends can only be calculated for " + MAX_KEYS + " keys, keys from " + MAX_KEYS + " upwards won't be played");
+			keys = MAX_KEYS;
+		}
+		this.keys = keys;
+		notes = new int[keys];
+		bends = new int[keys * keys];
+
+		int unplayable = 0;
+		for(int key = 0; key < keys; key++){
+			double pitch = tuning.getPitch(key);
+			notes[key] = (Double.isNaN(pitch) || pitch < -0.5 || pitch >= 127.5) ? -1 : (int)Math.round(pitch);
+			if(notes[key] < 0){
+				unplayable++;
+			}
+		}
+
+		double[] byDistance = null;
+		if(tuning.isEqualTempered()){
+			//the just interval only depends on the distance of the keys
+			byDistance = new double[keys];
+			for(int distance = 0; distance < keys; distance++){
+				double tempered = tuning.getPitch(distance) - tuning.getPitch(0);
+				byDistance[distance] = curve.getBestRationalSemitones(tempered);
+			}
+		}
+
+		int outOfRange = 0;
+		for(int reference = 0; reference < keys; reference++){
+			double referencePitch = tuning.getPitch(reference);
+			for(int key = reference; key < keys; key++){
+				double pitch = tuning.getPitch(key);
+				if(Double.isNaN(referencePitch) || notes[key] < 0){
+					continue; //not mapped or not playable
+				}
+				double just = (byDistance != null) ? byDistance[key - reference] : curve.getBestRationalSemitones(pitch - referencePitch);
+				int bend = getBend(100 * (referencePitch + just - notes[key]));
+				if(bend < -BEND_CENTER || bend > BEND_MAX - BEND_CENTER){
+					outOfRange++;
+				}
+				bends[reference * keys + key] = bend;
+			}
+		}
+
+		logger.info("Calculated MPE pitch bends of " + keys + " keys for a range of " + bendRange + " semitones in " + (System.nanoTime() - start) / 1000000 + " ms");
+		if(unplayable > 0){
+			logger.warning(unplayable + " of " + keys + " keys have no pitch in the tuning or lie outside the MIDI note numbers and won't be played via MPE");
+		}
+		if(outOfRange > 0){
+			logger.warning(outOfRange + " just intervals need a pitch bend beyond the range of " + bendRange + " semitones and will be clamped");
+		}
+	}
+
+	/**
+	 * @param tuning The new tuning which maps keys to pitches.
+	 * @return A new table with the same dissonance curve, bend range and count of keys for the given tuning. Takes as long as the constructor, so better not called on a time critical thread.
+	 */
+	public MpeBendTable withTuning(ITuning tuning) {
+		return new MpeBendTable(curve, tuning, bendRange, keys);
+	}
+
+	/**
+	 * @param cents Pitch offset in cents.
+	 * @return The offset of the pitch bend from BEND_CENTER which detunes a note by the given cents; not clamped to the valid range.
+	 */
+	public int getBend(double cents) {
+		return (int)Math.round(cents * unitsPerCent);
+	}
+
+	/**
+	 * @param key The key; 0<=key<getKeyCount()
+	 * @return The MIDI note number the key gets played as, the one nearest to its pitch; -1 if the key can't be played.
+	 */
+	public int getNote(int key) {
+		return notes[key];
+	}
+
+	/**
+	 * @param key The key; 0<=key<getKeyCount()
+	 * @return The offset of the pitch bend from BEND_CENTER which plays the note of the key at the key's pitch in the tuning.
+	 */
+	public int getTunedBend(int key) {
+		return bends[key * keys + key];
+	}
+
+	/**
+	 * @param reference The key of the reference; 0<=reference<getKeyCount()
+	 * @param referenceBend The offset of the pitch bend from BEND_CENTER the note of the reference is sounding with.
+	 * @param key The key to tune, above or below the reference; 0<=key<getKeyCount()
+	 * @return The offset of the pitch bend from BEND_CENTER which tunes the note of the key just towards the reference as it is sounding.
+	 */
+	public int getJustBend(int reference, int referenceBend, int key) {
+		if(key >= reference){
+			return bends[reference * keys + key] + referenceBend - bends[reference * keys + reference];
+		}
+		//the row of the lower key tells where the reference would be if the key was tuned, so go back from the reference by the same amount
+		return referenceBend - bends[key * keys + reference] + bends[key * keys + key];
+	}
+
+	/**
+	 * @return The count of keys the bends were calculated for, from 0 to getKeyCount()-1.
+	 */
+	public int getKeyCount() {
+		return keys;
+	}
+
+	/**
+	 * @return The pitch bend range of the synth in semitones the bends were calculated for.
+	 */
+	public int getBendRange() {
+		return bendRange;
+	}
+
+	/**
+	 * @param bend Offset of the pitch bend from BEND_CENTER.
+	 * @return The 14 bit pitch bend value for a MIDI message, clamped to the valid range.
+	 */
+	public static int toMidi(int bend) {
+		return Math.max(0, Math.min(BEND_MAX, BEND_CENTER + bend));
+	}
+
+}
@@ -0,0 +1,134 @@
+package rationalpiano.noteout;
+
+import java.util.logging.Logger;
+
+/**
+ * Sends all calls to several destinations, eg. a few synths and a lighting server.
+ * Every destination gets its own isolated AsyncNoteOutput, so its own queue and sender thread: a slow destination only fills its own queue, and one which hangs or throws exceptions only loses its own calls, while the others and the caller go on undelayed.
+ * Counters of passed on, dropped and failed calls are kept per destination.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MultiNoteOutput implements INoteOutput {
+
+	private AsyncNoteOutput[] destinations;
+
+	private static final Logger logger = Logger.getLogger(MultiNoteOutput.class.getName());
+
+	/**
+	 * @param outputs The outputs of the destinations.
+	 * @param names Names of the destinations, used for the sender threads and in the log messages.
+	 * @param capacity Maximum count of queued calls per destination. Gets rounded up to the next power of two.
+	 * @param overflowPolicy What to do when the queue of a destination is full; as no destination may delay the others, the oldest call gets dropped instead of waiting with BLOCK and with note on/off in COALESCE.
+	 */
+	public MultiNoteOutput(INoteOutput[] outputs, String[] names, int capacity, overflowPolicies overflowPolicy) {
+		destinations = new AsyncNoteOutput[outputs.length];
+		for(int a = 0; a < outputs.length; a++){
+			destinations[a] = new AsyncNoteOutput(outputs[a], capacity, overflowPolicy, "NoteOutputSender-" + names[a], true);
+		}
+	}
+
+	/**
+	 * Starts the sender threads of all destinations.
+	 */
+	public void start() {
+		logger.info("Sending note output to " + destinations.length + " destinations");
+		for(AsyncNoteOutput destination : destinations){
+			destination.start();
+		}
+	}
+
+	/**
+	 * Stops the sender threads of all destinations after they have passed on their queued calls.
+	 */
+	public void stop() {
+		for(AsyncNoteOutput destination : destinations){
+			destination.stop();
+		}
+	}
+
+	@Override
+	public void noteOn(int midiNoteNumber, double velocity) {
+		for(AsyncNoteOutput destination : destinations){
+			destination.noteOn(midiNoteNumber, velocity);
+		}
+	}
+
+	@Override
+	public void noteOff(int midiNoteNumber) {
+		for(AsyncNoteOutput destination : destinations){
+			destination.noteOff(midiNoteNumber);
+		}
+	}
+
+	@Override
+	public void sustain(double sustain) {
+		for(AsyncNoteOutput destination : destinations){
+			destination.sustain(sustain);
+		}
+	}
+
+	@Override
+	public void retune(int midiNoteNumber, double cents) {
+		for(AsyncNoteOutput destination : destinations){
+			destination.retune(midiNoteNumber, cents);
+		}
+	}
+
+	@Override
+	public void consonance(int midiNoteNumber, double consonance) {
+		for(AsyncNoteOutput destination : destinations){
+			destination.consonance(midiNoteNumber, consonance);
+		}
+	}
+
+	@Override
+	public void flush() {
+		for(AsyncNoteOutput destination : destinations){
+			destination.flush();
+		}
+	}
+
+	/**
+	 * @return The count of destinations.
+	 */
+	public int getDestinationCount() {
+		return destinations.length;
+	}
+
+	/**
+	 * @param destination Index of the destination; 0<=destination<getDestinationCount()
+	 * @return The asynchronous output of the destination, which holds its queue and counters.
+	 */
+	public AsyncNoteOutput getDestination(int destination) {
+		return destinations[destination];
+	}
+
+	/**
+	 * @param destination Index of the destination; 0<=destination<getDestinationCount()
+	 * @return The count of calls which were passed on to the destination.
+	 */
+	public long getSentCount(int destination) {
+		return destinations[destination].getSentCount();
+	}
+
+	/**
+	 * @param destination Index of the destination; 0<=destination<getDestinationCount()
+	 * @return The count of calls which got dropped because the queue of the destination was full.
+	 */
+	public long getDroppedCount(int destination) {
+		return destinations[destination].getDroppedCount();
+	}
+
+	/**
+	 * @param destination Index of the destination; 0<=destination<getDestinationCount()
+	 * @return The count of calls for which the destination threw an exception.
+	 */
+	public long getFailedCount(int destination) {
+		return destinations[destination].getFailedCount();
+	}
+
+}
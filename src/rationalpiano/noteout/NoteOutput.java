@@ -1,46 +1,124 @@
 package rationalpiano.noteout;
 
+import java.util.BitSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
 import processing.core.*;
+import rationalpiano.tuning.ITuning;
 
 /**
  * Manages note output for MIDI and OSC
  * Allows to turn on/off notes/voices on a midi channel / osc port and to de/activate sustain
+ * In MPE mode every note gets its own member channel of an MPE lower zone (the one released longest ago) and is played as the MIDI note number nearest to its pitch, with a pitch bend from a precomputed table which tunes it just towards the lowest sounding note; sustain goes to the master channel.
+ * The keys in MPE mode are the keys of the tuning, so there may be more than 128 of them; setTuning() calculates a new table in the background.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-28
- * @version 1.051
+ * @date 2026-10-19
+ * @version 1.15
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class NoteOutput implements INoteOutput {
 
 	private boolean oscOn = false;
 	private boolean midiOn = false;
+	private boolean mpeOn = false;
 	
 	private SendMidi sendmidi = null;
 	private SendOsc sendosc = null;
 	
+	private int consonanceController;
+	private int consonanceParameter;
+	
 	private ConcurrentHashMap<Integer, Double> activeNotes = new ConcurrentHashMap<Integer, Double>();
 	
+	private static final int MPE_MASTER_CHANNEL = 0;
+	
+	//MPE mode only, indexed by key
+	private MpeBendTable mpeBendTable;
+	private VoiceAllocator mpeChannels; //voice number + 1 = member channel
+	private int[] mpeNotes; //MIDI note number each key got
+	private int[] mpeBends; //pitch bend offset each key got, relative to its note
+	private BitSet mpeSounding; //keys which have a member channel, so the lowest one is found without scanning all keys
+	private long mpeExhausted = 0;
+	private long mpeUnplayable = 0;
+	private long mpeClamped = 0;
+	private ExecutorService tuningExecutor;
+	
+	private static final Logger logger = Logger.getLogger(NoteOutput.class.getName());
+	
 	/**
 	 * Initializes the MIDI/OSC output
 	 * @param papplet The processing applet to send the MIDI/OSC messages from
 	 * @param outputMode allows to either activate midi output or osc output or both
 	 * @param oscport UDP port to send the OSC note messages to
+	 * @param oscBundling How to bundle the OSC messages.
+	 * @param oscBundleWindow Maximum time in milliseconds between the first message of an OSC bundle and sending the bundle, also the latency of the bundle's timetag.
+	 * @param oscBackend How to encode and send the OSC messages.
+	 * @param oscVoices Count of SYNoscopy voice numbers to use for the sounding notes.
 	 * @param midiOutputDevice PART of the name of the MIDI device to send the note messages to
+	 * @param midiOutputStream Path of a file (eg. a serial MIDI interface) to write the raw MIDI bytes to with running status instead of the MIDI device; empty to use the device
 	 * @param midiChannel MIDI channel to send the note messages to; 0<=midiChannel<=15
+	 * @param consonanceController MIDI controller to send the consonance of the notes on in MPE mode, where every note has its own channel; -1 sends it as channel pressure instead. Plain MIDI output always sends polyphonic aftertouch per note, as one controller for the whole channel would jump between the values of unrelated notes.
+	 * @param consonanceParameter Number of the SYNoscopy voice parameter to send the consonance of the notes on via OSC
+	 * @param mpeChannels Count of member channels of the MPE zone, after the master channel 0; 1<=mpeChannels<=15
+	 * @param mpeBendTable The pitch bends for the MPE notes; only needed in MPE mode
 	 */
-	public NoteOutput(PApplet papplet, outputModes outputMode, int oscport, String midiOutputDevice, int midiChannel) {
+	public NoteOutput(PApplet papplet, outputModes outputMode, int oscport, bundlingModes oscBundling, int oscBundleWindow, oscBackends oscBackend, int oscVoices, String midiOutputDevice, String midiOutputStream, int midiChannel, int consonanceController, int consonanceParameter, int mpeChannels, MpeBendTable mpeBendTable) {
+		this.consonanceController = consonanceController;
+		this.consonanceParameter = consonanceParameter;
+		
 		if(outputMode == outputModes.OSC_ONLY || outputMode == outputModes.MIDI_AND_OSC ){
 			oscOn = true;
-			sendosc = new SendOsc(papplet, oscport);
+			sendosc = new SendOsc(papplet, oscport, oscBundling, oscBundleWindow, oscBackend, oscVoices);
 		}
 		if(outputMode == outputModes.MIDI_ONLY || outputMode == outputModes.MIDI_AND_OSC ){
 			midiOn = true;
-			sendmidi = new SendMidi(papplet, midiOutputDevice, midiChannel);
+			sendmidi = new SendMidi(papplet, midiOutputDevice, midiOutputStream, midiChannel);
+			if(consonanceController >= 0){
+				logger.warning("The consonance can only be sent on controller " + consonanceController + " in MPE mode, sending it as polyphonic aftertouch instead");
+			}
+		}
+		if(outputMode == outputModes.MPE){
+			mpeOn = true;
+			sendmidi = new SendMidi(papplet, midiOutputDevice, midiOutputStream, MPE_MASTER_CHANNEL);
+			this.mpeBendTable = mpeBendTable;
+			this.mpeChannels = new VoiceAllocator(mpeChannels, mpeBendTable.getKeyCount());
+			mpeNotes = new int[mpeBendTable.getKeyCount()];
+			mpeBends = new int[mpeBendTable.getKeyCount()];
+			mpeSounding = new BitSet(mpeBendTable.getKeyCount());
+			tuningExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MpeBendTable");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			configureMpe(mpeChannels, mpeBendTable.getBendRange());
 		}
 	}
+	
+	/**
+	 * Sets up the MPE lower zone with the MPE configuration message on the master channel and the pitch bend range on the member channels, both as registered parameters.
+	 */
+	private void configureMpe(int memberChannels, int bendRange) {
+		logger.info("Setting up MPE output with " + memberChannels + " member channels and a pitch bend range of " + bendRange + " semitones");
+		sendmidi.controller(MPE_MASTER_CHANNEL, 101, 0);
+		sendmidi.controller(MPE_MASTER_CHANNEL, 100, 6); //MPE configuration
+		sendmidi.controller(MPE_MASTER_CHANNEL, 6, memberChannels);
+		for(int channel = MPE_MASTER_CHANNEL + 1; channel <= MPE_MASTER_CHANNEL + memberChannels; channel++){
+			sendmidi.controller(channel, 101, 0);
+			sendmidi.controller(channel, 100, 0); //pitch bend sensitivity
+			sendmidi.controller(channel, 6, bendRange);
+			sendmidi.controller(channel, 38, 0);
+			sendmidi.pitchBend(channel, MpeBendTable.BEND_CENTER);
+		}
+		sendmidi.flush();
+	}
 
 	@Override
 	public void noteOn(int midiNoteNumber, double velocity){
@@ -56,6 +134,90 @@ public class NoteOutput implements INoteOutput {
 		if(midiOn == true){
 			sendmidi.noteOn(midiNoteNumber, (int)(127*velocity));
 		}
+		if(mpeOn == true){
+			mpeNoteOn(midiNoteNumber, (int)(127*velocity));
+		}
+	}
+	
+	/**
+	 * Puts the note of the key on its own member channel and tunes it just towards the lowest sounding key before turning it on.
+	 */
+	private synchronized void mpeNoteOn(int key, int velocity) {
+		if(key < 0 || key >= mpeBendTable.getKeyCount() || mpeBendTable.getNote(key) < 0){
+			if(mpeUnplayable++ == 0){
+				logger.warning("Key " + key + " has no MIDI note number in the tuning or is beyond the " + mpeBendTable.getKeyCount() + " keys of the MPE pitch bends, dropping such notes");
+			}
+			return;
+		}
+		
+		//the lowest sounding key which the current table still maps, usually the first one
+		int reference = mpeSounding.nextSetBit(0);
+		while(reference >= 0 && mpeBendTable.getNote(reference) < 0){
+			reference = mpeSounding.nextSetBit(reference + 1);
+		}
+		
+		int voice = mpeChannels.allocate(key);
+		if(voice < 0){
+			if(mpeExhausted++ == 0){
+				logger.warning("All MPE member channels are in use, dropping notes");
+			}
+			return;
+		}
+		
+		int note = mpeBendTable.getNote(key);
+		int bend;
+		if(reference < 0){
+			bend = mpeBendTable.getTunedBend(key);
+		}else{
+			//the bend of the reference relative to the note the current table plays it as, in case the tuning changed since
+			int referenceBend = mpeBends[reference] + mpeBendTable.getBend(100 * (mpeNotes[reference] - mpeBendTable.getNote(reference)));
+			bend = mpeBendTable.getJustBend(reference, referenceBend, key);
+		}
+		mpeNotes[key] = note;
+		mpeBends[key] = bend;
+		mpeSounding.set(key);
+		sendMpeBend(MPE_MASTER_CHANNEL + 1 + voice, bend);
+		sendmidi.noteOn(MPE_MASTER_CHANNEL + 1 + voice, note, velocity);
+	}
+	
+	/**
+	 * Sends the pitch bend offset on the member channel, clamped to the bend range.
+	 */
+	private void sendMpeBend(int channel, int bend) {
+		int value = MpeBendTable.toMidi(bend);
+		if(value != MpeBendTable.BEND_CENTER + bend && mpeClamped++ == 0){
+			logger.warning("A just interval needs a pitch bend beyond the range of " + mpeBendTable.getBendRange() + " semitones, clamping it");
+		}
+		sendmidi.pitchBend(channel, value);
+	}
+	
+	/**
+	 * Calculates the MPE pitch bends for the new tuning in the background and uses them for the notes turned on afterwards; sounding notes keep their note numbers.
+	 * Does nothing unless the output mode is MPE.
+	 * @param tuning The new tuning which maps keys to pitches.
+	 */
+	public void setTuning(final ITuning tuning) {
+		if(!mpeOn){
+			return;
+		}
+		tuningExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				MpeBendTable table = mpeBendTable.withTuning(tuning);
+				synchronized(NoteOutput.this){
+					mpeBendTable = table;
+				}
+				logger.info("Switched MPE pitch bends to tuning '" + tuning.getDescription() + "'");
+			}
+		});
+	}
+	
+	/**
+	 * @return The MPE member channel of the note; -1 if the note has none.
+	 */
+	private synchronized int getMpeChannel(int midiNoteNumber) {
+		int voice = mpeChannels.getVoice(midiNoteNumber);
+		return (voice < 0) ? -1 : MPE_MASTER_CHANNEL + 1 + voice;
 	}
 	
 	@Override
@@ -72,6 +234,15 @@ public class NoteOutput implements INoteOutput {
 		if(midiOn == true){
 			sendmidi.noteOff(midiNoteNumber);
 		}
+		if(mpeOn == true){
+			synchronized(this){
+				int voice = mpeChannels.release(midiNoteNumber);
+				if(voice >= 0){
+					mpeSounding.clear(midiNoteNumber);
+					sendmidi.noteOff(MPE_MASTER_CHANNEL + 1 + voice, mpeNotes[midiNoteNumber]); //the pitch bend stays for the release
+				}
+			}
+		}
 	}
 
 	@Override
@@ -82,5 +253,80 @@ public class NoteOutput implements INoteOutput {
 		if(midiOn == true){
 			sendmidi.sustain((int)(127 * sustain));
 		}
+		if(mpeOn == true){
+			sendmidi.controller(MPE_MASTER_CHANNEL, 64, (int)(127 * sustain)); //applies to the whole zone
+		}
+	}
+
+	@Override
+	public void retune(int midiNoteNumber, double cents) {
+		if(!activeNotes.containsKey(midiNoteNumber)){
+			return; //note is not active, nothing to retune
+		}
+		
+		if(oscOn == true){
+			sendosc.voicePitch(midiNoteNumber, cents);
+		}
+		//a MIDI pitch bend would detune all notes on the channel, so MIDI output is not retuned
+		if(mpeOn == true){
+			synchronized(this){
+				int channel = getMpeChannel(midiNoteNumber);
+				if(channel >= 0 && mpeBendTable.getNote(midiNoteNumber) >= 0){
+					//relative to the note it sounds as, which may differ from the current table's after a tuning change
+					int bend = mpeBendTable.getTunedBend(midiNoteNumber) + mpeBendTable.getBend(100 * (mpeBendTable.getNote(midiNoteNumber) - mpeNotes[midiNoteNumber]) + cents);
+					mpeBends[midiNoteNumber] = bend;
+					sendMpeBend(channel, bend);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void consonance(int midiNoteNumber, double consonance) {
+		if(!activeNotes.containsKey(midiNoteNumber)){
+			return; //note is not active
+		}
+		
+		if(oscOn == true){
+			sendosc.voiceParameter(midiNoteNumber, consonanceParameter, consonance);
+		}
+		if(midiOn == true){
+			sendmidi.polyPressure(midiNoteNumber, (int)Math.round(127 * consonance)); //a controller would be one value for all notes of the channel
+		}
+		if(mpeOn == true){
+			int channel = getMpeChannel(midiNoteNumber);
+			if(channel >= 0){
+				int value = (int)Math.round(127 * consonance);
+				if(consonanceController < 0){
+					sendmidi.channelPressure(channel, value); //the note's own pressure in MPE
+				}else{
+					sendmidi.controller(channel, consonanceController, value);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		if(oscOn == true){
+			sendosc.flush();
+		}
+		if(midiOn == true || mpeOn == true){
+			sendmidi.flush();
+		}
+	}
+	
+	/**
+	 * @return The count of notes which weren't sent because all MPE member channels were in use.
+	 */
+	public synchronized long getMpeExhaustedCount() {
+		return mpeExhausted;
+	}
+	
+	/**
+	 * @return The count of notes which weren't sent because their key has no MIDI note number in the tuning or is beyond the keys of the MPE pitch bends.
+	 */
+	public synchronized long getMpeUnplayableCount() {
+		return mpeUnplayable;
 	}
 }
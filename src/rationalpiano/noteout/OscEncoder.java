@@ -0,0 +1,258 @@
+package rationalpiano.noteout;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the SYNoscopy messages used by SendOsc directly into a reused direct ByteBuffer, without building synOscP5 message objects.
+ * The packets are byte-identical to the ones synOscP5/OscXXL produce for SYN().synth(1)..., including the ranges for which they throw an IllegalArgumentException.
+ * A packet is either a single message or a bundle with a timetag and any count of messages; begin it with reset() or beginBundle(), then add messages and take it with getPacket().
+ * Not thread safe, the caller has to synchronize.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class OscEncoder {
+
+	/**
+	 * Maximum size of one encoded message in bytes (including its size prefix in a bundle).
+	 */
+	public static final int MAX_MESSAGE_BYTES = 64;
+
+	//synOscP5 scales its 32 bit values to this maximum
+	private static final double MAX_32BIT = 2147483647.0;
+	private static final int MIDI_OFFSET = 2147483647 / 2 - 60;
+
+	//seconds between the OSC (NTP) epoch 1900 and the Java epoch 1970
+	private static final long EPOCH_OFFSET = 2208988800L;
+
+	private static final byte[] PREFIX = ascii("/SYN/ID1/");
+	private static final byte[] BUNDLE = ascii("#bundle");
+	private static final byte[] SUSTAIN = ascii("SUSTAIN");
+	private static final byte[] ON = ascii("/ON");
+	private static final byte[] OFF = ascii("/OFF");
+	private static final byte[] PITCH = ascii("/PITCH");
+	private static final byte[] PARAMETER = ascii("/P");
+	private static final byte[] TYPES_ON = ascii(",FFTiFi");
+	private static final byte[] TYPES_NONE = ascii(",");
+	private static final byte[] TYPES_PITCH = ascii(",FFi");
+	private static final byte[] TYPES_VALUE = ascii(",Fi");
+
+	private ByteBuffer buffer;
+	private boolean inBundle = false;
+	private int sizePosition; //position of the size prefix of the current bundle element
+	private int messageCount = 0;
+
+	/**
+	 * @param capacity Size of the packet buffer in bytes; bounds the size of a bundle.
+	 */
+	public OscEncoder(int capacity) {
+		buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Clears the buffer to start a packet with a single message.
+	 */
+	public void reset() {
+		buffer.clear();
+		inBundle = false;
+		messageCount = 0;
+	}
+
+	/**
+	 * Clears the buffer to start a bundle, to which all following messages get added.
+	 * @param timeMillis The timetag of the bundle, as given by System.currentTimeMillis().
+	 */
+	public void beginBundle(long timeMillis) {
+		reset();
+		inBundle = true;
+		putString(BUNDLE);
+		buffer.putInt((int)(timeMillis / 1000 + EPOCH_OFFSET));
+		buffer.putInt((int)((timeMillis % 1000) * 4294967296L / 1000));
+	}
+
+	/**
+	 * Same as SYN().synth(1).voice(voice).midi(midiNoteNumber).cutOff(false).velocity(velocity)
+	 * @param voice The SYNoscopy voice number. voice>=0
+	 * @param midiNoteNumber The MIDI note number of the voice. -108<=midiNoteNumber<=108
+	 * @param velocity Velocity of the voice in percent; 0 means 100 like in synOscP5. -100<=velocity<=100
+	 */
+	public void voiceOn(int voice, int midiNoteNumber, double velocity) {
+		if(midiNoteNumber < -108 || midiNoteNumber > 108){
+			throw new IllegalArgumentException();
+		}
+		checkPercent(velocity);
+		if(velocity == 0){
+			velocity = 100; //synOscP5 ignores a velocity of 0 and keeps its default
+		}
+
+		beginMessage();
+		putVoiceAddress(voice, ON);
+		putString(TYPES_ON);
+		buffer.putInt((int)(midiNoteNumber + (double)MIDI_OFFSET));
+		buffer.putInt((int)(MAX_32BIT * velocity / 100));
+		endMessage();
+	}
+
+	/**
+	 * Same as SYN().synth(1).voice(voice).off()
+	 * @param voice The SYNoscopy voice number. voice>=0
+	 */
+	public void voiceOff(int voice) {
+		beginMessage();
+		putVoiceAddress(voice, OFF);
+		putString(TYPES_NONE);
+		endMessage();
+	}
+
+	/**
+	 * Same as SYN().synth(1).voice(voice).pitchCents(cents)
+	 * @param voice The SYNoscopy voice number. voice>=0
+	 * @param cents Pitch offset in cents.
+	 */
+	public void voicePitch(int voice, double cents) {
+		beginMessage();
+		putVoiceAddress(voice, PITCH);
+		putString(TYPES_PITCH);
+		buffer.putInt((int)(cents * 16384.0));
+		endMessage();
+	}
+
+	/**
+	 * Same as SYN().synth(1).voice(voice).param(parameter, value)
+	 * @param voice The SYNoscopy voice number. voice>=0
+	 * @param parameter The number of the voice parameter. parameter>=0
+	 * @param value Value of the parameter in percent. -100<=value<=100
+	 */
+	public void voiceParameter(int voice, int parameter, int value) {
+		checkPercent(value);
+
+		beginMessage();
+		int start = buffer.position();
+		buffer.put(PREFIX);
+		buffer.put((byte)'V');
+		putDecimal(voice);
+		buffer.put(PARAMETER);
+		putDecimal(parameter);
+		pad(buffer.position() - start);
+		putString(TYPES_VALUE);
+		buffer.putInt((int)(MAX_32BIT * value / 100));
+		endMessage();
+	}
+
+	/**
+	 * Same as SYN().synth(1).sustain(sustain)
+	 * @param sustain Sustain value in percent. -100<=sustain<=100
+	 */
+	public void sustain(double sustain) {
+		checkPercent(sustain);
+
+		beginMessage();
+		buffer.put(PREFIX);
+		buffer.put(SUSTAIN);
+		pad(PREFIX.length + SUSTAIN.length);
+		putString(TYPES_VALUE);
+		buffer.putInt((int)(MAX_32BIT * sustain / 100));
+		endMessage();
+	}
+
+	/**
+	 * @return The count of messages in the current packet.
+	 */
+	public int getMessageCount() {
+		return messageCount;
+	}
+
+	/**
+	 * @return The count of bytes which can still be added to the current packet.
+	 */
+	public int getRemaining() {
+		return buffer.remaining();
+	}
+
+	/**
+	 * Flips the buffer for sending; call reset() or beginBundle() before adding further messages.
+	 * @return The buffer holding the encoded packet between its position and limit.
+	 */
+	public ByteBuffer getPacket() {
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void checkPercent(double percent) {
+		if(percent < -100 || percent > 100){
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Reserves the size prefix of the message if in a bundle.
+	 */
+	private void beginMessage() {
+		if(inBundle){
+			sizePosition = buffer.position();
+			buffer.putInt(0);
+		}
+	}
+
+	/**
+	 * Fills in the size prefix of the message if in a bundle.
+	 */
+	private void endMessage() {
+		if(inBundle){
+			buffer.putInt(sizePosition, buffer.position() - sizePosition - 4);
+		}
+		messageCount++;
+	}
+
+	/**
+	 * Writes "/SYN/ID1/V" + voice + suffix as a padded OSC string, without creating a String.
+	 */
+	private void putVoiceAddress(int voice, byte[] suffix) {
+		int start = buffer.position();
+		buffer.put(PREFIX);
+		buffer.put((byte)'V');
+		putDecimal(voice);
+		buffer.put(suffix);
+		pad(buffer.position() - start);
+	}
+
+	/**
+	 * Writes the decimal digits of a non-negative number.
+	 */
+	private void putDecimal(int value) {
+		int divisor = 1;
+		while(value / divisor >= 10){
+			divisor *= 10;
+		}
+		for(; divisor > 0; divisor /= 10){
+			buffer.put((byte)('0' + (value / divisor) % 10));
+		}
+	}
+
+	/**
+	 * Writes an OSC string: its characters followed by 1 to 4 zero bytes up to a multiple of 4 bytes.
+	 */
+	private void putString(byte[] string) {
+		buffer.put(string);
+		pad(string.length);
+	}
+
+	/**
+	 * Writes the zero bytes terminating an OSC string of the given length.
+	 */
+	private void pad(int length) {
+		for(int a = length % 4; a < 4; a++){
+			buffer.put((byte)0);
+		}
+	}
+
+	private static byte[] ascii(String string) {
+		byte[] bytes = new byte[string.length()];
+		for(int a = 0; a < bytes.length; a++){
+			bytes[a] = (byte)string.charAt(a);
+		}
+		return bytes;
+	}
+}
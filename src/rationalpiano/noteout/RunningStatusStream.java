@@ -0,0 +1,111 @@
+package rationalpiano.noteout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ * Writes MIDI channel messages as raw bytes to a stream, eg. a serial MIDI interface, packed with running status:
+ * the status byte is left out when it is the same as the one of the previous message. Note offs are written as note ons with velocity 0, so a stream of notes on one channel only needs one status byte.
+ * The bytes get collected in a preallocated buffer and written with one call per flush().
+ * Not thread safe, the caller has to synchronize.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class RunningStatusStream {
+
+	private static final int BUFFER_BYTES = 4096;
+
+	private OutputStream out;
+	private byte[] buffer = new byte[BUFFER_BYTES];
+	private int length = 0;
+	private int runningStatus = -1; //-1 = none, the next message has to send its status byte
+
+	private long bytesWritten = 0;
+	private long bytesSaved = 0;
+
+	private static final Logger logger = Logger.getLogger(RunningStatusStream.class.getName());
+
+	/**
+	 * @param out The stream to write the MIDI bytes to.
+	 */
+	public RunningStatusStream(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Adds a channel message to the buffer.
+	 * @param status The status byte, command and channel, eg. 0x90 | channel. 0x80<=status<=0xEF
+	 * @param data1 The first data byte; 0<=data1<=127
+	 * @param data2 The second data byte, ignored for program change and channel pressure; 0<=data2<=127
+	 */
+	public void send(int status, int data1, int data2) {
+		if((status & 0xF0) == 0x80){
+			status = 0x90 | (status & 0x0F); //note off as note on with velocity 0
+			data2 = 0;
+		}
+
+		if(length + 3 > buffer.length){
+			flush();
+		}
+
+		if(status == runningStatus){
+			bytesSaved++;
+		}else{
+			buffer[length++] = (byte)status;
+			runningStatus = status;
+		}
+		buffer[length++] = (byte)(data1 & 0x7F);
+		int command = status & 0xF0;
+		if(command != 0xC0 && command != 0xD0){
+			buffer[length++] = (byte)(data2 & 0x7F);
+		}
+	}
+
+	/**
+	 * Writes the buffered bytes to the stream.
+	 */
+	public void flush() {
+		if(length == 0){
+			return;
+		}
+		try{
+			out.write(buffer, 0, length);
+			out.flush();
+			bytesWritten += length;
+		}catch(IOException e){
+			logger.warning("Could not write MIDI bytes: " + e.toString());
+			runningStatus = -1; //the receiver may have missed the status byte
+		}
+		length = 0;
+	}
+
+	/**
+	 * Flushes and closes the stream.
+	 */
+	public void close() {
+		flush();
+		try{
+			out.close();
+		}catch(IOException e){
+		}
+	}
+
+	/**
+	 * @return The count of bytes written to the stream.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return The count of status bytes left out thanks to running status.
+	 */
+	public long getBytesSaved() {
+		return bytesSaved;
+	}
+
+}
@@ -1,26 +1,42 @@
 package rationalpiano.noteout;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.logging.Logger;
 
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
 import processing.core.PApplet;
-import rwmidi.MidiOutput;
-import rwmidi.RWMidi;
 
 /**
  * Manages note output for MIDI
- * Allows to turn on/off notes on a midi channel
+ * Allows to turn on/off notes on a midi channel and to send polyphonic aftertouch and controllers
+ * The methods with a channel parameter address any channel instead of the configured one, eg. the member channels of MPE output.
+ * rwmidi can't send polyphonic aftertouch, so the device gets opened via Java Sound directly, found the same way as RWMidi does (see MidiDevices); all messages get sent with one reused ShortMessage.
+ * Instead of a device, the raw MIDI bytes may also be written to a stream (eg. a serial MIDI interface), packed with running status and written once per flush(); note ons and offs get written right away together with the messages collected before them, so their timing doesn't wait for the next tick.
+ * Messages which wouldn't change the state of the device (see MidiStateFilter) get dropped.
  * 
  * @author Fabian Ehrentraud
- * @date 2010-09-23
- * @version 1.01
+ * @date 2026-10-19
+ * @version 1.06
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class SendMidi {
 	
 	private PApplet papplet;
-	private MidiOutput output;
+	private MidiDevice device;
+	private Receiver output;
+	private ShortMessage message = new ShortMessage(); //reused for every message, only touched in the synchronized methods
+	private RunningStatusStream stream;
 	private int channel;
 	
+	private MidiStateFilter state = new MidiStateFilter();
+	
 	private static final Logger logger = Logger.getLogger(SendMidi.class.getName());
 	
 	/**
@@ -30,33 +46,62 @@ public class SendMidi {
 	 * @param midiChannel MIDI channel to send the note messages to; 0<=midiChannel<=15
 	 */
 	public SendMidi(PApplet papplet, String midiOutputDevice, int midiChannel) {
-		logger.info("Setting up MIDI output on device '" + midiOutputDevice + "' on channel " + midiChannel);
-		
+		this(papplet, midiOutputDevice, "", midiChannel);
+	}
+	
+	/**
+	 * Opens the specified MIDI device or stream.
+	 * @param papplet The processing applet to send the MIDI messages from.
+	 * @param midiOutputDevice PART of the name of the MIDI device to send the note messages to.
+	 * @param midiOutputStream Path of a file (eg. a serial MIDI interface) to write the raw MIDI bytes to instead of the device; empty to use the device.
+	 * @param midiChannel MIDI channel to send the note messages to; 0<=midiChannel<=15
+	 */
+	public SendMidi(PApplet papplet, String midiOutputDevice, String midiOutputStream, int midiChannel) {
 		this.papplet = papplet;
 		
 		this.channel = midiChannel;
 		
-		String devices[] = RWMidi.getOutputDeviceNames();
-		
-		logger.config("Available MIDI Output Devices:");
-		for(String device : devices){
-			logger.config("    " + device);
-		}
-		logger.config("Searching for MIDI Device containing string '" + midiOutputDevice + "'");
-		
-		int i;
-		for(i=0; i<devices.length; i++){
-			if(devices[i].toLowerCase().contains(midiOutputDevice.toLowerCase())){
-				logger.config("MIDI Device chosen: '" + devices[i] + "'");
-				break;
+		if(midiOutputStream.length() > 0){
+			logger.info("Setting up MIDI output to '" + midiOutputStream + "' on channel " + midiChannel);
+			try{
+				stream = new RunningStatusStream(new FileOutputStream(midiOutputStream));
+				return;
+			}catch(FileNotFoundException e){
+				logger.severe("Couldn't open '" + midiOutputStream + "', using MIDI Device instead, error: " + e.toString());
 			}
 		}
-		if(i==devices.length){
-			i--;
-			logger.severe("MIDI Device not found, choosing last device: '" + devices[i] + "'");
+		
+		openDevice(midiOutputDevice);
+	}
+	
+	/**
+	 * Writes the raw MIDI bytes to the given stream, packed with running status.
+	 * @param out The stream to write to.
+	 * @param midiChannel MIDI channel to send the note messages to; 0<=midiChannel<=15
+	 */
+	public SendMidi(OutputStream out, int midiChannel) {
+		this.channel = midiChannel;
+		stream = new RunningStatusStream(out);
+	}
+	
+	/**
+	 * Opens the first MIDI device whose name contains the given string, or the last one if none does.
+	 */
+	private void openDevice(String midiOutputDevice) {
+		logger.info("Setting up MIDI output on device '" + midiOutputDevice + "' on channel " + channel);
+		
+		MidiDevice chosen = MidiDevices.choose(false, midiOutputDevice);
+		if(chosen == null){
+			return;
 		}
 
-		output = RWMidi.getOutputDevices()[i].createOutput(); //FIXME exception can happen here but the library catches it (as it is a processing library) => modify library to throw the exeption
+		try{
+			chosen.open();
+			output = chosen.getReceiver();
+			device = chosen;
+		}catch(MidiUnavailableException e){
+			logger.severe("Couldn't open MIDI Device '" + MidiDevices.getName(chosen) + "', error: " + e.toString());
+		}
 	}
 	
 	/**
@@ -66,7 +111,36 @@ public class SendMidi {
 	@Override
 	public void finalize(){
 		logger.info("Closing MIDI device");
-		output.closeMidi();
+		if(stream != null){
+			stream.close();
+		}
+		if(output != null){
+			output.close();
+			device.close();
+		}
+	}
+	
+	/**
+	 * Sends a channel message. Only called from the synchronized methods, as the message object is reused; the receiver of a device passes the bytes on before returning.
+	 * @param command The command of the message, eg. ShortMessage.NOTE_ON.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param data1 The first data byte; 0<=data1<=127
+	 * @param data2 The second data byte; 0<=data2<=127
+	 */
+	private void send(int command, int channel, int data1, int data2) {
+		if(stream != null){
+			stream.send(command | channel, data1, data2);
+			return;
+		}
+		if(output == null){
+			return; //device couldn't be opened
+		}
+		try{
+			message.setMessage(command, channel, data1, data2);
+			output.send(message, -1);
+		}catch(InvalidMidiDataException e){
+			logger.warning("Invalid MIDI message: " + e.toString());
+		}
 	}
 
 	/**
@@ -74,7 +148,17 @@ public class SendMidi {
 	 * @param midiNoteNumber The MIDI note number to turn on.
 	 * @param velocity Velocity of the new voice; 0<=velocity<=127
 	 */
-	public void noteOn(int midiNoteNumber, int velocity){
+	public synchronized void noteOn(int midiNoteNumber, int velocity){
+		noteOn(channel, midiNoteNumber, velocity);
+	}
+
+	/**
+	 * Turns on the voice with the given MIDI note number and velocity on the given channel.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param midiNoteNumber The MIDI note number to turn on.
+	 * @param velocity Velocity of the new voice; 0<=velocity<=127
+	 */
+	public synchronized void noteOn(int channel, int midiNoteNumber, int velocity){
 		if(velocity<=0 || velocity>127){
 			return;
 		}
@@ -82,16 +166,28 @@ public class SendMidi {
 			return;
 		}
 		
-		output.sendNoteOn(channel, midiNoteNumber, velocity);
+		state.noteOn(channel, midiNoteNumber);
+		send(ShortMessage.NOTE_ON, channel, midiNoteNumber, velocity);
+		flush();
 	}
 
 	/**
 	 * Turns off the voice with the given MIDI note number.
 	 * @param midiNoteNumber The MIDI note number to turn off.
 	 */
-	public void noteOff(int midiNoteNumber){
-		if(midiNoteNumber>=0 && midiNoteNumber<=127){
-			output.sendNoteOff(channel, midiNoteNumber, 0);
+	public synchronized void noteOff(int midiNoteNumber){
+		noteOff(channel, midiNoteNumber);
+	}
+
+	/**
+	 * Turns off the voice with the given MIDI note number on the given channel.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param midiNoteNumber The MIDI note number to turn off.
+	 */
+	public synchronized void noteOff(int channel, int midiNoteNumber){
+		if(midiNoteNumber>=0 && midiNoteNumber<=127 && state.noteOff(channel, midiNoteNumber)){
+			send(ShortMessage.NOTE_OFF, channel, midiNoteNumber, 0);
+			flush();
 		}
 	}
 
@@ -99,7 +195,84 @@ public class SendMidi {
 	 * Sends a sustain message with the given sustain value.
 	 * @param sustain Sustain value to send; 0<=sustain<=127
 	 */
-	public void sustain(int sustain) {
-		output.sendController(channel, 64, sustain);
+	public synchronized void sustain(int sustain) {
+		controller(64, sustain);
+	}
+
+	/**
+	 * Sends a controller message.
+	 * @param controller The controller number; 0<=controller<=127
+	 * @param value The value of the controller; 0<=value<=127
+	 */
+	public synchronized void controller(int controller, int value) {
+		controller(channel, controller, value);
+	}
+
+	/**
+	 * Sends a controller message on the given channel.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param controller The controller number; 0<=controller<=127
+	 * @param value The value of the controller; 0<=value<=127
+	 */
+	public synchronized void controller(int channel, int controller, int value) {
+		if(state.controller(channel, controller, value)){
+			send(ShortMessage.CONTROL_CHANGE, channel, controller, value);
+		}
+	}
+
+	/**
+	 * Sends polyphonic aftertouch for the given MIDI note number.
+	 * @param midiNoteNumber The MIDI note number to send the pressure for.
+	 * @param pressure The pressure; 0<=pressure<=127
+	 */
+	public synchronized void polyPressure(int midiNoteNumber, int pressure) {
+		if(midiNoteNumber>=0 && midiNoteNumber<=127 && state.polyPressure(channel, midiNoteNumber, pressure)){
+			send(ShortMessage.POLY_PRESSURE, channel, midiNoteNumber, pressure);
+		}
+	}
+
+	/**
+	 * Sends channel aftertouch on the given channel.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param pressure The pressure; 0<=pressure<=127
+	 */
+	public synchronized void channelPressure(int channel, int pressure) {
+		if(state.channelPressure(channel, pressure)){
+			send(ShortMessage.CHANNEL_PRESSURE, channel, pressure, 0);
+		}
+	}
+
+	/**
+	 * Sends a pitch bend on the given channel.
+	 * @param channel MIDI channel; 0<=channel<=15
+	 * @param bend The 14 bit pitch bend value, 8192 = no bend; 0<=bend<=16383
+	 */
+	public synchronized void pitchBend(int channel, int bend) {
+		if(state.pitchBend(channel, bend)){
+			send(ShortMessage.PITCH_BEND, channel, bend & 0x7F, bend >> 7);
+		}
+	}
+	
+	/**
+	 * Writes the messages collected since the last call to the stream, if the output is a stream.
+	 */
+	public synchronized void flush() {
+		if(stream != null){
+			stream.flush();
+		}
+	}
+	
+	/**
+	 * @return The count of messages which got dropped because they wouldn't have changed the state of the device.
+	 */
+	public synchronized long getDroppedCount() {
+		return state.getDroppedCount();
+	}
+	
+	/**
+	 * @return The count of status bytes left out thanks to running status; 0 if the output is a device.
+	 */
+	public synchronized long getBytesSaved() {
+		return (stream == null) ? 0 : stream.getBytesSaved();
 	}
 }
@@ -1,20 +1,30 @@
 package rationalpiano.noteout;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.Date;
 import java.util.logging.Logger;
 
+import net.gombology.OscXXL.Bundle;
 import net.gombology.OscXXL.PortOut;
 import net.gombology.synOscP5.SYN;
 import net.gombology.synOscP5.SynMessage;
 import processing.core.PApplet;
+import rationalpiano.noteout.INoteOutput.bundlingModes;
+import rationalpiano.noteout.INoteOutput.oscBackends;
 
 /**
  * Manages note output for OSC
  * Allows to turn on/off voices on an osc port following the rules of the SYNoscopy namespace
+ * Messages can be collected into timetagged bundles, so eg. all notes of a chord arrive in one packet. The timetag of a bundle is the time of its first message plus the bundle window, so a synth which schedules by timetag keeps the relative timing of the messages with a constant latency.
+ * A flusher thread sends every bundle at the latest when the window after its first message has passed.
+ * Every note gets a SYNoscopy voice number from a VoiceAllocator while it sounds.
+ * With the DIRECT backend the messages are encoded by OscEncoder into a reused buffer and sent via a non-blocking DatagramChannel, which produces the same packets as synOscP5 without allocating per message; packets the channel can't take right away get dropped and counted.
  * 
  * @author Fabian Ehrentraud
- * @date 2010-12-27
- * @version 1.1
+ * @date 2026-10-19
+ * @version 1.17
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class SendOsc {
@@ -22,10 +32,48 @@ public class SendOsc {
 	private PApplet papplet;
 	private PortOut out;
 	
+	//DIRECT backend only
+	private OscEncoder encoder;
+	private DatagramChannel channel;
+	private InetSocketAddress target;
+	
+	private bundlingModes bundling;
+	private long windowNanos;
+	
+	//the bundle being collected, no message is waiting if bundleSize is 0; guarded by this
+	private Bundle bundle;
+	private int bundleSize = 0;
+	private long bundleOpened;
+	private Thread flusher;
+	private volatile boolean running = true;
+	
+	//metrics, guarded by this
+	private long packetsSent = 0;
+	private long bundlesSent = 0;
+	private long bundledMessages = 0;
+	private int maxBundleSize = 0;
+	private long deadlineFlushes = 0;
+	private long droppedPackets = 0;
+	private long rateStart = System.nanoTime();
+	private long ratePackets = 0;
+	private long lastMetricsLog = System.nanoTime();
+	
+	private static final long METRICS_LOG_INTERVAL_NANOS = 10L * 1000 * 1000 * 1000;
+	
+	//size of the packet buffer of the DIRECT backend, bundles get sent early when it is full
+	private static final int PACKET_BYTES = 8192;
+	
 	private static final Logger logger = Logger.getLogger(SendOsc.class.getName());
 	
-	//first value is midi note number, second is osc voice number
-	private ConcurrentHashMap<Integer, Integer> activeVoices = new ConcurrentHashMap<Integer, Integer>();
+	//SYNoscopy voice numbers of the sounding notes, guarded by this
+	private VoiceAllocator voices;
+	private long exhaustedVoices = 0;
+	private long outOfRangeNotes = 0;
+	
+	/**
+	 * Default count of SYNoscopy voice numbers.
+	 */
+	public static final int DEFAULT_MAX_VOICES = 128;
 
 	/**
 	 * Initializes OSC output with the given UDP port.
@@ -33,9 +81,61 @@ public class SendOsc {
 	 * @param port The UDP port to send the OSC messages from.
 	 */
 	public SendOsc(PApplet papplet, int port) {
-		logger.info("Setting up OSC output on port " + port);
+		this(papplet, port, bundlingModes.OFF, 0);
+	}
+	
+	/**
+	 * Initializes OSC output with the given UDP port and bundling.
+	 * @param papplet The processing applet to send the OSC messages from.
+	 * @param port The UDP port to send the OSC messages from.
+	 * @param bundling How to bundle the messages.
+	 * @param bundleWindow Maximum time in milliseconds between the first message of a bundle and sending it, also the latency of the bundle's timetag. Unused if bundling is OFF.
+	 */
+	public SendOsc(PApplet papplet, int port, bundlingModes bundling, int bundleWindow) {
+		this(papplet, port, bundling, bundleWindow, oscBackends.SYNOSCP5, DEFAULT_MAX_VOICES);
+	}
+	
+	/**
+	 * Initializes OSC output with the given UDP port, bundling and backend.
+	 * @param papplet The processing applet to send the OSC messages from; unused by the DIRECT backend.
+	 * @param port The UDP port to send the OSC messages from.
+	 * @param bundling How to bundle the messages.
+	 * @param bundleWindow Maximum time in milliseconds between the first message of a bundle and sending it, also the latency of the bundle's timetag. Unused if bundling is OFF.
+	 * @param backend How to encode and send the messages.
+	 * @param maxVoices Count of SYNoscopy voice numbers to use, 0 to maxVoices-1. maxVoices>=1
+	 */
+	public SendOsc(PApplet papplet, int port, bundlingModes bundling, int bundleWindow, oscBackends backend, int maxVoices) {
+		logger.info("Setting up " + backend + " OSC output on port " + port + ((bundling == bundlingModes.OFF) ? "" : " with " + bundling + " bundling and a window of " + bundleWindow + " ms"));
 		this.papplet = papplet;
-		out = PortOut.getInstance("localhost", port, papplet);
+		this.bundling = bundling;
+		this.windowNanos = bundleWindow * 1000000L;
+		voices = new VoiceAllocator(maxVoices);
+		
+		if(backend == oscBackends.DIRECT){
+			try{
+				channel = DatagramChannel.open();
+				channel.configureBlocking(false);
+				target = new InetSocketAddress("localhost", port);
+				encoder = new OscEncoder(PACKET_BYTES);
+			}catch(IOException e){
+				logger.severe("Could not open datagram channel, using " + oscBackends.SYNOSCP5 + " OSC output instead: " + e);
+				channel = null;
+			}
+		}
+		if(encoder == null){
+			out = PortOut.getInstance("localhost", port, papplet);
+		}
+		
+		if(bundling != bundlingModes.OFF){
+			flusher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					flushOnDeadlines();
+				}
+			}, "OscBundleFlusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
 	}
 	
 	/**
@@ -45,69 +145,305 @@ public class SendOsc {
 	@Override
 	public void finalize(){
 		logger.info("Closing OSC port");
-		out.close();
+		running = false;
+		flush();
+		if(encoder != null){
+			try{
+				channel.close();
+			}catch(IOException e){
+			}
+		}else{
+			out.close();
+		}
 	}
-
+	
 	/**
-	 * Turns on the voice with the given MIDI note number and velocity.
-	 * @param midiNoteNumber The MIDI note number to turn on.
-	 * @param velocity Velocity of the new voice; 0<=velocity<=1
+	 * Sends the message right away, or adds it to the current bundle if bundling is on.
+	 * @param msg The message to send.
 	 */
-	public void voiceOn(int midiNoteNumber, float velocity) {
-		//Bundle bundle = new Bundle();
-		SynMessage msg;
+	private synchronized void send(SynMessage msg) {
+		if(bundling == bundlingModes.OFF){
+			out.send(msg, papplet);
+			packetsSent++;
+			return;
+		}
 		
-		int voicenumber = useFreeVoice(midiNoteNumber);
+		if(bundleSize == 0){
+			bundleOpened = System.nanoTime();
+			bundle = new Bundle();
+			bundle.setTimestamp(new Date(System.currentTimeMillis() + windowNanos / 1000000));
+			notifyAll(); //wake the flusher to watch the deadline
+		}
+		bundle.add(msg);
+		bundleSize++;
+	}
+	
+	/**
+	 * DIRECT backend: prepares the encoder for the next message, so it either starts a packet of its own or gets added to the current bundle. The caller must hold the lock.
+	 */
+	private void beginEncoded() {
+		if(bundling == bundlingModes.OFF){
+			encoder.reset();
+			return;
+		}
 		
-		msg = new SYN().synth(1).voice(voicenumber).midi(midiNoteNumber).cutOff(false).velocity(velocity);
-		//bundle.add(msg);
-		//out.send(bundle, papplet);
-		out.send(msg, papplet);
+		if(bundleSize > 0 && encoder.getRemaining() < OscEncoder.MAX_MESSAGE_BYTES){
+			sendBundle(); //buffer full
+		}
+		if(bundleSize == 0){
+			bundleOpened = System.nanoTime();
+			encoder.beginBundle(System.currentTimeMillis() + windowNanos / 1000000);
+			notifyAll(); //wake the flusher to watch the deadline
+		}
 	}
 	
 	/**
-	 * Associates the given midi note number with the an unused synoscopy voice number.
-	 * @param midiNoteNumber This will be associated with a free synoscopy voice number.
-	 * @return The synoscopy voice number the midi note got associated with.
+	 * DIRECT backend: sends the just encoded message right away, or counts it to the current bundle if bundling is on. The caller must hold the lock.
 	 */
-	private int useFreeVoice(int midiNoteNumber) {
+	private void endEncoded() {
+		if(bundling == bundlingModes.OFF){
+			writeEncoded();
+			packetsSent++;
+		}else{
+			bundleSize++;
+		}
+	}
+	
+	/**
+	 * DIRECT backend: sends the encoded packet without blocking. The caller must hold the lock.
+	 */
+	private void writeEncoded() {
 		try{
-			if(activeVoices.contains(midiNoteNumber)){
-				//if the midi note number is already in the list, reuse the voice number - should not happen with properly working Voices class
-				int v = activeVoices.get(midiNoteNumber);
-				activeVoices.put(midiNoteNumber, v);
-				return v;
+			if(channel.send(encoder.getPacket(), target) == 0){
+				droppedPackets++; //no room in the socket's send buffer
 			}
-		}catch(NullPointerException e){
+		}catch(IOException e){
+			droppedPackets++;
+			logger.warning("Could not send OSC packet: " + e);
+		}
+	}
+	
+	/**
+	 * Sends the current bundle, if any message was collected.
+	 * Called at the end of every frame; only has an effect in FRAME bundling mode, in WINDOW mode bundles are only sent when their window has passed.
+	 */
+	public synchronized void flush() {
+		if(bundling == bundlingModes.FRAME || !running){
+			sendBundle();
+		}
+	}
+	
+	/**
+	 * Sends the current bundle, if any message was collected, and updates the metrics. The caller must hold the lock.
+	 */
+	private void sendBundle() {
+		if(bundleSize == 0){
+			return;
+		}
+		
+		if(encoder != null){
+			writeEncoded();
+		}else{
+			out.send(bundle, papplet);
 		}
-		for(int v=0; v < activeVoices.size()+1; v++){
-			if(activeVoices.containsKey(v)){
-				activeVoices.put(midiNoteNumber, v);
-				return v;
+		packetsSent++;
+		bundlesSent++;
+		bundledMessages += bundleSize;
+		maxBundleSize = Math.max(maxBundleSize, bundleSize);
+		bundle = null;
+		bundleSize = 0;
+		
+		if(System.nanoTime() - lastMetricsLog > METRICS_LOG_INTERVAL_NANOS){
+			lastMetricsLog = System.nanoTime();
+			logger.fine("OSC output: " + packetsSent + " packets, " + bundlesSent + " bundles, average bundle size " + getAverageBundleSize() + ", maximum bundle size " + maxBundleSize + ", " + deadlineFlushes + " bundles sent on deadline, " + droppedPackets + " packets dropped");
+		}
+	}
+	
+	/**
+	 * Run by the flusher thread: waits until a bundle is opened and sends it when its window has passed, if it wasn't sent before.
+	 */
+	private synchronized void flushOnDeadlines() {
+		while(running){
+			try{
+				if(bundleSize == 0){
+					wait();
+					continue;
+				}
+				long remaining = bundleOpened + windowNanos - System.nanoTime();
+				if(remaining > 0){
+					wait(remaining / 1000000, (int)(remaining % 1000000));
+				}else{
+					deadlineFlushes++;
+					sendBundle();
+				}
+			}catch(InterruptedException e){
+				return;
 			}
 		}
-		return 0; //should be unreachable
+	}
+	
+	/**
+	 * @return The count of packets (single messages or bundles) sent per second since the last call.
+	 */
+	public synchronized double getPacketsPerSecond() {
+		long now = System.nanoTime();
+		double rate = (packetsSent - ratePackets) / ((now - rateStart) / 1e9);
+		rateStart = now;
+		ratePackets = packetsSent;
+		return rate;
+	}
+	
+	/**
+	 * @return The average count of messages per sent bundle; 0 if no bundle was sent.
+	 */
+	public synchronized double getAverageBundleSize() {
+		return (bundlesSent == 0) ? 0 : bundledMessages / (double)bundlesSent;
+	}
+	
+	/**
+	 * @return The highest count of messages in one sent bundle.
+	 */
+	public synchronized int getMaxBundleSize() {
+		return maxBundleSize;
+	}
+	
+	/**
+	 * @return The count of bundles which were sent because their window had passed instead of at the end of a frame.
+	 */
+	public synchronized long getDeadlineFlushCount() {
+		return deadlineFlushes;
+	}
+	
+	/**
+	 * @return The count of packets the DIRECT backend couldn't send.
+	 */
+	public synchronized long getDroppedPacketCount() {
+		return droppedPackets;
 	}
 
 	/**
-	 * Removes a midi note from the list of the corresponding active voices.
-	 * @param midiNoteNumber This will be searched in the list of the corresponding active voices and removed if it exists.
+	 * Turns on the voice with the given MIDI note number and velocity.
+	 * Nothing gets sent if all voice numbers are in use or the note is outside the MIDI note numbers.
+	 * @param midiNoteNumber The MIDI note number to turn on.
+	 * @param velocity Velocity of the new voice; 0<=velocity<=1
 	 */
-	private void freeVoice(int midiNoteNumber) {
-		if(activeVoices.contains(midiNoteNumber)){
-			activeVoices.remove(midiNoteNumber);
+	public synchronized void voiceOn(int midiNoteNumber, float velocity) {
+		if(midiNoteNumber < 0 || midiNoteNumber >= voices.getNoteCount()){
+			if(outOfRangeNotes++ == 0){
+				logger.warning("MIDI note " + midiNoteNumber + " is outside the MIDI note numbers 0-" + (voices.getNoteCount() - 1) + " and can't be sent over OSC, further ones only get counted");
+			}
+			return;
+		}
+		int voicenumber = voices.allocate(midiNoteNumber);
+		if(voicenumber < 0){
+			if(exhaustedVoices++ == 0){
+				logger.warning("No free OSC voice for MIDI note " + midiNoteNumber + ", all " + voices.getMaxVoices() + " voices are in use, further ones only get counted");
+			}
+			return;
+		}
+		
+		if(encoder != null){
+			beginEncoded();
+			encoder.voiceOn(voicenumber, midiNoteNumber, velocity);
+			endEncoded();
+			return;
 		}
-	}	
+		
+		SynMessage msg;
+		msg = new SYN().synth(1).voice(voicenumber).midi(midiNoteNumber).cutOff(false).velocity(velocity);
+		send(msg);
+	}
 
 	/**
-	 * Turns off the voice with the given MIDI note number.
+	 * Turns off the voice with the given MIDI note number and frees its voice number.
 	 * @param midiNoteNumber The MIDI note number to turn off.
 	 */
-	public void voiceOff(int midiNoteNumber) {
+	public synchronized void voiceOff(int midiNoteNumber) {
+		int voicenumber = voices.release(midiNoteNumber);
+		if(voicenumber < 0){
+			return; //voice not active
+		}
+		
+		if(encoder != null){
+			beginEncoded();
+			encoder.voiceOff(voicenumber);
+			endEncoded();
+			return;
+		}
+		
+		SynMessage msg;
+		msg = new SYN().synth(1).voice(voicenumber).off();
+		send(msg);
+	}
+
+	/**
+	 * Detunes the voice with the given MIDI note number.
+	 * @param midiNoteNumber The MIDI note number of the voice to detune.
+	 * @param cents Pitch offset relative to the note's pitch in cents.
+	 */
+	public synchronized void voicePitch(int midiNoteNumber, double cents) {
+		int voicenumber = voices.getVoice(midiNoteNumber);
+		if(voicenumber < 0){
+			return; //voice not active
+		}
+		
+		if(encoder != null){
+			beginEncoded();
+			encoder.voicePitch(voicenumber, cents);
+			endEncoded();
+			return;
+		}
+		
+		SynMessage msg;
+		msg = new SYN().synth(1).voice(voicenumber).pitchCents(cents);
+		send(msg);
+	}
+	
+	/**
+	 * Sets a parameter of the voice with the given MIDI note number, eg. to pass on a modulation value.
+	 * @param midiNoteNumber The MIDI note number of the voice.
+	 * @param parameter The number of the SYNoscopy voice parameter.
+	 * @param value Value of the parameter; 0<=value<=1
+	 */
+	public synchronized void voiceParameter(int midiNoteNumber, int parameter, double value) {
+		int voicenumber = voices.getVoice(midiNoteNumber);
+		if(voicenumber < 0){
+			return; //voice not active
+		}
+		
+		int percent = (int)Math.round(100 * value); //synOscP5 takes whole percents
+		
+		if(encoder != null){
+			beginEncoded();
+			encoder.voiceParameter(voicenumber, parameter, percent);
+			endEncoded();
+			return;
+		}
+		
 		SynMessage msg;
-		freeVoice(midiNoteNumber);
-		msg = new SYN().synth(1).voice(midiNoteNumber).off();
-		out.send(msg, papplet);
+		msg = new SYN().synth(1).voice(voicenumber).param(parameter, percent);
+		send(msg);
+	}
+	
+	/**
+	 * @return The count of voice numbers currently in use.
+	 */
+	public synchronized int getActiveVoiceCount() {
+		return voices.getActiveCount();
+	}
+	
+	/**
+	 * @return The count of notes which weren't turned on because all voice numbers were in use.
+	 */
+	public synchronized long getExhaustedVoiceCount() {
+		return exhaustedVoices;
+	}
+	
+	/**
+	 * @return The count of notes which weren't turned on because they are outside the MIDI note numbers.
+	 */
+	public synchronized long getOutOfRangeNoteCount() {
+		return outOfRangeNotes;
 	}
 
 	/**
@@ -115,9 +451,18 @@ public class SendOsc {
 	 * @param sustain Sustain value to send; 0<=sustain<=1
 	 */
 	public void sustain(double sustain) {
+		if(encoder != null){
+			synchronized(this){
+				beginEncoded();
+				encoder.sustain(sustain);
+				endEncoded();
+			}
+			return;
+		}
+		
 		SynMessage msg;
 		msg = new SYN().synth(1).sustain(sustain); //TODO check if the argument has the right data range [0,1]
-		out.send(msg, papplet);
+		send(msg);
 	}
 
 }
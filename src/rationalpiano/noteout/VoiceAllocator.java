@@ -0,0 +1,143 @@
+package rationalpiano.noteout;
+
+/**
+ * Maps MIDI note numbers to SYNoscopy voice numbers and back, with a free list of the unused voice numbers, so that allocating, finding and freeing a voice is O(1).
+ * The free list is a FIFO ring: the voice number freed longest ago gets reused first, so the release of a just turned off voice isn't cut off by the next note on the same voice.
+ * Not thread safe, the caller has to synchronize.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class VoiceAllocator {
+
+	/**
+	 * Count of MIDI note numbers which can get a voice by default, from 0 to NOTE_COUNT-1.
+	 */
+	public static final int NOTE_COUNT = 128;
+
+	private int[] voiceOfNote; //-1 if the note has no voice
+	private int[] noteOfVoice; //-1 if the voice is free
+
+	//ring of free voice numbers
+	private int[] free;
+	private int freeHead = 0;
+	private int freeCount;
+
+	/**
+	 * @param maxVoices Count of voice numbers to allocate from, 0 to maxVoices-1. maxVoices>=1
+	 */
+	public VoiceAllocator(int maxVoices) {
+		this(maxVoices, NOTE_COUNT);
+	}
+
+	/**
+	 * @param maxVoices Count of voice numbers to allocate from, 0 to maxVoices-1. maxVoices>=1
+	 * @param noteCount Count of note numbers which can get a voice, from 0 to noteCount-1, eg. the keys of an N-EDO tuning. noteCount>=1
+	 */
+	public VoiceAllocator(int maxVoices, int noteCount) {
+		voiceOfNote = new int[noteCount];
+		noteOfVoice = new int[maxVoices];
+		free = new int[maxVoices];
+
+		for(int note = 0; note < noteCount; note++){
+			voiceOfNote[note] = -1;
+		}
+		for(int voice = 0; voice < maxVoices; voice++){
+			noteOfVoice[voice] = -1;
+			free[voice] = voice;
+		}
+		freeCount = maxVoices;
+	}
+
+	/**
+	 * Associates the given note with an unused voice number. If the note already has a voice, that one gets kept.
+	 * @param midiNoteNumber The MIDI note number to get a voice for. 0<=midiNoteNumber<getNoteCount()
+	 * @return The voice number the note got associated with; -1 if all voice numbers are in use or the note is out of range.
+	 */
+	public int allocate(int midiNoteNumber) {
+		if(midiNoteNumber < 0 || midiNoteNumber >= voiceOfNote.length){
+			return -1;
+		}
+		if(voiceOfNote[midiNoteNumber] >= 0){
+			return voiceOfNote[midiNoteNumber];
+		}
+		if(freeCount == 0){
+			return -1;
+		}
+
+		int voice = free[freeHead];
+		freeHead = (freeHead + 1) % free.length;
+		freeCount--;
+
+		voiceOfNote[midiNoteNumber] = voice;
+		noteOfVoice[voice] = midiNoteNumber;
+		return voice;
+	}
+
+	/**
+	 * Removes the association of the given note and puts its voice number at the end of the free list.
+	 * @param midiNoteNumber The MIDI note number to free the voice of.
+	 * @return The voice number the note was associated with; -1 if it had none.
+	 */
+	public int release(int midiNoteNumber) {
+		int voice = getVoice(midiNoteNumber);
+		if(voice < 0){
+			return -1;
+		}
+
+		voiceOfNote[midiNoteNumber] = -1;
+		noteOfVoice[voice] = -1;
+		free[(freeHead + freeCount) % free.length] = voice;
+		freeCount++;
+		return voice;
+	}
+
+	/**
+	 * @param midiNoteNumber The MIDI note number.
+	 * @return The voice number the note is associated with; -1 if it has none.
+	 */
+	public int getVoice(int midiNoteNumber) {
+		if(midiNoteNumber < 0 || midiNoteNumber >= voiceOfNote.length){
+			return -1;
+		}
+		return voiceOfNote[midiNoteNumber];
+	}
+
+	/**
+	 * @param voice The voice number. 0<=voice<getMaxVoices()
+	 * @return The MIDI note number the voice is associated with; -1 if it is free.
+	 */
+	public int getNote(int voice) {
+		return noteOfVoice[voice];
+	}
+
+	/**
+	 * @return The count of voice numbers in use.
+	 */
+	public int getActiveCount() {
+		return noteOfVoice.length - freeCount;
+	}
+
+	/**
+	 * @return The count of unused voice numbers.
+	 */
+	public int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * @return The count of voice numbers to allocate from.
+	 */
+	public int getMaxVoices() {
+		return noteOfVoice.length;
+	}
+
+	/**
+	 * @return The count of note numbers which can get a voice, from 0 to getNoteCount()-1.
+	 */
+	public int getNoteCount() {
+		return voiceOfNote.length;
+	}
+}
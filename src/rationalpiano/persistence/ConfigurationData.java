@@ -14,19 +14,25 @@ import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.logging.Logger;
 
+import rationalpiano.noteout.INoteOutput.bundlingModes;
+import rationalpiano.noteout.INoteOutput.oscBackends;
 import rationalpiano.noteout.INoteOutput.outputModes;
+import rationalpiano.noteout.INoteOutput.overflowPolicies;
 import rationalpiano.persistence.annotations.FieldDescription;
 import rationalpiano.persistence.annotations.FieldDoubleMinMax;
 import rationalpiano.persistence.annotations.FieldFloatMinMax;
 import rationalpiano.persistence.annotations.FieldIntegerMinMax;
+import rationalpiano.voicemanagement.FadeTracking.envelopeShapes;
+import rationalpiano.voicemanagement.IVoices.stealingPolicies;
+import rationalpiano.voicemanagement.ITickable.tickModes;
 
 /**
  * Holds all configuration parameters needed at the initialization phase.
  * Provides methods to read and write that configuration from/to a human readable text file.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-29
- * @version 1.051
+ * @date 2026-10-19
+ * @version 1.25
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class ConfigurationData {
@@ -51,28 +57,85 @@ public class ConfigurationData {
 	@FieldFloatMinMax(min=1, max=200)
 	public Float framerate = Float.valueOf(60);
 	
-	@FieldDescription(description="count of notes to display; the maximum MIDI note number is 127, so notestart + notecount - 1 should be smaller than 128")
-	@FieldIntegerMinMax(min=1, max=128)
+	@FieldDescription(description="FRAME = calculate voices and consonances once per drawn frame; SCHEDULER = calculate them on an own thread at the control rate, independent of the drawing; PIPELINED = calculate the next frame on an own thread while the current one gets drawn, adding one frame of latency")
+	public tickModes tickMode = tickModes.FRAME;
+	
+	@FieldDescription(description="calculations of voices and consonances per second in SCHEDULER tick mode")
+	@FieldFloatMinMax(min=1, max=1000)
+	public Float controlRate = Float.valueOf(100);
+	
+	@FieldDescription(description="count of notes to display; for MIDI input and output notestart + notecount - 1 should be smaller than 128 (keys outside get logged at startup, only MPE output plays them, at the nearest MIDI note), in EDO mode (edo != 12) several thousand notes are possible")
+	@FieldIntegerMinMax(min=1, max=10000)
 	public Integer notecount = 88;
 	
-	@FieldDescription(description="midi note number of the first note, 60 = C4; the maximum MIDI note number is 127, so notestart + notecount - 1 should be smaller than 128")
-	@FieldIntegerMinMax(min=0, max=127)
+	@FieldDescription(description="pitch index of the first note, which is the MIDI note number in 12TET, 60 = C4 in any EDO; for MIDI input and output notestart + notecount - 1 should be smaller than 128")
+	@FieldIntegerMinMax(min=0, max=10000)
 	public Integer notestart = 21;
 	
+	@FieldDescription(description="count of equal divisions of the octave (EDO) each note is apart from its neighbour, 12 = 12TET; ignored if a scala file is given")
+	@FieldIntegerMinMax(min=1, max=1200)
+	public Integer edo = 12;
+	
 	@FieldDescription(description="nonlinear distortion of the line width translation, 1 means no distortion, smaller values mean stronger distortion where the lines have a tendency to be more wide")
 	@FieldDoubleMinMax(min=0, max=1) // > 1 also possible, but not as useful
 	public Double lineBend = 0.25;
 	
-	@FieldDescription(description="one of several modes to select where to send the note messages to (MIDI and OSC)")
+	@FieldDescription(description="one of several modes to select where to send the note messages to (MIDI and OSC); MPE = MIDI with every note on its own channel, tuned just by pitch bends")
 	public outputModes outputMode = outputModes.NO_OUTPUT;
 	
 	@FieldDescription(description="UDP port to send OSC voice messages to")
 	@FieldIntegerMinMax(min=0, max=65535)
 	public Integer oscport = 12000;
 	
+	@FieldDescription(description="OFF = send every OSC message in its own packet; FRAME = send the messages of each frame in one timetagged bundle; WINDOW = send the messages within oscBundleWindow after the first one in one timetagged bundle")
+	public bundlingModes oscBundling = bundlingModes.OFF;
+	
+	@FieldDescription(description="maximum time in milliseconds an OSC message waits in a bundle before it gets sent, also the latency of the bundles' timetags")
+	@FieldIntegerMinMax(min=1, max=1000)
+	public Integer oscBundleWindow = 10;
+	
+	@FieldDescription(description="SYNOSCP5 = encode and send OSC messages with the synOscP5 library; DIRECT = encode them into a reused buffer and send them via a non-blocking channel, producing the same packets without allocating per message")
+	public oscBackends oscBackend = oscBackends.SYNOSCP5;
+	
+	@FieldDescription(description="count of SYNoscopy voice numbers to use for the sounding notes; notes beyond that don't get sent via OSC")
+	@FieldIntegerMinMax(min=1, max=1024)
+	public Integer oscVoices = 128;
+	
+	@FieldDescription(description="count of note messages which can be queued for sending on a separate thread, so slow MIDI or OSC output doesn't stall input and drawing; 0 sends on the calling thread, unless voices get stolen (polyphony), retuned (justIntonation) or their consonance is sent (consonanceOutput), which send from the ticking thread besides the input and need the queue (1024 then)")
+	@FieldIntegerMinMax(min=0, max=65536)
+	public Integer outputQueueSize = 1024;
+	
+	@FieldDescription(description="what to do when the output queue is full: BLOCK = wait for room; DROP_OLDEST = drop the oldest queued message; COALESCE = keep only the latest retune and consonance value per note, note on/off and sustain keep their order and wait for room")
+	public overflowPolicies outputOverflow = overflowPolicies.BLOCK;
+	
+	@FieldDescription(description="semicolon separated destinations to send the note messages to instead of outputMode, each with its own queue of outputQueueSize (1024 if 0) and own sending thread so a slow one can't delay the others, eg. 'osc:12000; osc:9000; midi:1:IAC; midistream:2:/dev/midi1' (midi:<channel>:<part of the device name>, midistream:<channel>:<path of the raw MIDI file>); a full queue drops its oldest message; empty = use outputMode")
+	public String outputDestinations = "";
+	
 	@FieldDescription(description="a part of the wanted midi output device's name where to send the note messages to")
 	public String midiOutputDevice = "java";
 	
+	@FieldDescription(description="path of a file (eg. a serial MIDI interface) to write the raw MIDI bytes to, packed with running status, instead of the midi output device; empty = use the device")
+	public String midiOutputStream = "";
+	
+	@FieldDescription(description="count of MPE member channels after the master channel 0 in MPE output mode, one per sounding note")
+	@FieldIntegerMinMax(min=1, max=15)
+	public Integer mpeChannels = 15;
+	
+	@FieldDescription(description="pitch bend range of the MPE member channels in semitones, sent to the synth at startup")
+	@FieldIntegerMinMax(min=1, max=96)
+	public Integer mpeBendRange = 48;
+	
+	@FieldDescription(description="folder to record every session to as a Standard MIDI File, named after the time of the start; empty = don't record")
+	public String recordFolder = "";
+	
+	@FieldDescription(description="format of the recorded Standard MIDI Files: 0 = one track; 1 = a tempo track and a note track")
+	@FieldIntegerMinMax(min=0, max=1)
+	public Integer recordFormat = 1;
+	
+	@FieldDescription(description="count of recorded note events which can wait for being written to the file; events beyond that get dropped, the memory used doesn't grow with the length of the session")
+	@FieldIntegerMinMax(min=1024, max=1048576)
+	public Integer recordBufferSize = 65536;
+	
 	@FieldDescription(description="a part of the wanted midi input device's name where to get note messages from")
 	public String midiInputDevice = "";
 	
@@ -99,6 +162,31 @@ public class ConfigurationData {
 	@FieldDescription(description="true = hold the sustain after attack + decay; false = no sustain, release starts right after attack phase (pluck mode)")
 	public Boolean holdSustain = true;
 	
+	@FieldDescription(description="shape of the attack, decay and release curves")
+	public envelopeShapes envelopeShape = envelopeShapes.LINEAR;
+	
+	@FieldDescription(description="how much faster the attack gets with the velocity: the attack time is divided by 1 + attackVelocityTracking * velocity; 0 = same attack for all velocities")
+	@FieldDoubleMinMax(min=0, max=10)
+	public Double attackVelocityTracking = 0.;
+	
+	@FieldDescription(description="how much faster decay and release get towards higher pitches: their times are halved every 12 / keyTracking semitones of the tuning's pitch above middle C and doubled below; 0 = same times for all keys")
+	@FieldDoubleMinMax(min=0, max=4)
+	public Double keyTracking = 0.;
+	
+	@FieldDescription(description="maximum count of simultaneously sounding voices, 0 = no limit; when the limit is reached, a new voice steals an active one")
+	@FieldIntegerMinMax(min=0, max=10000)
+	public Integer polyphony = 0;
+	
+	@FieldDescription(description="which voice to steal when the polyphony limit is reached: the oldest, the quietest, or the most dissonant one")
+	public stealingPolicies stealingPolicy = stealingPolicies.OLDEST;
+	
+	@FieldDescription(description="count of independent voice sets for the MIDI input channels; MIDI channels beyond this count share the voice sets (channel modulo channels), 1 = all channels play on the same voices")
+	@FieldIntegerMinMax(min=1, max=16)
+	public Integer channels = 1;
+	
+	@FieldDescription(description="comma separated weights of the channels' volumes in the consonance calculation, eg. '1, 0.5'; channels without a weight get weight 1")
+	public String channelWeights = "";
+	
 	@FieldDescription(description="maximum dissonance to calculate a fraction for, higher values take more time to initialize")
 	@FieldIntegerMinMax(min=1, max=Integer.MAX_VALUE)
 	public Integer maxfrac = 16*16;
@@ -107,6 +195,37 @@ public class ConfigurationData {
 	@FieldDoubleMinMax(min=0.01, max=1)
 	public Double bellWidth = 0.25;
 	
+	@FieldDescription(description="Scala scale file (.scl) to tune the keys with; empty = 12TET; pressing F5 loads the scale and keyboard mapping files again while playing, eg. after editing them")
+	public String scalaFile = "";
+	
+	@FieldDescription(description="Scala keyboard mapping file (.kbm) which maps the keys to the degrees of the scala scale file; empty = map C4 to the first degree and all other keys linearly")
+	public String keyboardMappingFile = "";
+	
+	@FieldDescription(description="name of the consonance engine to use (toeplitz for equal tempered tunings, matrix for scala tunings, compact-float or compact-fixed for equal tempered tunings on hosts with a weak floating point unit, or other installed engines); auto = benchmark all engines at startup and choose the fastest one")
+	public String consonanceEngine = "auto";
+	
+	@FieldDescription(description="true = retune the sounding voices towards just intervals and send the pitch offsets to the note output: as the voice pitch via OSC and as the pitch bend of each note's own channel in MPE mode; plain MIDI output isn't retuned, as a pitch bend would detune all notes of the channel")
+	public Boolean justIntonation = false;
+	
+	@FieldDescription(description="true = stream the consonance of each sounding note to the note output as a modulation source (MIDI polyphonic aftertouch, MPE channel pressure or controller, OSC voice parameter)")
+	public Boolean consonanceOutput = false;
+	
+	@FieldDescription(description="minimum change of a note's consonance since it was last sent to send it again")
+	@FieldDoubleMinMax(min=0, max=1)
+	public Double consonanceThreshold = 0.01;
+	
+	@FieldDescription(description="maximum count of consonance messages per second, so they don't swamp the MIDI link")
+	@FieldIntegerMinMax(min=1, max=100000)
+	public Integer consonanceRate = 500;
+	
+	@FieldDescription(description="MIDI controller to send the consonance on in MPE mode, where every note has its own channel; -1 = send it as channel pressure of each note's channel; plain MIDI output always sends polyphonic aftertouch of each note, as one controller for the whole channel would jump between the values of unrelated notes")
+	@FieldIntegerMinMax(min=-1, max=127)
+	public Integer consonanceController = -1;
+	
+	@FieldDescription(description="number of the SYNoscopy voice parameter to send the consonance on via OSC")
+	@FieldIntegerMinMax(min=0, max=127)
+	public Integer consonanceParameter = 1;
+	
 	@FieldDescription(description="port to listen at for TUIO cursor messages")
 	@FieldIntegerMinMax(min=0, max=65535)
 	public Integer tuioPort = 3333; //3333 is the standard port for tuio
@@ -231,8 +350,8 @@ public class ConfigurationData {
 				
 				if(f.getType().isEnum()){
 					comment += ", possible values: ";
-					for(outputModes om : outputModes.values()){
-						comment += om.toString() + ", ";
+					for(Object constant : f.getType().getEnumConstants()){
+						comment += constant.toString() + ", ";
 					}
 					comment = comment.substring(0, comment.length() - 2);
 				}
@@ -306,7 +425,7 @@ public class ConfigurationData {
 	/**
 	 * Sets the field of this object to the given value.
 	 * The method does nothing when either the field does not exist, or the value can't be parsed.
-	 * @param field Field of this Class to access. Types can be: Boolean, Integer, Float, Double, String, outputModes; no native types! does not work when Class of the type hasn't got the method valueOf().
+	 * @param field Field of this Class to access. Types can be: Boolean, Integer, Float, Double, String, Enums; no native types! does not work when Class of the type hasn't got the method valueOf().
 	 * @param value The value to set the given field to.
 	 */
 	private void setField(String field, String value) {
@@ -1,10 +1,15 @@
 package rationalpiano.run;
 
+import java.awt.event.KeyEvent;
+import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import processing.core.PApplet;
+import rationalpiano.consonance.DissonanceCurve;
 import rationalpiano.graphic.GraphicControls;
 import rationalpiano.graphic.IDrawable;
 import rationalpiano.graphic.IGraphicControls;
@@ -12,12 +17,24 @@ import rationalpiano.input.InputDevs;
 import rationalpiano.input.IKeyInput;
 import rationalpiano.input.IMouseInput;
 import rationalpiano.logging.RationalLogger;
+import rationalpiano.noteout.AsyncNoteOutput;
+import rationalpiano.noteout.ConsonanceStream;
+import rationalpiano.noteout.MidiFileRecorder;
+import rationalpiano.noteout.MpeBendTable;
+import rationalpiano.noteout.MultiNoteOutput;
 import rationalpiano.noteout.NoteOutput;
 import rationalpiano.noteout.INoteOutput;
+import rationalpiano.noteout.INoteOutput.outputModes;
 import rationalpiano.persistence.ConfigurationData;
+import rationalpiano.tuning.EqualTemperament;
+import rationalpiano.tuning.ITuning;
+import rationalpiano.tuning.ScalaTuning;
+import rationalpiano.voicemanagement.ControlScheduler;
+import rationalpiano.voicemanagement.PipelineWorker;
 import rationalpiano.voicemanagement.Voices;
 import rationalpiano.voicemanagement.IVoices;
 import rationalpiano.voicemanagement.ITickable;
+import rationalpiano.voicemanagement.ITickable.tickModes;
 
 /**
  * The main class for the RationalPiano application.
@@ -25,8 +42,8 @@ import rationalpiano.voicemanagement.ITickable;
  * Serves all needed functions of PApplet and forwards such method calls to generated objects which are responsible for dedicated functions like input, note output, graphic controls and voice management.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-30
- * @version 1.06
+ * @date 2026-10-19
+ * @version 1.27
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class RationalPiano extends PApplet {
@@ -34,6 +51,10 @@ public class RationalPiano extends PApplet {
 	private static final long serialVersionUID = 1L;
 	
 	private INoteOutput noteoutput;
+	private NoteOutput mpeoutput; //the output when in MPE mode, whose pitch bends follow the tuning
+	private AsyncNoteOutput asyncoutput;
+	private MultiNoteOutput multioutput;
+	private MidiFileRecorder recorder;
 	private IGraphicControls graphiccontrols;
 	private IDrawable graphicdraw;
 	private InputDevs input;
@@ -41,9 +62,15 @@ public class RationalPiano extends PApplet {
 	private IMouseInput mouseInput;
 	private IVoices voices;
 	private ITickable voicestick;
+	private ControlScheduler scheduler;
+	private PipelineWorker pipeline;
+	
+	private volatile boolean userInput = true; //redraw the GUI, also for the first frame
 	
 	private static ConfigurationData config;
 	private static final String saveFileName = "RationalPianoSettings.cfg";
+	private static final int DEFAULT_OUTPUT_QUEUE_SIZE = 1024;
+	private static final String tuningCacheFolder = "RationalPianoTuningCache";
 	
 	private static final Logger logger = Logger.getLogger(RationalPiano.class.getName());
 	private static Level loglevel = Level.CONFIG;
@@ -94,10 +121,73 @@ public class RationalPiano extends PApplet {
 		graphiccontrols = new GraphicControls(this, config, config.fullscreen, config.vertical_scaling, config.width, config.height, config.framerate, config.notecount, config.notestart, config.lineBend, config.backgroundColorHue, config.backgroundColorSaturation, config.backgroundColorBrightness, config.lineColorHueInactive, config.lineColorHueActive, config.lineColorSaturation, config.lineColorBrightness);
 		graphicdraw = graphiccontrols;
 
-		noteoutput = new NoteOutput(this, config.outputMode, config.oscport, config.midiOutputDevice, config.midiChannel);
+		ITuning tuning = loadTuning();
+		boolean outputOn = (config.outputMode != outputModes.NO_OUTPUT);
+		multioutput = createOutputDestinations();
+		checkKeyRange(outputOn || multioutput != null);
+		if(multioutput != null){
+			multioutput.start();
+			noteoutput = multioutput;
+			outputOn = true;
+		}else{
+			NoteOutput output = new NoteOutput(this, config.outputMode, config.oscport, config.oscBundling, config.oscBundleWindow, config.oscBackend, config.oscVoices, config.midiOutputDevice, config.midiOutputStream, config.midiChannel, config.consonanceController, config.consonanceParameter, config.mpeChannels, createMpeBendTable(tuning));
+			if(config.outputMode == outputModes.MPE){
+				mpeoutput = output;
+			}
+			noteoutput = output;
+			int queueSize = config.outputQueueSize;
+			if(queueSize == 0 && outputOn && (config.polyphony > 0 || config.justIntonation || config.consonanceOutput)){
+				//the ticking thread sends note offs of stolen voices, retunes or consonances while the input thread sends the notes, so the output needs a queue to put them in order
+				logger.warning("Stolen voices, just intonation and consonance output send from the ticking thread as well, queueing the output with " + DEFAULT_OUTPUT_QUEUE_SIZE + " messages although outputQueueSize is 0");
+				queueSize = DEFAULT_OUTPUT_QUEUE_SIZE;
+			}
+			if(queueSize > 0 && outputOn){
+				asyncoutput = new AsyncNoteOutput(noteoutput, queueSize, config.outputOverflow);
+				asyncoutput.start();
+				noteoutput = asyncoutput;
+			}
+		}
+
+		if(!config.recordFolder.trim().equals("")){
+			File recordFile = new File(config.recordFolder.trim(), "RationalPiano-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".mid");
+			recorder = new MidiFileRecorder(noteoutput, recordFile, config.recordFormat, config.recordBufferSize);
+			try{
+				recorder.start();
+				noteoutput = recorder;
+			}catch(IOException e){
+				logger.severe("Couldn't create '" + recordFile + "', not recording, error: " + e.toString());
+				recorder = null;
+			}
+		}
 
-		voices = new Voices(this, graphiccontrols, config.framerate, config.attack, config.decay, config.sustain, config.release, config.holdSustain, config.maxfrac, config.bellWidth);
-		voicestick = voices;
+		Voices voicemanager = new Voices(this, graphiccontrols, config.attack, config.decay, config.sustain, config.release, config.holdSustain, config.envelopeShape, config.attackVelocityTracking, config.keyTracking, config.polyphony, config.stealingPolicy, config.channels, parseChannelWeights(), config.maxfrac, config.bellWidth, tuning, tuningCacheFolder, config.consonanceEngine, noteoutput, config.justIntonation);
+		if(config.consonanceOutput && outputOn){
+			voicemanager.setConsonanceStream(new ConsonanceStream(noteoutput, config.notestart, config.notecount, config.consonanceThreshold, config.consonanceRate));
+		}
+		if(mpeoutput != null){
+			voicemanager.setTuningOutput(mpeoutput);
+		}
+		voices = voicemanager;
+		voicestick = voicemanager;
+		
+		if(config.tickMode == tickModes.SCHEDULER){
+			scheduler = new ControlScheduler(voicestick, config.controlRate, new Runnable() {
+				@Override
+				public void run() {
+					loop(); //a new state to draw was published
+				}
+			});
+			voicestick.setWakeUpHandler(new Runnable() {
+				@Override
+				public void run() {
+					scheduler.wakeUp();
+				}
+			});
+			scheduler.start();
+		}else if(config.tickMode == tickModes.PIPELINED){
+			pipeline = new PipelineWorker(voicestick);
+			pipeline.start();
+		}
 		
 		input = new InputDevs(this, voices, noteoutput, graphiccontrols, config.tuioPort, config.midiInputDevice);
 		keyInput = input;
@@ -110,13 +200,183 @@ public class RationalPiano extends PApplet {
 		logger.info("Ready");
 	}
 
+	/**
+	 * Logs which of the configured keys can't be played via MIDI or get no OSC voice, as these are addressed by MIDI note numbers 0 to 127; in MPE mode every key gets played as the MIDI note nearest to its pitch instead.
+	 * @param outputOn true if note messages get sent at all.
+	 */
+	private void checkKeyRange(boolean outputOn) {
+		int lowest = config.notestart;
+		int highest = config.notestart + config.notecount - 1;
+		if(lowest >= 0 && highest <= 127){
+			return;
+		}
+		String outside = (lowest < 0 && highest > 127) ? lowest + " to -1 and 128 to " + highest : (lowest < 0) ? lowest + " to " + Math.min(-1, highest) : Math.max(128, lowest) + " to " + highest;
+		logger.warning("Keys " + outside + " are outside the MIDI note numbers 0 to 127, they can't be played via MIDI input");
+		if(outputOn && config.outputMode != outputModes.MPE){
+			logger.warning("Keys " + outside + " won't be sent via MIDI and get no OSC voice; the MPE output mode plays them at the nearest MIDI note");
+		}
+	}
+
+	/**
+	 * Loads the configured Scala tuning.
+	 * @return The Scala tuning, or the configured equal division of the octave if no scala file is configured or it couldn't be loaded.
+	 */
+	private ITuning loadTuning() {
+		if(config.scalaFile.equals("")){
+			return new EqualTemperament(config.edo);
+		}
+		
+		try{
+			return new ScalaTuning(config.scalaFile, config.keyboardMappingFile);
+		}catch(IOException e){
+			logger.severe("Couldn't load Scala tuning, error: " + e.toString() + "\n" + "Using " + config.edo + "-EDO instead");
+			return new EqualTemperament(config.edo);
+		}
+	}
+
+	/**
+	 * Parses the configured comma separated channel weights.
+	 * @return The weight of each channel in order; entries which aren't numbers get weight 1.
+	 */
+	private double[] parseChannelWeights() {
+		if(config.channelWeights.trim().equals("")){
+			return null;
+		}
+		
+		String[] parts = config.channelWeights.split(",");
+		double[] weights = new double[parts.length];
+		for(int channel = 0; channel < parts.length; channel++){
+			try{
+				weights[channel] = Math.max(0, Double.parseDouble(parts[channel].trim()));
+			}catch(NumberFormatException e){
+				logger.warning("Couldn't parse weight '" + parts[channel] + "' of channel " + channel + ", using 1");
+				weights[channel] = 1;
+			}
+		}
+		return weights;
+	}
+
+	/**
+	 * @param tuning The tuning which maps the keys to pitches.
+	 * @return The pitch bends for MPE output; null if the output mode isn't MPE.
+	 */
+	private MpeBendTable createMpeBendTable(ITuning tuning) {
+		if(config.outputMode != outputModes.MPE){
+			return null;
+		}
+		return new MpeBendTable(new DissonanceCurve(config.maxfrac, config.bellWidth), tuning, config.mpeBendRange, config.notestart + config.notecount);
+	}
+
+	/**
+	 * Creates an output for each of the configured semicolon separated output destinations.
+	 * @return The fan-out to all destinations, or null if no destination is configured or none could be parsed.
+	 */
+	private MultiNoteOutput createOutputDestinations() {
+		if(config.outputDestinations.trim().equals("")){
+			return null;
+		}
+		
+		String[] entries = config.outputDestinations.split(";");
+		INoteOutput[] outputs = new INoteOutput[entries.length];
+		String[] names = new String[entries.length];
+		int count = 0;
+		for(String entry : entries){
+			entry = entry.trim();
+			if(entry.equals("")){
+				continue;
+			}
+			String[] parts = entry.split(":", 3);
+			try{
+				if(parts[0].equals("osc") && parts.length == 2){
+					int port = Integer.parseInt(parts[1].trim());
+					outputs[count] = new NoteOutput(this, outputModes.OSC_ONLY, port, config.oscBundling, config.oscBundleWindow, config.oscBackend, config.oscVoices, "", "", 0, config.consonanceController, config.consonanceParameter, config.mpeChannels, null);
+				}else if((parts[0].equals("midi") || parts[0].equals("midistream")) && parts.length == 3){
+					int channel = Integer.parseInt(parts[1].trim());
+					if(channel < 0 || channel > 15){
+						throw new NumberFormatException("channel " + channel + " is not within 0 and 15");
+					}
+					String device = parts[0].equals("midi") ? parts[2].trim() : config.midiOutputDevice;
+					String stream = parts[0].equals("midistream") ? parts[2].trim() : "";
+					outputs[count] = new NoteOutput(this, outputModes.MIDI_ONLY, 0, config.oscBundling, config.oscBundleWindow, config.oscBackend, config.oscVoices, device, stream, channel, config.consonanceController, config.consonanceParameter, config.mpeChannels, null);
+				}else{
+					logger.warning("Unknown output destination '" + entry + "', ignoring it");
+					continue;
+				}
+			}catch(NumberFormatException e){
+				logger.warning("Couldn't parse output destination '" + entry + "', ignoring it: " + e.getMessage());
+				continue;
+			}
+			names[count] = entry;
+			count++;
+		}
+		if(count == 0){
+			return null;
+		}
+		
+		INoteOutput[] destinations = new INoteOutput[count];
+		String[] destinationNames = new String[count];
+		System.arraycopy(outputs, 0, destinations, 0, count);
+		System.arraycopy(names, 0, destinationNames, 0, count);
+		int queueSize = (config.outputQueueSize > 0) ? config.outputQueueSize : DEFAULT_OUTPUT_QUEUE_SIZE;
+		return new MultiNoteOutput(destinations, destinationNames, queueSize, config.outputOverflow);
+	}
+
 	/**
 	 * Periodically called with interval of the framerate.
+	 * In FRAME tick mode, ticks the voices first; in SCHEDULER tick mode, the voices get ticked by the scheduler thread and only their latest published state is read here.
+	 * In PIPELINED tick mode, the state calculated while the last frame was drawn is taken and the calculation of the next one gets started on the pipeline worker before drawing.
+	 * Only redraws if the voices published a new state or the user interacted with the GUI.
+	 * Stops the loop when there is nothing to do; it gets restarted by the voices (or the scheduler) on new states or by mouse and keyboard input.
 	 */
 	@Override
 	public void draw() {
-		voicestick.tick();
-		graphicdraw.draw();
+		if(scheduler == null && pipeline == null){
+			voicestick.tick();
+		}
+		
+		boolean updated = voices.updateGraphics();
+		
+		if(pipeline != null){
+			//isIdle() is only asked while the worker isn't ticking, and only this thread triggers it, so the end of the last tick is visible here
+			if(!pipeline.isBusy() && voicestick.isIdle() && !voices.isGraphicsUpdateAvailable()){
+				noLoop();
+				//input might have arrived right before noLoop(), so check again
+				if(!voicestick.isIdle()){
+					loop();
+				}
+			}else{
+				pipeline.trigger();
+			}
+		}
+		
+		if(updated || userInput){
+			userInput = false;
+			graphicdraw.draw();
+		}
+		
+		if(scheduler == null && pipeline == null){
+			if(voicestick.isIdle()){
+				noLoop();
+				//input might have arrived right before noLoop(), so check again
+				if(!voicestick.isIdle()){
+					loop();
+				}
+			}
+		}else if(scheduler != null && !updated){
+			noLoop();
+			//a new state might have been published right before noLoop(), so check again
+			if(voices.isGraphicsUpdateAvailable()){
+				loop();
+			}
+		}
+	}
+	
+	/**
+	 * Makes sure the next frame gets drawn and the loop runs, as the GUI might need to react to user input.
+	 */
+	private void wakeUp() {
+		userInput = true;
+		loop();
 	}
 
 	/**
@@ -124,6 +384,7 @@ public class RationalPiano extends PApplet {
 	 */
 	@Override
 	public void mousePressed() {
+		wakeUp();
 		mouseInput.mousePressed(mouseX,mouseY,mouseButton);
 	}
 	
@@ -132,24 +393,57 @@ public class RationalPiano extends PApplet {
 	 */
 	@Override
 	public void mouseReleased() {
+		wakeUp();
 		mouseInput.mouseReleased(mouseX,mouseY,mouseButton);
 	}
 	
+	/**
+	 * Called when the mouse is moved without a pressed button.
+	 */
+	@Override
+	public void mouseMoved() {
+		wakeUp();
+	}
+	
+	/**
+	 * Called when the mouse is moved with a pressed button.
+	 */
+	@Override
+	public void mouseDragged() {
+		wakeUp();
+	}
+	
 	/**
 	 * Called when any keyboard key is pressed.
 	 * When a key is held down this will get called periodically with the OS's setting for automatic key repeat.
 	 * But in this case keyReleased() won't get called inbetween. 
+	 * F5 reloads the tuning, eg. after the Scala files were edited.
 	 */
 	@Override
 	public void keyPressed() {
+		wakeUp();
+		if(key == CODED && keyCode == KeyEvent.VK_F5){
+			reloadTuning();
+			return;
+		}
 		keyInput.keyPressed(key);
 	}
 	
+	/**
+	 * Loads the configured tuning again and switches the voices and the MPE output to it; the new consonances and pitch bends get calculated in the background, so playing goes on meanwhile.
+	 */
+	private void reloadTuning() {
+		ITuning tuning = loadTuning();
+		logger.info("Reloading tuning '" + tuning.getDescription() + "'");
+		voices.setTuning(tuning);
+	}
+	
 	/**
 	 * Called when any keyboard key is released.
 	 */
 	@Override
 	public void keyReleased() {
+		wakeUp();
 		keyInput.keyReleased(key);
 	}
 
@@ -160,6 +454,22 @@ public class RationalPiano extends PApplet {
 	public void stop() {
 		logger.info("Exiting");
 		
+		if(scheduler != null){
+			scheduler.stop();
+		}
+		if(pipeline != null){
+			pipeline.stop();
+		}
+		if(recorder != null){
+			recorder.stop();
+		}
+		if(asyncoutput != null){
+			asyncoutput.stop();
+		}
+		if(multioutput != null){
+			multioutput.stop();
+		}
+		
 		super.stop();
 	}
 	
@@ -0,0 +1,244 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.AsyncNoteOutput;
+import rationalpiano.noteout.INoteOutput;
+import rationalpiano.noteout.INoteOutput.overflowPolicies;
+
+/**
+ * Checks that AsyncNoteOutput passes on all calls in order, doesn't block the callers of a stalled output and handles a full queue according to its overflow policy
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.3
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class AsyncNoteOutputTest {
+
+	private static final int PRODUCERS = 4;
+	private static final int CALLS = 20000;
+
+	/**
+	 * Records the calls, optionally waiting for a latch before each one to simulate a stalled driver.
+	 */
+	private static class RecordingOutput implements INoteOutput {
+		public ArrayList<int[]> noteOns = new ArrayList<int[]>();
+		public double[] cents = new double[128];
+		public double sustain = -1;
+		public ArrayList<String> ordered = new ArrayList<String>(); //note offs and sustains
+		public boolean[] sounding = new boolean[128];
+		public int calls = 0;
+		public volatile CountDownLatch stall = null;
+
+		private void call() {
+			calls++;
+			CountDownLatch latch = stall;
+			if(latch != null){
+				try{
+					latch.await();
+				}catch(InterruptedException e){
+				}
+			}
+		}
+
+		@Override
+		public void noteOn(int midiNoteNumber, double velocity) {
+			call();
+			noteOns.add(new int[]{midiNoteNumber, (int)velocity});
+			sounding[midiNoteNumber] = true;
+		}
+
+		@Override
+		public void noteOff(int midiNoteNumber) {
+			call();
+			ordered.add("off " + midiNoteNumber);
+			sounding[midiNoteNumber] = false;
+		}
+
+		@Override
+		public void sustain(double sustain) {
+			call();
+			this.sustain = sustain;
+			ordered.add("sustain " + sustain);
+		}
+
+		@Override
+		public void retune(int midiNoteNumber, double cents) {
+			call();
+			this.cents[midiNoteNumber] = cents;
+		}
+
+		@Override
+		public void consonance(int midiNoteNumber, double consonance) {
+			call();
+		}
+
+		@Override
+		public void flush() {
+			call();
+		}
+	}
+
+	@Test
+	public void testBlockKeepsOrder() throws Exception {
+		RecordingOutput recording = new RecordingOutput();
+		final AsyncNoteOutput async = new AsyncNoteOutput(recording, 8, overflowPolicies.BLOCK);
+		async.start();
+
+		Thread[] producers = new Thread[PRODUCERS];
+		for(int p = 0; p < PRODUCERS; p++){
+			final int producer = p;
+			producers[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int call = 0; call < CALLS; call++){
+						async.noteOn(producer, call); //the velocity carries the sequence number
+					}
+				}
+			});
+			producers[p].start();
+		}
+		for(Thread producer : producers){
+			producer.join();
+		}
+		waitForSent(async, PRODUCERS * CALLS);
+
+		int[] next = new int[PRODUCERS];
+		for(int[] noteOn : recording.noteOns){
+			assertEquals(next[noteOn[0]]++, noteOn[1]);
+		}
+		for(int p = 0; p < PRODUCERS; p++){
+			assertEquals(CALLS, next[p]);
+		}
+		assertEquals(0, async.getDroppedCount());
+		System.out.println("BLOCK: " + async.getSentCount() + " calls in order, " + async.getBlockedCount() + " waits, maximum queue depth " + async.getMaxQueueDepth() + ", average latency " + (long)async.getAverageLatency() + " ns");
+		async.stop();
+	}
+
+	@Test
+	public void testStalledOutput() throws Exception {
+		RecordingOutput recording = new RecordingOutput();
+		recording.stall = new CountDownLatch(1);
+		AsyncNoteOutput async = new AsyncNoteOutput(recording, 1024, overflowPolicies.BLOCK);
+		async.start();
+
+		//the output hangs in its first call, the callers must not
+		long start = System.nanoTime();
+		for(int call = 0; call < 1000; call++){
+			async.noteOn(60, call);
+		}
+		long duration = System.nanoTime() - start;
+		assertTrue(duration < 100 * 1000 * 1000);
+
+		recording.stall.countDown();
+		recording.stall = null;
+		waitForSent(async, 1000);
+		assertEquals(1000, recording.noteOns.size());
+		System.out.println("Queued 1000 calls to a stalled output in " + duration / 1000 + " us");
+		async.stop();
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		RecordingOutput recording = new RecordingOutput();
+		recording.stall = new CountDownLatch(1);
+		AsyncNoteOutput async = new AsyncNoteOutput(recording, 16, overflowPolicies.DROP_OLDEST);
+		async.start();
+
+		for(int call = 0; call < 1000; call++){
+			async.noteOn(60, call);
+		}
+		recording.stall.countDown();
+		recording.stall = null;
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(async.getSentCount() + async.getDroppedCount() < 1000 && System.currentTimeMillis() < deadline){
+			Thread.sleep(1);
+		}
+		assertEquals(1000, async.getSentCount() + async.getDroppedCount());
+		assertTrue(async.getDroppedCount() > 0);
+		//the newest calls survive
+		assertEquals(999, recording.noteOns.get(recording.noteOns.size() - 1)[1]);
+		System.out.println("DROP_OLDEST: " + async.getSentCount() + " passed on, " + async.getDroppedCount() + " dropped");
+		async.stop();
+	}
+
+	@Test
+	public void testDropOldestKeepsNoteOffs() throws Exception {
+		RecordingOutput recording = new RecordingOutput();
+		recording.stall = new CountDownLatch(1);
+		AsyncNoteOutput async = new AsyncNoteOutput(recording, 16, overflowPolicies.DROP_OLDEST, "NoteOutputSender", true);
+		async.start();
+
+		for(int call = 0; call < 1000; call++){
+			async.noteOn(60 + call % 12, 1);
+			async.noteOff(60 + call % 12);
+		}
+		recording.stall.countDown();
+		recording.stall = null;
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(async.getSentCount() + async.getDroppedCount() < 2000 && System.currentTimeMillis() < deadline){
+			Thread.sleep(1);
+		}
+		assertEquals(2000, async.getSentCount() + async.getDroppedCount());
+		assertTrue(async.getDroppedCount() > 0);
+		for(int note = 0; note < 128; note++){
+			assertFalse(recording.sounding[note]); //no note left hanging
+		}
+		System.out.println("DROP_OLDEST with note offs: " + async.getSentCount() + " passed on, " + async.getDroppedCount() + " dropped, " + recording.ordered.size() + " note offs");
+		async.stop();
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		RecordingOutput recording = new RecordingOutput();
+		recording.stall = new CountDownLatch(1);
+		AsyncNoteOutput async = new AsyncNoteOutput(recording, 16, overflowPolicies.COALESCE);
+		async.start();
+
+		async.noteOn(60, 1);
+		for(int call = 0; call <= 10000; call++){
+			async.retune(60 + call % 8, call);
+		}
+		recording.stall.countDown();
+		recording.stall = null;
+
+		//a pedal pressed before a note off has to hold the note, and a quick pedal change must not get lost
+		async.sustain(1);
+		async.noteOff(60);
+		async.sustain(0);
+		async.sustain(1);
+		async.flush();
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(recording.ordered.size() < 4 && System.currentTimeMillis() < deadline){
+			Thread.sleep(1);
+		}
+		Thread.sleep(10);
+
+		for(int note = 60; note < 68; note++){
+			assertEquals(10000 - (10000 - (note - 60)) % 8, recording.cents[note], 0);
+		}
+		assertEquals("[sustain 1.0, off 60, sustain 0.0, sustain 1.0]", recording.ordered.toString());
+		assertTrue(recording.calls < 1000);
+		assertTrue(async.getCoalescedCount() > 0);
+		System.out.println("COALESCE: 10007 calls reached the output as " + recording.calls + ", " + async.getCoalescedCount() + " coalesced");
+		async.stop();
+	}
+
+	private void waitForSent(AsyncNoteOutput async, long count) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while(async.getSentCount() < count && System.currentTimeMillis() < deadline){
+			Thread.sleep(1);
+		}
+		assertEquals(count, async.getSentCount());
+	}
+
+}
@@ -0,0 +1,118 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rationalpiano.consonance.CompactConsonance;
+import rationalpiano.consonance.Consonance;
+import rationalpiano.consonance.IConsonance;
+import rationalpiano.tuning.EqualTemperament;
+
+/**
+ * Checks the CompactConsonance engines against the documented maximum error and reports their memory footprint and speed compared to Consonance
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class CompactConsonanceTest {
+
+	private static final int NOTESTART = 21;
+	private static final int NOTECOUNT = 88;
+	private static final int MAXFRAC = 256;
+	private static final double BELLWIDTH = 0.25;
+	private static final int SETS = 64;
+	private static final int SOUNDING = 10;
+	private static final int TICKS = 20000;
+
+	private double[][] volumes = new double[SETS][NOTECOUNT];
+	private int[][] soundingKeys = new int[SETS][SOUNDING];
+
+	public CompactConsonanceTest() {
+		Random random = new Random(0);
+		for(int set = 0; set < SETS; set++){
+			for(int a = 0; a < SOUNDING; a++){
+				int key;
+				do{
+					key = random.nextInt(NOTECOUNT);
+				}while(volumes[set][key] != 0);
+				soundingKeys[set][a] = key;
+				volumes[set][key] = 0.01 + 0.99 * random.nextDouble();
+			}
+		}
+	}
+
+	@Test
+	public void testFloatError() {
+		Consonance reference = new Consonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH);
+		CompactConsonance compact = new CompactConsonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH, new EqualTemperament(), CompactConsonance.representations.FLOAT32);
+
+		double maxError = 0;
+		double[] expected = new double[NOTECOUNT];
+		double[] result = new double[NOTECOUNT];
+		for(int set = 0; set < SETS; set++){
+			reference.calculate(volumes[set], soundingKeys[set], SOUNDING, expected);
+			compact.calculate(volumes[set], soundingKeys[set], SOUNDING, result);
+			for(int key = 0; key < NOTECOUNT; key++){
+				maxError = Math.max(maxError, Math.abs(result[key] - expected[key]) / expected[key]);
+			}
+		}
+
+		System.out.println("FLOAT32 maximum relative error " + maxError + ", documented bound " + compact.getMaxError(SOUNDING));
+		assertTrue(maxError <= compact.getMaxError(SOUNDING));
+	}
+
+	@Test
+	public void testFixedError() {
+		Consonance reference = new Consonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH);
+		CompactConsonance compact = new CompactConsonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH, new EqualTemperament(), CompactConsonance.representations.FIXED_16_16);
+
+		double maxError = 0;
+		double[] expected = new double[NOTECOUNT];
+		double[] result = new double[NOTECOUNT];
+		for(int set = 0; set < SETS; set++){
+			reference.calculate(volumes[set], soundingKeys[set], SOUNDING, expected);
+			compact.calculate(volumes[set], soundingKeys[set], SOUNDING, result);
+			for(int key = 0; key < NOTECOUNT; key++){
+				maxError = Math.max(maxError, Math.abs(result[key] - expected[key]));
+			}
+		}
+
+		System.out.println("FIXED_16_16 maximum absolute error " + maxError + ", documented bound " + compact.getMaxError(SOUNDING));
+		assertTrue(maxError <= compact.getMaxError(SOUNDING));
+	}
+
+	@Test
+	public void testReport() {
+		IConsonance reference = new Consonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH);
+		CompactConsonance compactFloat = new CompactConsonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH, new EqualTemperament(), CompactConsonance.representations.FLOAT32);
+		CompactConsonance compactFixed = new CompactConsonance(NOTESTART, NOTECOUNT, MAXFRAC, BELLWIDTH, new EqualTemperament(), CompactConsonance.representations.FIXED_16_16);
+
+		System.out.println("Dissonance table: double " + (8 * NOTECOUNT) + " bytes, FLOAT32 " + compactFloat.getTableBytes() + " bytes, FIXED_16_16 " + compactFixed.getTableBytes() + " bytes");
+		System.out.println("double: " + timeTick(reference) + " ns per tick");
+		System.out.println("FLOAT32: " + timeTick(compactFloat) + " ns per tick");
+		System.out.println("FIXED_16_16: " + timeTick(compactFixed) + " ns per tick");
+	}
+
+	/**
+	 * @return The average duration of one calculation in nanoseconds, measured after a warmup of the same length.
+	 */
+	private long timeTick(IConsonance engine) {
+		double[] result = new double[NOTECOUNT];
+		long duration = 0;
+		for(int round = 0; round < 2; round++){
+			long start = System.nanoTime();
+			for(int tick = 0; tick < TICKS; tick++){
+				int set = tick % SETS;
+				engine.calculate(volumes[set], soundingKeys[set], SOUNDING, result);
+			}
+			duration = System.nanoTime() - start;
+		}
+		return duration / TICKS;
+	}
+
+}
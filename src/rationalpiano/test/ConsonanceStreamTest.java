@@ -0,0 +1,119 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.ConsonanceStream;
+import rationalpiano.noteout.INoteOutput;
+
+/**
+ * Checks the delta threshold and the rate cap of ConsonanceStream with a simulated clock
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class ConsonanceStreamTest {
+
+	private static final int NOTESTART = 21;
+	private static final int NOTECOUNT = 88;
+	private static final long TICK_NANOS = 1000L * 1000 * 1000 / 60;
+
+	/**
+	 * Remembers the last sent value of each note.
+	 */
+	private static class RecordingOutput implements INoteOutput {
+		public double[] values = new double[NOTESTART + NOTECOUNT];
+		public int messages = 0;
+
+		@Override
+		public void consonance(int midiNoteNumber, double consonance) {
+			values[midiNoteNumber] = consonance;
+			messages++;
+		}
+
+		@Override
+		public void noteOn(int midiNoteNumber, double velocity) {
+		}
+
+		@Override
+		public void noteOff(int midiNoteNumber) {
+		}
+
+		@Override
+		public void sustain(double sustain) {
+		}
+
+		@Override
+		public void retune(int midiNoteNumber, double cents) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+
+	@Test
+	public void testThreshold() {
+		RecordingOutput recording = new RecordingOutput();
+		ConsonanceStream stream = new ConsonanceStream(recording, NOTESTART, NOTECOUNT, 0.05, 100000);
+		double[] consonances = new double[NOTECOUNT];
+		int[] sounding = {10, 20};
+
+		consonances[10] = 0.5;
+		consonances[20] = 0.3;
+		stream.update(consonances, sounding, 2, 0);
+		assertEquals(2, recording.messages); //started keys get sent right away
+
+		consonances[10] = 0.54;
+		stream.update(consonances, sounding, 2, TICK_NANOS);
+		assertEquals(2, recording.messages);
+
+		consonances[10] = 0.56;
+		stream.update(consonances, sounding, 2, 2 * TICK_NANOS);
+		assertEquals(3, recording.messages);
+		assertEquals(0.56, recording.values[NOTESTART + 10], 0);
+
+		//a key which starts sounding again gets sent even without a change
+		stream.update(consonances, sounding, 1, 3 * TICK_NANOS);
+		stream.update(consonances, sounding, 2, 4 * TICK_NANOS);
+		assertEquals(4, recording.messages);
+	}
+
+	@Test
+	public void testRateCap() {
+		int rate = 300;
+		RecordingOutput recording = new RecordingOutput();
+		ConsonanceStream stream = new ConsonanceStream(recording, NOTESTART, NOTECOUNT, 0.001, rate);
+		double[] consonances = new double[NOTECOUNT];
+		int[] sounding = new int[20];
+		for(int a = 0; a < sounding.length; a++){
+			sounding[a] = 4 * a;
+		}
+
+		//every key changes a lot in every tick, so the cap decides
+		Random random = new Random(0);
+		int ticks = 600;
+		for(int tick = 0; tick < ticks; tick++){
+			for(int key : sounding){
+				consonances[key] = random.nextDouble();
+			}
+			stream.update(consonances, sounding, sounding.length, tick * TICK_NANOS);
+		}
+
+		double seconds = (ticks - 1) * TICK_NANOS / 1e9;
+		System.out.println(recording.messages + " messages in " + seconds + " s at a cap of " + rate + " per second, " + stream.getDeferredCount() + " deferred");
+		assertTrue(recording.messages <= rate * seconds + rate * 0.05 + 1);
+		assertTrue(recording.messages >= rate * seconds * 0.95);
+
+		//no key starves
+		for(int key : sounding){
+			assertTrue(recording.values[NOTESTART + key] != 0);
+		}
+	}
+
+}
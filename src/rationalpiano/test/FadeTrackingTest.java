@@ -0,0 +1,180 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import rationalpiano.voicemanagement.FadeTracking;
+import rationalpiano.voicemanagement.FadeTracking.envelopeShapes;
+import rationalpiano.tuning.EqualTemperament;
+import rationalpiano.voicemanagement.VoicePool;
+
+/**
+ * Compares the lookup table envelopes of FadeTracking with the directly calculated ones, checks velocity and key tracking and benchmarks the evaluation
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.2
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class FadeTrackingTest {
+
+	private static final int VOICES = 64;
+	private static final long START = 1000000000L;
+	private static final long STEP = 1000000L; //1ms
+	private static final int STEPS = 6000;
+
+	/**
+	 * Sets up voices with different velocities which all start at START.
+	 */
+	private VoicePool createPool() {
+		VoicePool pool = new VoicePool(VOICES);
+		for(int slot = 0; slot < VOICES; slot++){
+			pool.start(slot, 0.2 + 0.8 * slot / VOICES, (slot % 3) * 0.1, START);
+		}
+		return pool;
+	}
+	
+	/**
+	 * Releases the voices one after the other, so they get released during attack, decay and sustain; every fourth voice never gets released.
+	 */
+	private void releaseAt(FadeTracking fade, VoicePool pool, int step) {
+		int slot = step / 50;
+		if(step % 50 == 0 && slot < VOICES && slot % 4 != 0){
+			long now = START + step * STEP;
+			pool.release(slot, now, fade.getExactVelocity(pool, slot, now));
+		}
+	}
+
+	@Test
+	public void testTableError() {
+		for(envelopeShapes shape : envelopeShapes.values()){
+			for(boolean holdSustain : new boolean[]{true, false}){
+				FadeTracking fade = new FadeTracking(0.15, 0.5, 0.65, 1, holdSustain, shape);
+				VoicePool pool = createPool();
+
+				double maxError = 0;
+				for(int step = 0; step < STEPS; step++){
+					releaseAt(fade, pool, step);
+					long now = START + step * STEP;
+					for(int slot = 0; slot < VOICES; slot++){
+						maxError = Math.max(maxError, Math.abs(fade.getCurrentVelocity(pool, slot, now) - fade.getExactVelocity(pool, slot, now)));
+					}
+				}
+
+				System.out.println(shape + (holdSustain ? "" : " pluck") + ": maximum table error " + maxError);
+				assertTrue(maxError < 2e-3); //steepest slope is the exponential's 5 / (1 - e^-5), half a table step of that
+			}
+		}
+	}
+
+	@Test
+	public void testTrackedTableError() {
+		FadeTracking fade = new FadeTracking(0.15, 0.5, 0.65, 1, true, envelopeShapes.EXPONENTIAL, 3, 1);
+		VoicePool pool = createPool();
+		for(int slot = 0; slot < VOICES; slot++){
+			fade.assignEnvelope(pool, slot, 30 + slot);
+		}
+
+		double maxError = 0;
+		for(int step = 0; step < STEPS; step++){
+			releaseAt(fade, pool, step);
+			long now = START + step * STEP;
+			for(int slot = 0; slot < VOICES; slot++){
+				maxError = Math.max(maxError, Math.abs(fade.getCurrentVelocity(pool, slot, now) - fade.getExactVelocity(pool, slot, now)));
+			}
+		}
+
+		System.out.println("EXPONENTIAL tracked: maximum table error " + maxError);
+		assertTrue(maxError < 2e-3);
+	}
+
+	@Test
+	public void testTracking() {
+		FadeTracking fade = new FadeTracking(0.2, 0, 1, 1, true, envelopeShapes.LINEAR, 1, 1);
+		VoicePool pool = new VoicePool(4);
+		pool.start(0, 1, 0, START); //loud, attack takes 0.1s
+		fade.assignEnvelope(pool, 0, 60);
+		pool.start(1, 0.5, 0, START); //half as loud, attack takes 0.2 / 1.5s
+		fade.assignEnvelope(pool, 1, 60);
+		pool.start(2, 1, 0, START); //an octave higher, release takes 0.5s
+		fade.assignEnvelope(pool, 2, 72);
+		pool.start(3, 1, 0, START); //an octave lower, release takes 2s
+		fade.assignEnvelope(pool, 3, 48);
+
+		long second = 1000000000L;
+		assertEquals(0.5, fade.getCurrentVelocity(pool, 0, START + second / 20), 1e-3);
+		assertEquals(0.5 * 0.375, fade.getCurrentVelocity(pool, 1, START + second / 20), 1e-3);
+
+		for(int slot = 2; slot < 4; slot++){
+			pool.release(slot, START + second, fade.getCurrentVelocity(pool, slot, START + second));
+		}
+		assertEquals(0.5, fade.getCurrentVelocity(pool, 2, START + second + second / 4), 1e-3);
+		assertEquals(0.875, fade.getCurrentVelocity(pool, 3, START + second + second / 4), 1e-3);
+	}
+
+	@Test
+	public void testPitchTracking() {
+		//24-EDO: the octave above middle C is 24 keys higher
+		FadeTracking fade = new FadeTracking(0, 0, 1, 1, true, envelopeShapes.LINEAR, 0, 1);
+		fade.setTuning(new EqualTemperament(24));
+		VoicePool pool = new VoicePool(2);
+		pool.start(0, 1, 0, START); //an octave higher, release takes 0.5s
+		fade.assignEnvelope(pool, 0, 84);
+		pool.start(1, 1, 0, START); //a fifth higher
+		fade.assignEnvelope(pool, 1, 74);
+		
+		long second = 1000000000L;
+		for(int slot = 0; slot < 2; slot++){
+			pool.release(slot, START, 1);
+		}
+		assertEquals(0.5, fade.getCurrentVelocity(pool, 0, START + second / 4), 1e-3);
+		assertEquals(1 - 0.25 * Math.pow(2, 7 / 12.), fade.getCurrentVelocity(pool, 1, START + second / 4), 1e-3);
+	}
+
+	@Test
+	public void testZeroTimes() {
+		FadeTracking fade = new FadeTracking(0, 0, 0.5, 0, true, envelopeShapes.LINEAR);
+		VoicePool pool = new VoicePool(1);
+		pool.start(0, 1, 0, START);
+
+		assertEquals(1, fade.getCurrentVelocity(pool, 0, START), 0);
+		assertEquals(0.5, fade.getCurrentVelocity(pool, 0, START + 1), 0);
+
+		pool.release(0, START + 2, fade.getCurrentVelocity(pool, 0, START + 2));
+		assertEquals(0, fade.getCurrentVelocity(pool, 0, START + 3), 0);
+	}
+
+	@Test
+	public void testBenchmark() {
+		FadeTracking fade = new FadeTracking(0.15, 0.5, 0.65, 1, true, envelopeShapes.EXPONENTIAL);
+		VoicePool pool = createPool();
+		for(int step = 0; step < STEPS; step++){
+			releaseAt(fade, pool, step);
+		}
+
+		double sum = 0;
+		long tableNanos = 0;
+		long exactNanos = 0;
+		for(int round = 0; round < 2; round++){ //the first round is the warmup
+			long start = System.nanoTime();
+			for(int step = 0; step < STEPS; step++){
+				for(int slot = 0; slot < VOICES; slot++){
+					sum += fade.getCurrentVelocity(pool, slot, START + step * STEP);
+				}
+			}
+			tableNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int step = 0; step < STEPS; step++){
+				for(int slot = 0; slot < VOICES; slot++){
+					sum -= fade.getExactVelocity(pool, slot, START + step * STEP);
+				}
+			}
+			exactNanos = System.nanoTime() - start;
+		}
+
+		System.out.println("Lookup table: " + (tableNanos / (STEPS * VOICES)) + " ns per voice, calculated: " + (exactNanos / (STEPS * VOICES)) + " ns per voice (checksum " + sum + ")");
+	}
+
+}
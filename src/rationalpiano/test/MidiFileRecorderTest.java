@@ -0,0 +1,233 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiFileFormat;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.INoteOutput;
+import rationalpiano.noteout.MidiFileRecorder;
+
+/**
+ * Checks that MidiFileRecorder writes Standard MIDI Files which Java Sound can read back with the recorded notes and timing
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.2
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MidiFileRecorderTest {
+
+	/**
+	 * Counts the note ons passed on.
+	 */
+	private static class CountingOutput implements INoteOutput {
+		public volatile int noteOns = 0;
+
+		@Override
+		public void noteOn(int midiNoteNumber, double velocity) {
+			noteOns++;
+		}
+
+		@Override
+		public void noteOff(int midiNoteNumber) {
+		}
+
+		@Override
+		public void sustain(double sustain) {
+		}
+
+		@Override
+		public void retune(int midiNoteNumber, double cents) {
+		}
+
+		@Override
+		public void consonance(int midiNoteNumber, double consonance) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+
+	@Test
+	public void testFormats() throws IOException, InvalidMidiDataException, InterruptedException {
+		for(int format = 0; format <= 1; format++){
+			File file = File.createTempFile("recording", ".mid");
+			file.deleteOnExit();
+			CountingOutput output = new CountingOutput();
+			MidiFileRecorder recorder = new MidiFileRecorder(output, file, format, 1024);
+			recorder.start();
+
+			recorder.noteOn(60, 1);
+			recorder.sustain(1);
+			Thread.sleep(500);
+			recorder.noteOn(60, 0.5); //retriggered without a note off
+			recorder.noteOff(62); //not sounding
+			recorder.noteOn(64, 0.5);
+			recorder.noteOff(60);
+			recorder.stop(); //64 still sounding
+
+			assertEquals(3, output.noteOns);
+			MidiFileFormat fileFormat = MidiSystem.getMidiFileFormat(file);
+			assertEquals(format, fileFormat.getType());
+			Sequence sequence = MidiSystem.getSequence(file);
+			assertEquals(format + 1, sequence.getTracks().length);
+			Track track = sequence.getTracks()[format];
+
+			//note on, sustain, note off closing the retrigger, note on, note on, note off, note off at the end
+			int[][] expected = {{ShortMessage.NOTE_ON, 60, 127}, {ShortMessage.CONTROL_CHANGE, 64, 127}, {ShortMessage.NOTE_OFF, 60, 0}, {ShortMessage.NOTE_ON, 60, 63}, {ShortMessage.NOTE_ON, 64, 63}, {ShortMessage.NOTE_OFF, 60, 0}, {ShortMessage.NOTE_OFF, 64, 0}};
+			int found = 0;
+			long retriggerTick = 0;
+			for(int a = 0; a < track.size(); a++){
+				MidiEvent event = track.get(a);
+				if(!(event.getMessage() instanceof ShortMessage)){
+					continue;
+				}
+				ShortMessage message = (ShortMessage)event.getMessage();
+				assertEquals(expected[found][0], message.getCommand());
+				assertEquals(expected[found][1], message.getData1());
+				assertEquals(expected[found][2], message.getData2());
+				if(found == 3){
+					retriggerTick = event.getTick();
+				}
+				found++;
+			}
+			assertEquals(expected.length, found);
+
+			//the retrigger was half a second after the start, at 120 bpm
+			double seconds = retriggerTick * 60. / 120 / sequence.getResolution();
+			System.out.println("Format " + format + ": " + file.length() + " bytes, retrigger recorded at " + seconds + " s");
+			assertEquals(0.5, seconds, 0.05);
+			assertEquals(5, recorder.getRecordedCount()); //without the skipped note off
+			assertEquals(0, recorder.getDroppedCount());
+		}
+	}
+
+	@Test
+	public void testReadableWhileRecording() throws Exception {
+		File file = File.createTempFile("recording", ".mid");
+		file.deleteOnExit();
+		MidiFileRecorder recorder = new MidiFileRecorder(new CountingOutput(), file, 0, 1024);
+		recorder.start();
+
+		recorder.noteOn(60, 1);
+		recorder.noteOff(60);
+		Thread.sleep(500); //a few write intervals
+
+		//the track length already covers the written events, as if the program had ended without stopping
+		Sequence sequence = MidiSystem.getSequence(file);
+		int notes = 0;
+		Track track = sequence.getTracks()[0];
+		for(int a = 0; a < track.size(); a++){
+			if(track.get(a).getMessage() instanceof ShortMessage){
+				notes++;
+			}
+		}
+		recorder.stop();
+		assertEquals(2, notes);
+	}
+
+	@Test
+	public void testNoteOffsKeptWhenFull() throws Exception {
+		File file = File.createTempFile("recording", ".mid");
+		file.deleteOnExit();
+		MidiFileRecorder recorder = new MidiFileRecorder(new CountingOutput(), file, 0, 4);
+		recorder.start();
+
+		//far more events than the ring holds before the writer takes them, the note offs of the recorded note ons find it full
+		for(int note = 40; note < 80; note++){
+			recorder.noteOn(note, 1);
+		}
+		for(int note = 40; note < 80; note++){
+			recorder.noteOff(note);
+		}
+		Thread.sleep(1000);
+		recorder.stop();
+
+		Sequence sequence = MidiSystem.getSequence(file);
+		Track track = sequence.getTracks()[0];
+		int noteOns = 0;
+		int noteOffs = 0;
+		for(int a = 0; a < track.size(); a++){
+			if(track.get(a).getMessage() instanceof ShortMessage){
+				ShortMessage message = (ShortMessage)track.get(a).getMessage();
+				if(message.getCommand() == ShortMessage.NOTE_ON){
+					noteOns++;
+				}else if(message.getCommand() == ShortMessage.NOTE_OFF){
+					noteOffs++;
+					//written right away, not as a hanging note turned off when stopping a second later
+					assertTrue(track.get(a).getTick() * 60. / 120 / sequence.getResolution() < 0.5);
+				}
+			}
+		}
+		System.out.println("Ring of 4 events: " + noteOns + " note ons recorded, " + recorder.getDroppedCount() + " dropped, " + noteOffs + " note offs");
+		assertTrue(recorder.getDroppedCount() > 0);
+		assertEquals(noteOns, noteOffs);
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		File file = File.createTempFile("recording", ".mid");
+		file.deleteOnExit();
+		final MidiFileRecorder recorder = new MidiFileRecorder(new CountingOutput(), file, 1, 65536);
+		recorder.start();
+
+		final int perThread = 20000;
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++){
+			final int note = 40 + 10 * t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int a = 0; a < perThread / 2; a++){
+						recorder.noteOn(note, 1);
+						recorder.noteOff(note);
+						if(a % 10 == 0){
+							try{
+								Thread.sleep(1); //far more than a player, but not more than the writer takes
+							}catch(InterruptedException e){
+							}
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		recorder.stop();
+
+		System.out.println(threads.length * perThread + " events from " + threads.length + " threads: " + recorder.getRecordedCount() + " recorded, " + recorder.getDroppedCount() + " dropped, " + file.length() + " bytes");
+		assertEquals(0, recorder.getDroppedCount());
+		assertEquals(threads.length * perThread, recorder.getRecordedCount());
+
+		Sequence sequence = MidiSystem.getSequence(file);
+		int noteOns = 0;
+		int noteOffs = 0;
+		Track track = sequence.getTracks()[1];
+		for(int a = 0; a < track.size(); a++){
+			if(track.get(a).getMessage() instanceof ShortMessage){
+				ShortMessage message = (ShortMessage)track.get(a).getMessage();
+				if(message.getCommand() == ShortMessage.NOTE_ON){
+					noteOns++;
+				}else if(message.getCommand() == ShortMessage.NOTE_OFF){
+					noteOffs++;
+				}
+			}
+		}
+		assertEquals(noteOns, noteOffs); //no hanging notes, even with dropped events
+	}
+
+}
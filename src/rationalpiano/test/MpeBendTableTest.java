@@ -0,0 +1,89 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import rationalpiano.consonance.DissonanceCurve;
+import rationalpiano.noteout.MpeBendTable;
+import rationalpiano.tuning.EqualTemperament;
+
+/**
+ * Checks the just pitch bends of MpeBendTable against the cents of the just intervals
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MpeBendTableTest {
+
+	private static final int BEND_RANGE = 48;
+	private static final double UNITS_PER_CENT = 8192 / (100. * BEND_RANGE);
+
+	private static final int C4 = 60;
+	private static final int E4 = 64;
+	private static final int G4 = 67;
+	private static final int C5 = 72;
+
+	private MpeBendTable table = new MpeBendTable(new DissonanceCurve(256, 0.25), new EqualTemperament(12), BEND_RANGE);
+
+	/**
+	 * @return The pitch bend offset which detunes a 12TET interval of the given semitones to the given ratio.
+	 */
+	private int expected(double ratio, int semitones) {
+		double cents = 1200 * Math.log(ratio) / Math.log(2) - 100 * semitones;
+		return (int)Math.round(cents * UNITS_PER_CENT);
+	}
+
+	@Test
+	public void testJustIntervals() {
+		assertEquals(0, table.getTunedBend(C4));
+		assertEquals(0, table.getJustBend(C4, 0, C4));
+		assertEquals(expected(5. / 4, 4), table.getJustBend(C4, 0, E4));
+		assertEquals(expected(3. / 2, 7), table.getJustBend(C4, 0, G4));
+		assertEquals(0, table.getJustBend(C4, 0, C5));
+		assertTrue(table.getJustBend(C4, 0, E4) < 0); //a just major third is lower than the tempered one
+	}
+
+	@Test
+	public void testSoundingReference() {
+		//the reference is already detuned, the key follows it
+		int referenceBend = table.getJustBend(C4, 0, E4);
+		assertEquals(referenceBend + expected(6. / 5, 3), table.getJustBend(E4, referenceBend, G4));
+
+		//a key below the reference is just towards it as well
+		assertEquals(referenceBend - expected(5. / 4, 4), table.getJustBend(E4, referenceBend, C4));
+		assertEquals(0, table.getJustBend(G4, table.getJustBend(C4, 0, G4), C4));
+	}
+
+	@Test
+	public void testNearestNote() {
+		//24-EDO: key 60 is C4, every key a quarter tone above its neighbour, and there are more keys than MIDI note numbers
+		MpeBendTable quarterTones = new MpeBendTable(new DissonanceCurve(256, 0.25), new EqualTemperament(24), BEND_RANGE, 256);
+		assertEquals(60, quarterTones.getNote(60));
+		assertEquals(61, quarterTones.getNote(62));
+		assertEquals(0, quarterTones.getTunedBend(62));
+		assertEquals(61, quarterTones.getNote(61)); //rounded up from 60.5
+		assertEquals(quarterTones.getBend(-50), quarterTones.getTunedBend(61)); //only the residual goes into the bend
+		assertEquals(70, quarterTones.getNote(80));
+		assertEquals(expected(5. / 4, 4), quarterTones.getJustBend(60, 0, 68)); //the same just major third as in 12TET
+		assertEquals(127, quarterTones.getNote(194));
+		assertEquals(-1, quarterTones.getNote(195)); //above the MIDI note numbers
+
+		//a new tuning keeps the count of keys
+		MpeBendTable retuned = table.withTuning(new EqualTemperament(24));
+		assertEquals(MpeBendTable.DEFAULT_KEYS, retuned.getKeyCount());
+		assertEquals(61, retuned.getNote(62));
+	}
+
+	@Test
+	public void testMidiRange() {
+		assertEquals(MpeBendTable.BEND_CENTER, MpeBendTable.toMidi(0));
+		assertEquals(0, MpeBendTable.toMidi(-100000));
+		assertEquals(MpeBendTable.BEND_MAX, MpeBendTable.toMidi(100000));
+		assertEquals(MpeBendTable.BEND_CENTER + table.getBend(100), MpeBendTable.toMidi(table.getBend(100)));
+		assertEquals(8192 / BEND_RANGE, table.getBend(100), 1);
+	}
+
+}
@@ -0,0 +1,124 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.INoteOutput;
+import rationalpiano.noteout.INoteOutput.overflowPolicies;
+import rationalpiano.noteout.MultiNoteOutput;
+
+/**
+ * Checks that a hanging or failing destination of MultiNoteOutput neither delays the caller nor the other destinations
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class MultiNoteOutputTest {
+
+	private static final int CALLS = 20000;
+	private static final int QUEUE_SIZE = 1024;
+
+	/**
+	 * Counts the calls, optionally waiting on a latch in the first one or throwing an exception in every one.
+	 */
+	private static class TestOutput implements INoteOutput {
+		private CountDownLatch hang;
+		private boolean fail;
+		public volatile int calls = 0;
+
+		public TestOutput(CountDownLatch hang, boolean fail) {
+			this.hang = hang;
+			this.fail = fail;
+		}
+
+		private void call() {
+			if(hang != null){
+				try{
+					hang.await();
+				}catch(InterruptedException e){
+				}
+			}
+			if(fail){
+				throw new IllegalStateException("destination is dead");
+			}
+			calls++;
+		}
+
+		@Override
+		public void noteOn(int midiNoteNumber, double velocity) {
+			call();
+		}
+
+		@Override
+		public void noteOff(int midiNoteNumber) {
+			call();
+		}
+
+		@Override
+		public void sustain(double sustain) {
+			call();
+		}
+
+		@Override
+		public void retune(int midiNoteNumber, double cents) {
+			call();
+		}
+
+		@Override
+		public void consonance(int midiNoteNumber, double consonance) {
+			call();
+		}
+
+		@Override
+		public void flush() {
+			call();
+		}
+	}
+
+	@Test
+	public void testIsolation() throws InterruptedException {
+		for(overflowPolicies policy : overflowPolicies.values()){
+			CountDownLatch hang = new CountDownLatch(1);
+			TestOutput healthy = new TestOutput(null, false);
+			TestOutput hanging = new TestOutput(hang, false);
+			TestOutput failing = new TestOutput(null, true);
+			MultiNoteOutput output = new MultiNoteOutput(new INoteOutput[]{healthy, hanging, failing}, new String[]{"healthy", "hanging", "failing"}, QUEUE_SIZE, policy);
+			output.start();
+
+			long callerNanos = 0;
+			for(int a = 0; a < CALLS / 2; a++){
+				long start = System.nanoTime();
+				output.noteOn(60 + a % 12, 1);
+				output.noteOff(60 + a % 12);
+				callerNanos += System.nanoTime() - start;
+				if(a % 128 == 0){
+					Thread.sleep(1); //let the healthy destination keep up, like a player would
+				}
+			}
+			long callerMillis = callerNanos / 1000000;
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while((healthy.calls + output.getDroppedCount(0) < CALLS || output.getFailedCount(2) + output.getDroppedCount(2) < CALLS) && System.currentTimeMillis() < deadline){
+				Thread.sleep(1);
+			}
+
+			System.out.println(policy + ": " + CALLS + " calls in " + callerMillis + " ms; healthy " + output.getSentCount(0) + " sent, " + output.getDroppedCount(0) + " dropped; hanging " + output.getDroppedCount(1) + " dropped; failing " + output.getFailedCount(2) + " failed, " + output.getDroppedCount(2) + " dropped");
+
+			assertEquals(CALLS, healthy.calls + output.getDroppedCount(0));
+			assertEquals(CALLS, output.getSentCount(0) + output.getDroppedCount(0));
+			assertTrue(output.getDroppedCount(1) >= CALLS - QUEUE_SIZE - 1 - 12); //only the queue, the hanging call and a note off of each of the 12 notes are kept
+			assertTrue(callerMillis < 2000);
+			assertEquals(0, failing.calls);
+			assertEquals(CALLS, output.getFailedCount(2) + output.getDroppedCount(2));
+
+			hang.countDown();
+			output.stop();
+		}
+	}
+
+}
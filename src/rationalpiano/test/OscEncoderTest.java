@@ -0,0 +1,167 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+
+import net.gombology.OscXXL.Bundle;
+import net.gombology.synOscP5.SYN;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.OscEncoder;
+import rationalpiano.noteout.SendOsc;
+import rationalpiano.noteout.INoteOutput.bundlingModes;
+import rationalpiano.noteout.INoteOutput.oscBackends;
+
+/**
+ * Checks that OscEncoder and the DIRECT backend of SendOsc produce the same packets as synOscP5
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.2
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class OscEncoderTest {
+
+	private static final float[] VELOCITIES = {0, 0.001f, 0.25f, 0.5f, 1f / 3, 0.99f, 1, 50, 100};
+	private static final double[] CENTS = {0, 0.01, -0.01, 12.5, -7.25, 49.999, -50, 1200, -2400};
+
+	private OscEncoder encoder = new OscEncoder(8192);
+
+	@Test
+	public void testMessages() {
+		for(int voice = 0; voice < 1200; voice += 7){
+			for(int note = -108; note <= 108; note += 3){
+				for(float velocity : VELOCITIES){
+					encoder.reset();
+					encoder.voiceOn(voice, note, velocity);
+					assertArrayEquals(new SYN().synth(1).voice(voice).midi(note).cutOff(false).velocity(velocity).getByteArray(), getBytes());
+				}
+			}
+
+			encoder.reset();
+			encoder.voiceOff(voice);
+			assertArrayEquals(new SYN().synth(1).voice(voice).off().getByteArray(), getBytes());
+
+			for(double cents : CENTS){
+				encoder.reset();
+				encoder.voicePitch(voice, cents);
+				assertArrayEquals(new SYN().synth(1).voice(voice).pitchCents(cents).getByteArray(), getBytes());
+			}
+
+			for(int parameter = 0; parameter < 130; parameter += 43){
+				for(int value = -100; value <= 100; value += 5){
+					encoder.reset();
+					encoder.voiceParameter(voice, parameter, value);
+					assertArrayEquals(new SYN().synth(1).voice(voice).param(parameter, value).getByteArray(), getBytes());
+				}
+			}
+		}
+
+		for(double sustain = -100; sustain <= 100; sustain += 0.125){
+			encoder.reset();
+			encoder.sustain(sustain);
+			assertArrayEquals(new SYN().synth(1).sustain(sustain).getByteArray(), getBytes());
+		}
+	}
+
+	@Test
+	public void testRanges() {
+		try{
+			encoder.voiceOn(0, 109, 1);
+			fail();
+		}catch(IllegalArgumentException e){
+		}
+		try{
+			encoder.sustain(100.5);
+			fail();
+		}catch(IllegalArgumentException e){
+		}
+	}
+
+	@Test
+	public void testBundles() {
+		long[] times = {0, 999, 1000, 1700000000123L, 1700000000999L, 4102444800000L};
+		for(long time : times){
+			Bundle bundle = new Bundle();
+			bundle.setTimestamp(new Date(time));
+			encoder.beginBundle(time);
+			for(int voice = 0; voice < 20; voice++){
+				bundle.add(new SYN().synth(1).voice(voice).midi(40 + voice).cutOff(false).velocity(voice / 20f));
+				encoder.voiceOn(voice, 40 + voice, voice / 20f);
+				bundle.add(new SYN().synth(1).voice(voice).pitchCents(voice - 10.5));
+				encoder.voicePitch(voice, voice - 10.5);
+			}
+			bundle.add(new SYN().synth(1).sustain(1));
+			encoder.sustain(1);
+			bundle.add(new SYN().synth(1).voice(3).off());
+			encoder.voiceOff(3);
+
+			assertEquals(42, encoder.getMessageCount());
+			assertArrayEquals(bundle.getByteArray(), getBytes());
+		}
+	}
+
+	/**
+	 * Sends the same notes through both backends to a local UDP receiver and compares the received packets.
+	 */
+	@Test
+	public void testReceiver() throws Exception {
+		DatagramSocket receiver = new DatagramSocket(0);
+		receiver.setSoTimeout(1000);
+		int port = receiver.getLocalPort();
+
+		SendOsc reference = new SendOsc(null, port, bundlingModes.OFF, 0, oscBackends.SYNOSCP5, SendOsc.DEFAULT_MAX_VOICES);
+		SendOsc direct = new SendOsc(null, port, bundlingModes.OFF, 0, oscBackends.DIRECT, SendOsc.DEFAULT_MAX_VOICES);
+
+		int packets = 0;
+		for(int note = 21; note < 109; note++){
+			reference.voiceOn(note, note / 127f);
+			assertArrayEquals(receive(receiver), receiveAfter(receiver, direct, note, true));
+			reference.voicePitch(note, note - 64.5);
+			direct.voicePitch(note, note - 64.5);
+			assertArrayEquals(receive(receiver), receive(receiver));
+			reference.voiceParameter(note, 1, note / 127.0);
+			direct.voiceParameter(note, 1, note / 127.0);
+			assertArrayEquals(receive(receiver), receive(receiver));
+			reference.voiceOff(note);
+			assertArrayEquals(receive(receiver), receiveAfter(receiver, direct, note, false));
+			packets += 4;
+		}
+		reference.sustain(0.75);
+		direct.sustain(0.75);
+		assertArrayEquals(receive(receiver), receive(receiver));
+
+		assertEquals(0, direct.getDroppedPacketCount());
+		System.out.println("Received " + (packets + 1) + " identical packets from both backends");
+		receiver.close();
+	}
+
+	private byte[] receiveAfter(DatagramSocket receiver, SendOsc direct, int note, boolean on) throws Exception {
+		if(on){
+			direct.voiceOn(note, note / 127f);
+		}else{
+			direct.voiceOff(note);
+		}
+		return receive(receiver);
+	}
+
+	private byte[] receive(DatagramSocket receiver) throws Exception {
+		DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+		receiver.receive(packet);
+		return Arrays.copyOf(packet.getData(), packet.getLength());
+	}
+
+	private byte[] getBytes() {
+		ByteBuffer packet = encoder.getPacket();
+		byte[] bytes = new byte[packet.remaining()];
+		packet.get(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,153 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.SendMidi;
+
+/**
+ * Checks that SendMidi drops redundant messages and that its running status byte stream decodes to the same messages as sending every status byte
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class SendMidiTest {
+
+	private static final int CHANNEL = 3;
+
+	@Test
+	public void testRedundantMessages() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SendMidi midi = new SendMidi(bytes, CHANNEL);
+
+		midi.noteOff(60); //not sounding
+		midi.sustain(127);
+		midi.sustain(127); //unchanged
+		midi.noteOn(60, 100);
+		midi.polyPressure(60, 50);
+		midi.polyPressure(60, 50); //unchanged
+		midi.polyPressure(61, 50); //not sounding
+		midi.noteOff(60);
+		midi.noteOff(60); //already off
+		midi.flush();
+
+		assertEquals(5, midi.getDroppedCount());
+		ArrayList<int[]> messages = decode(bytes.toByteArray());
+		assertEquals(4, messages.size());
+		assertMessage(messages.get(0), 0xB0, 64, 127);
+		assertMessage(messages.get(1), 0x90, 60, 100);
+		assertMessage(messages.get(2), 0xA0, 60, 50);
+		assertMessage(messages.get(3), 0x90, 60, 0); //note off as note on with velocity 0
+	}
+
+	@Test
+	public void testEventControllers() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SendMidi midi = new SendMidi(bytes, CHANNEL);
+
+		midi.noteOn(60, 100);
+		assertEquals(3, bytes.size()); //written without waiting for flush()
+		for(int a = 0; a < 2; a++){
+			//the same RPN data entry twice, eg. to set the pitch bend range of two ranges in a row
+			midi.controller(101, 0);
+			midi.controller(100, 0);
+			midi.controller(6, 48);
+			midi.controller(38, 0);
+			midi.controller(96, 0);
+		}
+		midi.controller(123, 0); //all notes off
+		midi.noteOff(60); //already off by the controller
+		midi.flush();
+
+		assertEquals(1, midi.getDroppedCount());
+		assertEquals(1 + 2 * 5 + 1, decode(bytes.toByteArray()).size());
+	}
+
+	@Test
+	public void testRunningStatus() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SendMidi midi = new SendMidi(bytes, CHANNEL);
+		ArrayList<int[]> expected = new ArrayList<int[]>();
+		boolean[] sounding = new boolean[128];
+
+		//dense playing: chords going on and off with a few sustain changes in between
+		Random random = new Random(0);
+		for(int event = 0; event < 10000; event++){
+			int note = 36 + random.nextInt(48);
+			if(random.nextInt(20) == 0){
+				int sustain = random.nextBoolean() ? 127 : 0;
+				midi.sustain(sustain);
+				expected.add(new int[]{0xB0, 64, sustain});
+			}else if(sounding[note]){
+				midi.noteOff(note);
+				expected.add(new int[]{0x90, note, 0});
+				sounding[note] = false;
+			}else{
+				int velocity = 1 + random.nextInt(127);
+				midi.noteOn(note, velocity);
+				expected.add(new int[]{0x90, note, velocity});
+				sounding[note] = true;
+			}
+			if(event % 16 == 0){
+				midi.flush();
+			}
+		}
+		midi.flush();
+
+		//drop the controller messages which repeated the last value
+		ArrayList<int[]> filtered = new ArrayList<int[]>();
+		int sustain = -1;
+		for(int[] message : expected){
+			if(message[0] == 0xB0){
+				if(message[2] == sustain){
+					continue;
+				}
+				sustain = message[2];
+			}
+			filtered.add(message);
+		}
+
+		byte[] stream = bytes.toByteArray();
+		ArrayList<int[]> messages = decode(stream);
+		assertEquals(filtered.size(), messages.size());
+		for(int i = 0; i < messages.size(); i++){
+			assertMessage(messages.get(i), filtered.get(i)[0], filtered.get(i)[1], filtered.get(i)[2]);
+		}
+
+		int plain = 3 * expected.size();
+		System.out.println(expected.size() + " messages: " + stream.length + " bytes with running status and redundancy elimination instead of " + plain + " (" + (100 * (plain - stream.length) / plain) + "% less), " + midi.getBytesSaved() + " status bytes saved, " + midi.getDroppedCount() + " messages dropped");
+		assertEquals(3 * filtered.size() - midi.getBytesSaved(), stream.length);
+	}
+
+	private void assertMessage(int[] message, int command, int data1, int data2) {
+		assertEquals(command | CHANNEL, message[0]);
+		assertEquals(data1, message[1]);
+		assertEquals(data2, message[2]);
+	}
+
+	/**
+	 * Decodes a byte stream of channel messages with two data bytes and running status.
+	 */
+	private ArrayList<int[]> decode(byte[] bytes) {
+		ArrayList<int[]> messages = new ArrayList<int[]>();
+		int status = -1;
+		int i = 0;
+		while(i < bytes.length){
+			if((bytes[i] & 0x80) != 0){
+				status = bytes[i++] & 0xFF;
+			}
+			assertTrue(status >= 0);
+			messages.add(new int[]{status, bytes[i], bytes[i + 1]});
+			i += 2;
+		}
+		return messages;
+	}
+
+}
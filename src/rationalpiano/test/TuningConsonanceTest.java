@@ -0,0 +1,92 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rationalpiano.consonance.TuningConsonance;
+import rationalpiano.tuning.EqualTemperament;
+
+/**
+ * Swaps the tuning of TuningConsonance while another thread keeps calculating and checks that the consonances switch to the new tuning without stalling the calculation
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class TuningConsonanceTest {
+
+	private static final int NOTESTART = 48;
+	private static final int NOTECOUNT = 37;
+	private static final int MAXFRAC = 157;
+	private static final double BELL_WIDTH = 0.35;
+
+	//C4, E4 and G4 in 12TET
+	private static final int[] CHORD = {12, 16, 19};
+
+	private volatile boolean ticking;
+
+	private static double[] calculate(TuningConsonance consonance) {
+		double[] volumes = new double[NOTECOUNT];
+		for(int key : CHORD){
+			volumes[key] = 1;
+		}
+		double[] consonances = new double[NOTECOUNT];
+		consonance.calculate(volumes, CHORD, CHORD.length, consonances);
+		return consonances;
+	}
+
+	@Test
+	public void testSwapWhileTicking() throws Exception {
+		final TuningConsonance consonance = new TuningConsonance(NOTESTART, NOTECOUNT, MAXFRAC, BELL_WIDTH, new EqualTemperament(12), null);
+		double[] before = calculate(consonance);
+		double[] expected = calculate(new TuningConsonance(NOTESTART, NOTECOUNT, MAXFRAC, BELL_WIDTH, new EqualTemperament(24), null));
+
+		final CountDownLatch switched = new CountDownLatch(1);
+		consonance.setSwitchHandler(new Runnable() {
+			@Override
+			public void run() {
+				switched.countDown();
+			}
+		});
+
+		final long[] ticks = new long[1];
+		final long[] maxTickNanos = new long[1];
+		ticking = true;
+		Thread ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(ticking){
+					long start = System.nanoTime();
+					calculate(consonance);
+					maxTickNanos[0] = Math.max(maxTickNanos[0], System.nanoTime() - start);
+					ticks[0]++;
+				}
+			}
+		}, "Ticker");
+		ticker.start();
+
+		long start = System.nanoTime();
+		consonance.setTuning(new EqualTemperament(24));
+		long setNanos = System.nanoTime() - start;
+		assertTrue(switched.await(60, TimeUnit.SECONDS));
+		ticking = false;
+		ticker.join();
+
+		System.out.println("setTuning() returned after " + setNanos / 1000 + " us, " + ticks[0] + " ticks during the swap, longest tick " + maxTickNanos[0] / 1000 + " us");
+		assertTrue(ticks[0] > 0);
+
+		double[] after = calculate(consonance);
+		boolean differs = false;
+		for(int key = 0; key < NOTECOUNT; key++){
+			assertEquals(expected[key], after[key], 0);
+			differs |= (after[key] != before[key]);
+		}
+		assertTrue(differs);
+	}
+
+}
@@ -0,0 +1,88 @@
+package rationalpiano.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rationalpiano.noteout.VoiceAllocator;
+
+/**
+ * Checks the note to voice mapping of VoiceAllocator against a HashMap under sustained random churn and that no voice numbers leak
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class VoiceAllocatorTest {
+
+	private static final int MAX_VOICES = 16;
+	private static final int OPERATIONS = 1000000;
+
+	@Test
+	public void testChurn() {
+		VoiceAllocator allocator = new VoiceAllocator(MAX_VOICES);
+		HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		Random random = new Random(0);
+
+		for(int operation = 0; operation < OPERATIONS; operation++){
+			int note = random.nextInt(VoiceAllocator.NOTE_COUNT);
+			if(random.nextBoolean()){
+				int voice = allocator.allocate(note);
+				if(expected.containsKey(note)){
+					assertEquals((int)expected.get(note), voice); //already sounding notes keep their voice
+				}else if(expected.size() == MAX_VOICES){
+					assertEquals(-1, voice);
+				}else{
+					assertTrue(voice >= 0 && voice < MAX_VOICES);
+					assertFalse(expected.containsValue(voice));
+					expected.put(note, voice);
+				}
+			}else{
+				Integer voice = expected.remove(note);
+				assertEquals((voice == null) ? -1 : (int)voice, allocator.release(note));
+			}
+
+			assertEquals(expected.size(), allocator.getActiveCount());
+			assertEquals(MAX_VOICES - expected.size(), allocator.getFreeCount());
+		}
+
+		//both directions of the mapping agree
+		for(int voice = 0; voice < MAX_VOICES; voice++){
+			int note = allocator.getNote(voice);
+			if(note >= 0){
+				assertEquals(voice, allocator.getVoice(note));
+			}
+		}
+
+		//releasing everything gives back all voice numbers
+		for(int note = 0; note < VoiceAllocator.NOTE_COUNT; note++){
+			allocator.release(note);
+		}
+		assertEquals(0, allocator.getActiveCount());
+		assertEquals(MAX_VOICES, allocator.getFreeCount());
+		for(int note = 0; note < MAX_VOICES; note++){
+			assertTrue(allocator.allocate(note) >= 0);
+		}
+		assertEquals(-1, allocator.allocate(MAX_VOICES));
+	}
+
+	@Test
+	public void testReuseOrder() {
+		VoiceAllocator allocator = new VoiceAllocator(4);
+		assertEquals(0, allocator.allocate(60));
+		assertEquals(1, allocator.allocate(62));
+		assertEquals(0, allocator.release(60));
+		//the voice freed last is reused last
+		assertEquals(2, allocator.allocate(64));
+		assertEquals(3, allocator.allocate(65));
+		assertEquals(0, allocator.allocate(67));
+		assertEquals(-1, allocator.allocate(69));
+		assertEquals(-1, allocator.allocate(128));
+		assertEquals(-1, allocator.release(60));
+	}
+
+}
@@ -0,0 +1,55 @@
+package rationalpiano.tuning;
+
+/**
+ * An equal division of the octave (N-EDO) tuning, every key is 1/N octave above its left neighbour.
+ * Keys are pitch indices which coincide with MIDI note numbers for 12-EDO (12TET); pitch index 60 is always C4 and 69 is A4 at 440 Hz in 12-EDO.
+ * For other divisions, pitch indices may exceed the range of MIDI note numbers.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class EqualTemperament implements ITuning {
+	
+	private static final int REFERENCE_KEY = 60;
+	
+	private final int stepsPerOctave;
+	
+	/**
+	 * Creates the standard 12TET tuning.
+	 */
+	public EqualTemperament() {
+		this(12);
+	}
+	
+	/**
+	 * @param stepsPerOctave Count of equal steps the octave gets divided into; stepsPerOctave > 0.
+	 */
+	public EqualTemperament(int stepsPerOctave) {
+		this.stepsPerOctave = stepsPerOctave;
+	}
+
+	@Override
+	public double getPitch(int key) {
+		return REFERENCE_KEY + (key - REFERENCE_KEY) * 12. / stepsPerOctave;
+	}
+
+	@Override
+	public boolean isEqualTempered() {
+		return true;
+	}
+
+	@Override
+	public String getDescription() {
+		return (stepsPerOctave == 12) ? "12TET" : stepsPerOctave + "-EDO";
+	}
+	
+	/**
+	 * @return Count of equal steps the octave is divided into.
+	 */
+	public int getStepsPerOctave() {
+		return stepsPerOctave;
+	}
+
+}
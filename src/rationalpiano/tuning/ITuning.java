@@ -0,0 +1,30 @@
+package rationalpiano.tuning;
+
+/**
+ * Maps MIDI note numbers (keys) to pitches.
+ * Pitches are given in (fractional) semitones on the MIDI note number scale, so 69.0 denotes A4 at 440 Hz and 60.5 is a quarter tone above C4.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public interface ITuning {
+
+	/**
+	 * @param key The MIDI note number of the key to get the pitch of.
+	 * @return The pitch of the given key in semitones on the MIDI note number scale; Double.NaN if the key is not mapped to any pitch.
+	 */
+	public abstract double getPitch(int key);
+	
+	/**
+	 * @return true if the interval between two keys only depends on their distance, i.e. the dissonance matrix of this tuning is a Toeplitz matrix.
+	 */
+	public abstract boolean isEqualTempered();
+	
+	/**
+	 * @return A human readable description of this tuning.
+	 */
+	public abstract String getDescription();
+
+}
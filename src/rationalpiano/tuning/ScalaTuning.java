@@ -0,0 +1,267 @@
+package rationalpiano.tuning;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+/**
+ * A tuning loaded from a Scala scale file (.scl) and an optional Scala keyboard mapping file (.kbm).
+ * The file formats are described at http://www.huygens-fokker.org/scala/scl_format.html and http://www.huygens-fokker.org/scala/help.htm#mappings.
+ * Without a keyboard mapping, the first scale degree (1/1) is mapped to C4 (MIDI note number 60) with its 12TET frequency and all following keys get successive scale degrees.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class ScalaTuning implements ITuning {
+
+	private String description;
+
+	//cents of scale degrees 1..n, degree 0 (1/1) is implicit, the last entry is the period (usually 2/1)
+	private double[] scaleCents;
+
+	//keyboard mapping, -1 means unmapped ('x'); an empty mapping means linear mapping
+	private int[] mapping = new int[0];
+	private int firstNote = 0;
+	private int lastNote = 127;
+	private int middleNote = 60;
+	private int referenceNote = 60;
+	private double referenceFrequency = 440 * Math.pow(2, (60 - 69) / 12.);
+	private int octaveDegree = 0;
+
+	private double referencePitch;
+
+	private static final Logger logger = Logger.getLogger(ScalaTuning.class.getName());
+
+	/**
+	 * Loads a tuning from the given Scala files.
+	 * @param sclFileName File name of the Scala scale file (.scl).
+	 * @param kbmFileName File name of the Scala keyboard mapping file (.kbm); null or an empty string if the default linear mapping should be used.
+	 * @throws IOException Thrown if one of the files couldn't be read or isn't in the correct format.
+	 */
+	public ScalaTuning(String sclFileName, String kbmFileName) throws IOException {
+		logger.info("Loading Scala tuning from '" + sclFileName + "'" + ((kbmFileName != null && !kbmFileName.equals("")) ? " with keyboard mapping '" + kbmFileName + "'" : ""));
+
+		loadScale(sclFileName);
+
+		if(kbmFileName != null && !kbmFileName.equals("")){
+			loadKeyboardMapping(kbmFileName);
+		}
+
+		double referenceCents = getCents(referenceNote);
+		if(Double.isNaN(referenceCents)){
+			throw new IOException("Reference note " + referenceNote + " is not mapped in keyboard mapping '" + kbmFileName + "'");
+		}
+		//pitch of the middle note so that the reference note sounds at the reference frequency
+		referencePitch = 69 + 12 * Math.log(referenceFrequency / 440) / Math.log(2) - referenceCents / 100;
+
+		logger.config("Loaded Scala tuning '" + description + "' with " + scaleCents.length + " degrees");
+	}
+
+	@Override
+	public double getPitch(int key) {
+		return referencePitch + getCents(key) / 100;
+	}
+
+	@Override
+	public boolean isEqualTempered() {
+		return false;
+	}
+
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @param key The MIDI note number to calculate the distance to the middle note for.
+	 * @return The distance in cents of the given key to the middle note; Double.NaN if the key is not mapped.
+	 */
+	private double getCents(int key) {
+		if(key < firstNote || key > lastNote){
+			return Double.NaN;
+		}
+
+		int distance = key - middleNote;
+
+		if(mapping.length == 0){
+			return getDegreeCents(distance);
+		}
+
+		int index = floorMod(distance, mapping.length);
+		int octave = (distance - index) / mapping.length;
+
+		if(mapping[index] < 0){
+			return Double.NaN;
+		}
+
+		double octaveCents = (octaveDegree == 0) ? getDegreeCents(scaleCents.length) : getDegreeCents(octaveDegree);
+
+		return octave * octaveCents + getDegreeCents(mapping[index]);
+	}
+
+	/**
+	 * @param degree A scale degree; may be negative or bigger than the scale size, in which case it continues in the neighbouring periods.
+	 * @return The size of the interval from degree 0 to the given degree in cents.
+	 */
+	private double getDegreeCents(int degree) {
+		int index = floorMod(degree, scaleCents.length);
+		int period = (degree - index) / scaleCents.length;
+
+		return period * scaleCents[scaleCents.length - 1] + ((index == 0) ? 0 : scaleCents[index - 1]);
+	}
+
+	/**
+	 * @return The non-negative remainder of dividend / divisor.
+	 */
+	private static int floorMod(int dividend, int divisor) {
+		return ((dividend % divisor) + divisor) % divisor;
+	}
+
+	/**
+	 * Loads the scale degrees from a Scala scale file.
+	 * @param fileName File name of the Scala scale file (.scl).
+	 * @throws IOException Thrown if the file couldn't be read or isn't in the correct format.
+	 */
+	private void loadScale(String fileName) throws IOException {
+		ArrayList<String> lines = readLines(fileName);
+
+		if(lines.size() < 2){
+			throw new IOException("Scala file '" + fileName + "' is incomplete");
+		}
+
+		description = lines.get(0).trim();
+
+		int count = parseInt(lines.get(1), fileName);
+		if(count < 1 || lines.size() < 2 + count){
+			throw new IOException("Scala file '" + fileName + "' has a wrong count of scale degrees");
+		}
+
+		scaleCents = new double[count];
+		for(int i = 0; i < count; i++){
+			scaleCents[i] = parsePitch(lines.get(2 + i), fileName);
+		}
+
+		if(scaleCents[count - 1] <= 0){
+			throw new IOException("Scala file '" + fileName + "' has a period which is not positive");
+		}
+	}
+
+	/**
+	 * Loads the keyboard mapping from a Scala keyboard mapping file.
+	 * @param fileName File name of the Scala keyboard mapping file (.kbm).
+	 * @throws IOException Thrown if the file couldn't be read or isn't in the correct format.
+	 */
+	private void loadKeyboardMapping(String fileName) throws IOException {
+		ArrayList<String> lines = readLines(fileName);
+
+		if(lines.size() < 7){
+			throw new IOException("Keyboard mapping file '" + fileName + "' is incomplete");
+		}
+
+		int mapSize = parseInt(lines.get(0), fileName);
+		firstNote = parseInt(lines.get(1), fileName);
+		lastNote = parseInt(lines.get(2), fileName);
+		middleNote = parseInt(lines.get(3), fileName);
+		referenceNote = parseInt(lines.get(4), fileName);
+		try{
+			referenceFrequency = Double.parseDouble(firstToken(lines.get(5)));
+		}catch(NumberFormatException e){
+			throw new IOException("Keyboard mapping file '" + fileName + "' has an invalid reference frequency '" + lines.get(5) + "'");
+		}
+		octaveDegree = parseInt(lines.get(6), fileName);
+
+		mapping = new int[mapSize];
+		for(int i = 0; i < mapSize; i++){
+			//missing entries at the end of the file are unmapped
+			if(7 + i >= lines.size() || firstToken(lines.get(7 + i)).equalsIgnoreCase("x")){
+				mapping[i] = -1;
+			}else{
+				mapping[i] = parseInt(lines.get(7 + i), fileName);
+			}
+		}
+	}
+
+	/**
+	 * Parses a pitch line of a Scala scale file. Values containing a period are in cents, all others are ratios (eg. "3/2" or "2").
+	 * @param line The line to parse, anything after the first whitespace is ignored.
+	 * @param fileName File name used for error messages.
+	 * @return The interval in cents.
+	 * @throws IOException Thrown if the line can't be parsed.
+	 */
+	private static double parsePitch(String line, String fileName) throws IOException {
+		String token = firstToken(line);
+
+		try{
+			if(token.contains(".")){
+				return Double.parseDouble(token);
+			}
+
+			double ratio;
+			int slash = token.indexOf('/');
+			if(slash >= 0){
+				ratio = Double.parseDouble(token.substring(0, slash)) / Double.parseDouble(token.substring(slash + 1));
+			}else{
+				ratio = Double.parseDouble(token);
+			}
+
+			if(ratio <= 0){
+				throw new IOException("Scala file '" + fileName + "' has a non-positive ratio '" + token + "'");
+			}
+
+			return 1200 * Math.log(ratio) / Math.log(2);
+		}catch(NumberFormatException e){
+			throw new IOException("Scala file '" + fileName + "' has an invalid pitch value '" + line + "'");
+		}
+	}
+
+	/**
+	 * @param line The line to parse, anything after the first whitespace is ignored.
+	 * @param fileName File name used for error messages.
+	 * @return The parsed integer value.
+	 * @throws IOException Thrown if the line can't be parsed.
+	 */
+	private static int parseInt(String line, String fileName) throws IOException {
+		try{
+			return Integer.parseInt(firstToken(line));
+		}catch(NumberFormatException e){
+			throw new IOException("File '" + fileName + "' has an invalid integer value '" + line + "'");
+		}
+	}
+
+	/**
+	 * @return The first whitespace separated token of the given line.
+	 */
+	private static String firstToken(String line) {
+		String[] tokens = line.trim().split("\\s+");
+		return tokens[0];
+	}
+
+	/**
+	 * Reads all lines of the given file which are not comments (starting with '!').
+	 * @param fileName File name, no path necessary if it's in the same folder as the executable.
+	 * @return A list of all non-comment lines.
+	 * @throws IOException Thrown if the file couldn't be read.
+	 */
+	private static ArrayList<String> readLines(String fileName) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+
+		BufferedReader in = new BufferedReader(new FileReader(new File(fileName)));
+		try{
+			String line;
+			while((line = in.readLine()) != null){
+				if(!line.startsWith("!")){
+					lines.add(line);
+				}
+			}
+		}finally{
+			in.close();
+		}
+
+		return lines;
+	}
+}
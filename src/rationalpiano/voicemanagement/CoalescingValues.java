@@ -0,0 +1,87 @@
+package rationalpiano.voicemanagement;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Passes the latest value of each slot from any count of writing threads to a single reading thread, coalescing all values written to a slot between two reads into the last one.
+ * A burst of updates of the same slot therefore costs the reader one update, no matter how many were written.
+ * Every slot has its value and a bit in a dirty bitmap; writers set the value and then the bit, the reader clears a whole word of bits at once and takes the current values of the slots which were set.
+ * Neither set() nor take() allocate any objects or wait for a lock.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class CoalescingValues {
+
+	private int slotCount;
+	private AtomicLongArray values; //raw bits of the doubles, indexed by slot
+	private AtomicLongArray dirty; //one bit per slot
+
+	private AtomicLong coalesced = new AtomicLong(0);
+
+	/**
+	 * @param slotCount Count of slots.
+	 */
+	public CoalescingValues(int slotCount) {
+		this.slotCount = slotCount;
+		values = new AtomicLongArray(slotCount);
+		dirty = new AtomicLongArray((slotCount + 63) / 64);
+	}
+
+	/**
+	 * Sets the value of a slot, replacing a value which hasn't been taken yet. May be called concurrently from any count of threads.
+	 * @param slot The slot to set. 0<=slot<slotCount
+	 * @param value The new value.
+	 */
+	public void set(int slot, double value) {
+		values.set(slot, Double.doubleToRawLongBits(value));
+
+		int word = slot >>> 6;
+		long bit = 1L << (slot & 63);
+		long old;
+		do{
+			old = dirty.get(word);
+			if((old & bit) != 0){
+				coalesced.incrementAndGet(); //the reader will take the value just written together with the previous one
+				return;
+			}
+		}while(!dirty.compareAndSet(word, old, old | bit));
+	}
+
+	/**
+	 * Takes the latest values of all slots which were set since the last call. Must only be called by one thread at a time.
+	 * @param slots Gets the slots which were set, in ascending order. Must hold slotCount entries.
+	 * @param values Gets the latest value of each of these slots at the same index. Must hold slotCount entries.
+	 * @return The count of slots which were set.
+	 */
+	public int take(int[] slots, double[] values) {
+		int count = 0;
+		for(int word = 0; word < dirty.length(); word++){
+			if(dirty.get(word) == 0){
+				continue;
+			}
+			long bits = dirty.getAndSet(word, 0);
+			while(bits != 0){
+				int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if(slot < slotCount){
+					slots[count] = slot;
+					values[count] = Double.longBitsToDouble(this.values.get(slot));
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The count of values which got replaced by a newer one before being taken.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+}
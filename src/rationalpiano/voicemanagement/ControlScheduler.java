@@ -0,0 +1,114 @@
+package rationalpiano.voicemanagement;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Ticks an ITickable on its own thread at a fixed control rate, independent of the frame rate of the display.
+ * Deadlines are advanced by exactly one period per tick, so the rate doesn't drift with the duration of the ticks; if the thread falls behind by more than one period, the missed ticks are skipped instead of being caught up in a burst.
+ * While the ITickable is idle the thread sleeps until wakeUp() is called.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class ControlScheduler implements Runnable {
+
+	private ITickable tickable;
+	private long periodNanos;
+	private Runnable changeHandler;
+
+	private volatile Thread thread;
+	private volatile boolean running = false;
+
+	private volatile long overruns = 0;
+
+	private static final Logger logger = Logger.getLogger(ControlScheduler.class.getName());
+
+	/**
+	 * @param tickable The object to tick.
+	 * @param controlRate Ticks per second.
+	 * @param changeHandler Called on the scheduler thread after each tick which changed anything, eg. to make the display redraw; may be null.
+	 */
+	public ControlScheduler(ITickable tickable, double controlRate, Runnable changeHandler) {
+		this.tickable = tickable;
+		this.periodNanos = (long)(1e9 / controlRate);
+		this.changeHandler = changeHandler;
+	}
+
+	/**
+	 * Starts the scheduler thread.
+	 */
+	public synchronized void start() {
+		if(running){
+			return;
+		}
+		logger.info("Starting control rate scheduler with " + (1e9 / periodNanos) + " ticks per second");
+		running = true;
+		thread = new Thread(this, "ControlScheduler");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops the scheduler thread after the current tick.
+	 */
+	public synchronized void stop() {
+		running = false;
+		wakeUp();
+	}
+
+	/**
+	 * Wakes the scheduler thread up if it sleeps because the ticked object is idle. May be called from any thread.
+	 */
+	public void wakeUp() {
+		Thread t = thread;
+		if(t != null){
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * @return The count of times the scheduler fell behind by more than one period and skipped ticks.
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	@Override
+	public void run() {
+		long deadline = System.nanoTime();
+
+		while(running){
+			tickable.tick();
+
+			if(tickable.isChanged() && changeHandler != null){
+				changeHandler.run();
+			}
+
+			if(tickable.isIdle()){
+				//a wakeUp() after isIdle() leaves a permit, so park() returns immediately and no input gets lost
+				LockSupport.park(this);
+				deadline = System.nanoTime();
+				continue;
+			}
+
+			deadline += periodNanos;
+			long wait;
+			while((wait = deadline - System.nanoTime()) > 0 && running){
+				LockSupport.parkNanos(this, wait);
+			}
+
+			if(-wait > periodNanos){
+				overruns++;
+				logger.fine("Control rate scheduler fell behind by " + (-wait / 1000) + " microseconds, skipping ticks");
+				deadline = System.nanoTime();
+			}
+		}
+
+		thread = null;
+	}
+
+}
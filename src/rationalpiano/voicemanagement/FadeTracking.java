@@ -1,105 +1,177 @@
 package rationalpiano.voicemanagement;
 
+import rationalpiano.tuning.ITuning;
+
 /**
  * Holds ADSR values and provides methods to convert a holdtime with initial velocity to current velocity.
+ * All times are wall clock times in seconds, so the envelopes don't depend on the actual frame rate.
+ * The normalized curve of the chosen shape is precalculated into a lookup table, so evaluating a phase of the envelope is a table read and a multiplication; getExactVelocity() evaluates the curves directly and is kept as reference.
+ * Each voice runs through the envelope with its own attack, decay and release rates stored in the VoicePool, set by assignEnvelope() when the voice starts: the attack gets faster with the velocity and decay and release get faster towards higher pitches, like on a real piano.
+ * The pitch of a key is taken from the tuning, so key tracking follows the pitch in any tuning, not the count of keys.
  * 
  * @author Fabian Ehrentraud
- * @date 2010-07-26
- * @version 1.0
+ * @date 2026-10-19
+ * @version 1.5
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class FadeTracking {
 	
-	private float framerate;
+	/**
+	 * Possible shapes of the attack, decay and release curves.
+	 * LINEAR = straight lines; EXPONENTIAL = fast change at the beginning of a phase, slowing down towards its end like an analog envelope generator; SMOOTH = slow change at the beginning and the end of a phase (raised cosine).
+	 */
+	public enum envelopeShapes {LINEAR, EXPONENTIAL, SMOOTH}
+	
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	//resolution of the lookup table; the error of the linear shape is at most 0.5 / TABLE_SIZE, steeper shapes scale with their maximum slope
+	private static final int TABLE_SIZE = 4096;
+	
+	//time constant of the exponential shape, the curve reaches 1 - e^-EXPONENTIAL_CURVATURE before being normalized
+	private static final double EXPONENTIAL_CURVATURE = 5;
+	
+	//pitch at which key tracking doesn't change the decay and release times (middle C)
+	private static final double KEY_TRACKING_CENTER = 60;
 	
-	private int attack; //FIXME change attack, decay and release to delta value, not as tick-time. BUT then there is no if() for the time!
-	private int decay;
+	private double attack;
+	private double decay;
 	private double sustain;
-	private int release;
+	private double release;
 	
 	private boolean holdSustain;
 	
+	private envelopeShapes shape;
+	
+	private double attackVelocityTracking = 0;
+	private double keyTracking = 0;
+	private volatile ITuning tuning; //null if the keys are the pitches
+	
+	//rise[i] is the normalized curve at progress i / TABLE_SIZE, rising from 0 to 1
+	private double[] rise = new double[TABLE_SIZE + 1];
+	
+	//TABLE_SIZE / phase length, so progress * scale is a table index
+	private double attackScale;
+	private double decayScale;
+	private double releaseScale;
+	
 	/**
-	 * @param framerate Frame Rate of the target PApplet. Needed for scaling the attack, decay and release values which are given in seconds to frame counts.
+	 * Initializes with linear curves.
 	 * @param attack Attack time in seconds. Time the voice volume reaches the velocity after activating it.
 	 * @param decay Decay time in seconds. Time the voice volume reaches the sustain level after the attack phase.
 	 * @param sustain Fraction of the velocity value where a voice gets held at after attack + decay phase. 0<=sustain<=1.
 	 * @param release Release Time in seconds. Time the voice volume fades to 0 after releasing it.
 	 * @param holdSustain true if a voice should hold its sustain level after attack + decay phase; false = pluck mode: there is no decay phase at all, the release phase starts directly after the attack phase.
 	 */
-	public FadeTracking(float framerate, double attack, double decay, double sustain, double release, boolean holdSustain) {
-		this.framerate = framerate;
+	public FadeTracking(double attack, double decay, double sustain, double release, boolean holdSustain) {
+		this(attack, decay, sustain, release, holdSustain, envelopeShapes.LINEAR);
+	}
+	
+	/**
+	 * @param attack Attack time in seconds. Time the voice volume reaches the velocity after activating it.
+	 * @param decay Decay time in seconds. Time the voice volume reaches the sustain level after the attack phase.
+	 * @param sustain Fraction of the velocity value where a voice gets held at after attack + decay phase. 0<=sustain<=1.
+	 * @param release Release Time in seconds. Time the voice volume fades to 0 after releasing it.
+	 * @param holdSustain true if a voice should hold its sustain level after attack + decay phase; false = pluck mode: there is no decay phase at all, the release phase starts directly after the attack phase.
+	 * @param shape The shape of the attack, decay and release curves.
+	 */
+	public FadeTracking(double attack, double decay, double sustain, double release, boolean holdSustain, envelopeShapes shape) {
 		setAttack(attack);
 		setDecay(decay);
 		setSustain(sustain);
 		setRelease(release);
 		this.setHoldSustain(holdSustain);
+		setShape(shape);
 	}
 	
 	/**
-	 * Gets the current velocity (volume) of the given voice.
-	 * @param voice A voice to calculate its current state for.
-	 * @return The current velocity of the given voice. 0<=return<=1.
+	 * @param attack Attack time in seconds. Time the voice volume reaches the velocity after activating it.
+	 * @param decay Decay time in seconds. Time the voice volume reaches the sustain level after the attack phase.
+	 * @param sustain Fraction of the velocity value where a voice gets held at after attack + decay phase. 0<=sustain<=1.
+	 * @param release Release Time in seconds. Time the voice volume fades to 0 after releasing it.
+	 * @param holdSustain true if a voice should hold its sustain level after attack + decay phase; false = pluck mode: there is no decay phase at all, the release phase starts directly after the attack phase.
+	 * @param shape The shape of the attack, decay and release curves.
+	 * @param attackVelocityTracking How much faster the attack of a voice gets with its velocity: the attack time is divided by 1 + attackVelocityTracking * velocity. >=0
+	 * @param keyTracking How much faster decay and release get towards higher pitches: their times are halved every 12 / keyTracking semitones above middle C (and doubled below). >=0
 	 */
-	public double getCurrentVelocity(OneVoice voice){
-		//double initialVelocity, int holdtime, boolean released, int releasedtime
+	public FadeTracking(double attack, double decay, double sustain, double release, boolean holdSustain, envelopeShapes shape, double attackVelocityTracking, double keyTracking) {
+		this(attack, decay, sustain, release, holdSustain, shape);
+		setAttackVelocityTracking(attackVelocityTracking);
+		setKeyTracking(keyTracking);
+	}
+	
+	/**
+	 * Sets the envelope rates of a voice which was just started according to the pitch of its key and its velocity.
+	 * @param pool The pool which holds the voice.
+	 * @param slot The slot of the voice.
+	 * @param midiNoteNumber The key of the voice.
+	 */
+	public void assignEnvelope(VoicePool pool, int slot, int midiNoteNumber) {
+		double attackRate = 1 + attackVelocityTracking * pool.getInitialVelocity(slot);
+		double keyRate = 1;
+		if(keyTracking != 0){
+			ITuning t = tuning;
+			double pitch = (t == null) ? midiNoteNumber : t.getPitch(midiNoteNumber);
+			if(!Double.isNaN(pitch)){ //an unmapped key keeps the rates of middle C
+				keyRate = Math.pow(2, keyTracking * (pitch - KEY_TRACKING_CENTER) / 12.);
+			}
+		}
+		pool.setEnvelopeRates(slot, attackRate, keyRate, keyRate);
+	}
+	
+	/**
+	 * Gets the velocity (volume) of the voice in the given slot at the given time, using the precalculated curve.
+	 * @param pool The pool which holds the voice.
+	 * @param slot The slot of the voice to calculate its state for.
+	 * @param nanoTime The time to calculate the velocity at, as given by System.nanoTime(); must not be before the voice's start time.
+	 * @return The velocity of the given voice at the given time. 0<=return<=1.
+	 */
+	public double getCurrentVelocity(VoicePool pool, int slot, long nanoTime){
+		//time through the attack phase, scaled by the voice's rate
+		double attackTime = Math.max(0, nanoTime - pool.getStartTime(slot)) / NANOS_PER_SECOND * pool.getAttackRate(slot);
+		double velo;
+		
+		if(isReleasing(pool, slot)){
+			//released, fading out from the level the voice had at the release
+			velo = pool.getReleaseLevel(slot) * (1 - lookup(Math.max(0, nanoTime - pool.getReleaseTime(slot)) / NANOS_PER_SECOND * pool.getReleaseRate(slot), releaseScale));
+		}else if(attackTime < attack){
+			//in attack phase, NOT attacking from 0 but from the previous volume
+			velo = pool.getPreviousVolume(slot) + (pool.getInitialVelocity(slot) - pool.getPreviousVolume(slot)) * lookup(attackTime, attackScale);
+		}else if(holdSustain == true){
+			//decaying, the curve stays at 1 after the decay phase which holds the sustain level
+			velo = pool.getInitialVelocity(slot) * (1 - (1 - sustain) * lookup((attackTime - attack) / pool.getAttackRate(slot) * pool.getDecayRate(slot), decayScale));
+		}else{
+			//no decay phase, releasing right after attack
+			velo = pool.getInitialVelocity(slot) * (1 - lookup((attackTime - attack) / pool.getAttackRate(slot) * pool.getReleaseRate(slot), releaseScale));
+		}
 		
+		if(velo > 0){
+			return velo; 
+		} else {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Gets the velocity (volume) of the voice in the given slot at the given time, calculating the curve directly instead of using the lookup table.
+	 * Slower than getCurrentVelocity(), used as reference for the table's error.
+	 * @param pool The pool which holds the voice.
+	 * @param slot The slot of the voice to calculate its state for.
+	 * @param nanoTime The time to calculate the velocity at, as given by System.nanoTime(); must not be before the voice's start time.
+	 * @return The velocity of the given voice at the given time. 0<=return<=1.
+	 */
+	public double getExactVelocity(VoicePool pool, int slot, long nanoTime){
+		double holdtime = Math.max(0, nanoTime - pool.getStartTime(slot)) / NANOS_PER_SECOND;
+		double attackLength = attack / pool.getAttackRate(slot);
 		double velo;
 		
-		if(!voice.isReleased()){
-			//not yet released
-			
-			if(voice.getHoldtime() <= attack){
-				//in attack phase, NOT attacking from 0 but from voice.getPreviousVolume()
-				//processing.core.PApplet.println("A"); //debug
-				velo = voice.getPreviousVolume() + (voice.getInitialVelocity() - voice.getPreviousVolume()) * (voice.getHoldtime() / (double)attack);
-				//velo = voice.getInitialVelocity() * (voice.getHoldtime() / (double)attack); //attacking from 0
-			}else{
-				if(holdSustain == true){
-					//hold after attack + decay
-					if(voice.getHoldtime() <= attack + decay){
-						//still decaying
-						//processing.core.PApplet.println("D"); //debug
-						velo = voice.getInitialVelocity() * (1 - (1 - sustain) * (voice.getHoldtime() - attack) / (double)decay);
-					}else{
-						//finished decaying, sustaining
-						//processing.core.PApplet.println("S"); //debug
-						velo = voice.getInitialVelocity() * sustain;
-					}
-				}else{
-					//no decay phase, releasing right after attack
-					//processing.core.PApplet.println("pR"); //debug
-					velo = voice.getInitialVelocity() * (1 - ((voice.getHoldtime() - attack) / (double)release));
-				}
-			}
-			
+		if(isReleasing(pool, slot)){
+			velo = pool.getReleaseLevel(slot) * (1 - calculateCurve(shape, progress(Math.max(0, nanoTime - pool.getReleaseTime(slot)) / NANOS_PER_SECOND, release / pool.getReleaseRate(slot))));
+		}else if(holdtime < attackLength){
+			velo = pool.getPreviousVolume(slot) + (pool.getInitialVelocity(slot) - pool.getPreviousVolume(slot)) * calculateCurve(shape, progress(holdtime, attackLength));
+		}else if(holdSustain == true){
+			velo = pool.getInitialVelocity(slot) * (1 - (1 - sustain) * calculateCurve(shape, progress(holdtime - attackLength, decay / pool.getDecayRate(slot))));
 		}else{
-			//is released
-			
-			if(voice.getReleasedtime() <= attack){
-				//released in attack phase
-				//processing.core.PApplet.println("ar"); //debug
-				velo = (voice.getPreviousVolume() + (voice.getInitialVelocity() - voice.getPreviousVolume()) * (voice.getReleasedtime() / (double)attack)) * (1 - ((voice.getHoldtime() - voice.getReleasedtime()) / (double)release));
-				//velo = (voice.getInitialVelocity() * (voice.getReleasedtime() / (double)attack)) * (1 - ((voice.getHoldtime() - voice.getReleasedtime()) / (double)release)); //attacking from 0
-				//Mathematica: Manipulate[Plot[Piecewise[{{i*x/a, x <= rt}, {i*(rt/a)*(1 - ((x - rt)/r)),x > rt}}], {x, 0, rt + r}], {{rt, 20}, 0, 20}, {{a, 20}, 0, 20}, {{r, 20}, 0, 30}, {{i, 1}, 0, 1}]
-			}else{
-				if(holdSustain == true){
-					//hold after attack + decay
-					if(voice.getReleasedtime() <= attack + decay){
-						//released in decay phase
-						//processing.core.PApplet.println("d"); //debug
-						velo = (voice.getInitialVelocity() * (1 - (1 - sustain) * (voice.getReleasedtime() - attack) / (double)decay)) * (1 - ((voice.getHoldtime() - voice.getReleasedtime()) / (double)release));
-					}else{
-						//released in sustain phase
-						//processing.core.PApplet.println("r"); //debug
-						velo = voice.getInitialVelocity() * sustain * (1 - ((voice.getHoldtime() - voice.getReleasedtime()) / (double)release));
-					}
-				}else{
-					//no decay phase, releasing right after attack, releasing the voice doesn't make any difference
-					//processing.core.PApplet.println("pr"); //debug
-					velo = voice.getInitialVelocity() * (1 - ((voice.getHoldtime() - attack) / (double)release));
-				}
-			}
+			velo = pool.getInitialVelocity(slot) * (1 - calculateCurve(shape, progress(holdtime - attackLength, release / pool.getReleaseRate(slot))));
 		}
 		
 		if(velo > 0){
@@ -109,11 +181,110 @@ public class FadeTracking {
 		}
 	}
 	
+	/**
+	 * @return true if the voice is in its release phase; in pluck mode releasing the voice only makes a difference during the attack phase.
+	 */
+	private boolean isReleasing(VoicePool pool, int slot) {
+		return pool.isReleased(slot) && (holdSustain == true || (pool.getReleaseTime(slot) - pool.getStartTime(slot)) * pool.getAttackRate(slot) < attack * NANOS_PER_SECOND);
+	}
+	
+	/**
+	 * @param time Time since the beginning of the phase in seconds.
+	 * @param scale TABLE_SIZE divided by the length of the phase.
+	 * @return The value of the curve, 1 after the end of the phase.
+	 */
+	private double lookup(double time, double scale) {
+		double position = time * scale;
+		if(position >= TABLE_SIZE){
+			return rise[TABLE_SIZE];
+		}
+		return rise[(int)(position + 0.5)]; //a NaN position (zero length phase at time 0) becomes index 0
+	}
+	
+	/**
+	 * @return The progress through a phase, between 0 and 1.
+	 */
+	private static double progress(double time, double length) {
+		return (time >= length) ? 1 : time / length;
+	}
+	
+	/**
+	 * @param shape The shape of the curve.
+	 * @param x Progress through the phase. 0<=x<=1.
+	 * @return The normalized curve, rising from 0 at x=0 to 1 at x=1.
+	 */
+	private static double calculateCurve(envelopeShapes shape, double x) {
+		switch(shape){
+			case EXPONENTIAL:
+				return (1 - Math.exp(-EXPONENTIAL_CURVATURE * x)) / (1 - Math.exp(-EXPONENTIAL_CURVATURE));
+			case SMOOTH:
+				return (1 - Math.cos(Math.PI * x)) / 2;
+			default:
+				return x;
+		}
+	}
+	
+	/**
+	 * @return The shape of the attack, decay and release curves.
+	 */
+	public envelopeShapes getShape() {
+		return shape;
+	}
+	
+	/**
+	 * Sets the shape of the attack, decay and release curves and precalculates the lookup table.
+	 * @param shape The shape of the curves.
+	 */
+	public void setShape(envelopeShapes shape) {
+		this.shape = shape;
+		for(int i = 0; i <= TABLE_SIZE; i++){
+			rise[i] = calculateCurve(shape, i / (double)TABLE_SIZE);
+		}
+	}
+	
+	/**
+	 * @return How much faster the attack of a voice gets with its velocity.
+	 */
+	public double getAttackVelocityTracking() {
+		return attackVelocityTracking;
+	}
+	
+	/**
+	 * Sets how much faster the attack of a voice gets with its velocity. Affects voices started afterwards.
+	 * @param attackVelocityTracking The attack time is divided by 1 + attackVelocityTracking * velocity. Must be >=0.
+	 */
+	public void setAttackVelocityTracking(double attackVelocityTracking) {
+		this.attackVelocityTracking = attackVelocityTracking;
+	}
+	
+	/**
+	 * @return How much faster decay and release get towards higher pitches.
+	 */
+	public double getKeyTracking() {
+		return keyTracking;
+	}
+	
+	/**
+	 * Sets how much faster decay and release get towards higher pitches. Affects voices started afterwards.
+	 * @param keyTracking Decay and release times are halved every 12 / keyTracking semitones above middle C (and doubled below). Must be >=0.
+	 */
+	public void setKeyTracking(double keyTracking) {
+		this.keyTracking = keyTracking;
+	}
+	
+	/**
+	 * Sets the tuning which gives the pitches of the keys for key tracking. Affects voices started afterwards; may be called from any thread.
+	 * @param tuning The tuning, or null to use the keys as pitches (12TET).
+	 */
+	public void setTuning(ITuning tuning) {
+		this.tuning = tuning;
+	}
+	
 	/**
 	 * @return The attack value in seconds.
 	 */
-	public int getAttack() {
-		return (int) (attack / framerate);
+	public double getAttack() {
+		return attack;
 	}
 	
 	/**
@@ -121,14 +292,15 @@ public class FadeTracking {
 	 * @param attack The attack value in seconds. Must be >=0.
 	 */
 	public void setAttack(double attack) {
-		this.attack = (int) (attack * this.framerate);
+		this.attack = attack;
+		this.attackScale = TABLE_SIZE / attack;
 	}
 	
 	/**
 	 * @return The decay value in seconds.
 	 */
-	public int getDecay() {
-		return (int) (decay / framerate);
+	public double getDecay() {
+		return decay;
 	}
 	
 	/**
@@ -136,7 +308,8 @@ public class FadeTracking {
 	 * @param decay The decay value in seconds. Must be >=0.
 	 */
 	public void setDecay(double decay) {
-		this.decay = (int) (decay * this.framerate);
+		this.decay = decay;
+		this.decayScale = TABLE_SIZE / decay;
 	}
 	
 	/**
@@ -157,8 +330,8 @@ public class FadeTracking {
 	/**
 	 * @return The release value in seconds.
 	 */
-	public int getRelease() {
-		return (int) (release / framerate);
+	public double getRelease() {
+		return release;
 	}
 	
 	/**
@@ -166,7 +339,8 @@ public class FadeTracking {
 	 * @param release The release value in seconds. Must be >= 0.
 	 */
 	public void setRelease(double release) {
-		this.release = (int) (release * framerate);
+		this.release = release;
+		this.releaseScale = TABLE_SIZE / release;
 	}
 
 	/**
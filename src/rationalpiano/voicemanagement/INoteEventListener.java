@@ -0,0 +1,28 @@
+package rationalpiano.voicemanagement;
+
+/**
+ * Receives the note events of all input devices in the order they were received, called from the ticking thread.
+ * 
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.1
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public interface INoteEventListener {
+
+	/**
+	 * Possible types of note events
+	 */
+	public enum eventTypes {NOTE_ON, NOTE_OFF, SUSTAIN}
+
+	/**
+	 * Called for every note event. Must return quickly and must not keep references to anything, as it is called from the ticking thread.
+	 * @param type Type of the event.
+	 * @param channel Index of the voice set (MIDI channel) the event belongs to.
+	 * @param midiNoteNumber MIDI note number of the event; unused for SUSTAIN events.
+	 * @param velocity Velocity of a NOTE_ON event, 0<=velocity<=1; 1 for sustain on and 0 for sustain off; unused for NOTE_OFF events.
+	 * @param nanoTime Time the event was received at, as given by System.nanoTime().
+	 */
+	public abstract void noteEvent(eventTypes type, int channel, int midiNoteNumber, double velocity, long nanoTime);
+
+}
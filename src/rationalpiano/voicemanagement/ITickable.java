@@ -4,15 +4,40 @@ package rationalpiano.voicemanagement;
  * Provides a function wich allows to do (periodic) recalculations
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-15
- * @version 1.0
+ * @date 2026-10-19
+ * @version 1.4
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public interface ITickable {
+	
+	/**
+	 * Possible ways to drive tick(): once per drawn frame on the drawing thread, at a fixed control rate by a ControlScheduler on its own thread, or once per drawn frame by a PipelineWorker on its own thread while the previous frame gets drawn (one frame of latency)
+	 */
+	public enum tickModes {FRAME, SCHEDULER, PIPELINED}
 
 	/**
 	 * Advances one frame causing recalculation.
 	 */
 	public abstract void tick();
+	
+	/**
+	 * Must be called from the ticking thread.
+	 * @return true if the last call of tick() changed anything that needs to be drawn.
+	 */
+	public abstract boolean isChanged();
+	
+	/**
+	 * Tells whether further calls of tick() would not change anything until new input arrives.
+	 * When the caller stops ticking because of this, it gets woken up by the wake up handler when input arrives.
+	 * Must be called from the ticking thread, or from another thread while no tick is running and the end of the last one is visible to it, eg. after PipelineWorker.isBusy() returned false.
+	 * @return true if nothing is going on and no input is waiting to be processed.
+	 */
+	public abstract boolean isIdle();
+	
+	/**
+	 * Sets the handler which gets called when input arrives after isIdle() returned true, so the caller can resume ticking.
+	 * @param wakeUpHandler Handler to run, called from the thread the input arrives on.
+	 */
+	public abstract void setWakeUpHandler(Runnable wakeUpHandler);
 
 }
\ No newline at end of file
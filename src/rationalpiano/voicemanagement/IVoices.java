@@ -1,38 +1,112 @@
 package rationalpiano.voicemanagement;
 
+import rationalpiano.tuning.ITuning;
+
 /**
  * Manages all active voices and provides functions to add/remove voices and to calculate the consonances of all keys in range which also sets the visual element strengthness
+ * Voices are kept in separate sets per channel (eg. MIDI channel), so several players can play the same keys independently; the methods without a channel use channel 0.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-15
- * @version 1.0
+ * @date 2026-10-19
+ * @version 1.5
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public interface IVoices extends ITickable {
 
+	/**
+	 * Possible policies to choose the voice to steal when a new voice is started and the polyphony limit is reached:
+	 * the voice which was started first, the one with the lowest current volume, or the one with the lowest consonance in the last tick
+	 */
+	public enum stealingPolicies {OLDEST, QUIETEST, MOST_DISSONANT}
+
 	/**
 	 * Adds a new voice with the given MIDI note number
-	 * Can be concurrently called with tick() or releaseVoice().
+	 * Can be concurrently called with tick() or releaseVoice() from any thread; the voice gets started at the beginning of the next tick().
 	 * @param midiNoteNumber MIDI note number to turn on
 	 * @param velocity velocity to turn the given note on with; 0<=velocity<=1
-	 * @return true if the given MIDI note was turned off before and now is turned on, false otherwise
+	 * @return true if the given MIDI note is in range and the event got queued, false otherwise
 	 */
 	public abstract boolean newVoice(int midiNoteNumber, double velocity);
 
+	/**
+	 * Adds a new voice with the given MIDI note number to the voice set of the given channel
+	 * Can be concurrently called with tick() or releaseVoice() from any thread; the voice gets started at the beginning of the next tick().
+	 * @param channel channel (eg. MIDI channel) of the voice; channels beyond the count of voice sets get wrapped around
+	 * @param midiNoteNumber MIDI note number to turn on
+	 * @param velocity velocity to turn the given note on with; 0<=velocity<=1
+	 * @return true if the given MIDI note is in range and the event got queued, false otherwise
+	 */
+	public abstract boolean newVoice(int channel, int midiNoteNumber, double velocity);
+
 	/**
 	 * Releases the given voice. This will start the voice's release phase.
-	 * Can be concurrently called with tick() or newVoice().
+	 * Can be concurrently called with tick() or newVoice() from any thread; the voice gets released at the beginning of the next tick().
 	 * @param midiNoteNumber MIDI note number to turn off
-	 * @return true if the given MIDI note was turned on before and thus was turned off, false otherwise
+	 * @return true if the given MIDI note is in range and the event got queued, false otherwise
 	 */
 	public abstract boolean releaseVoice(int midiNoteNumber);
+
+	/**
+	 * Releases the given voice of the voice set of the given channel. This will start the voice's release phase.
+	 * Can be concurrently called with tick() or newVoice() from any thread; the voice gets released at the beginning of the next tick().
+	 * @param channel channel (eg. MIDI channel) of the voice; channels beyond the count of voice sets get wrapped around
+	 * @param midiNoteNumber MIDI note number to turn off
+	 * @return true if the given MIDI note is in range and the event got queued, false otherwise
+	 */
+	public abstract boolean releaseVoice(int channel, int midiNoteNumber);
 	
 	/**
 	 * Sets the sustain value to the given one.
 	 * Activated sustain will not release held voices, even if releaseVoices() is called for them.
 	 * This is active until sustain is turned off again.
+	 * Can be called from any thread, the change takes effect at the beginning of the next tick().
 	 * @param sustain True when sustain should be activated, False otherwise.
 	 */
 	public abstract void setSustain(boolean sustain);
+	
+	/**
+	 * Sets the sustain value of the voice set of the given channel to the given one.
+	 * Can be called from any thread, the change takes effect at the beginning of the next tick().
+	 * @param channel channel (eg. MIDI channel) to set the sustain of; channels beyond the count of voice sets get wrapped around
+	 * @param sustain True when sustain should be activated, False otherwise.
+	 */
+	public abstract void setSustain(int channel, boolean sustain);
+	
+	/**
+	 * Changes the velocity of a held voice continuously, eg. by polyphonic aftertouch; the voice's envelope continues with the new velocity as its level.
+	 * Can be called at high rates from any thread: all updates of the same key and channel until the next tick() are coalesced into the latest one, which gets applied at the beginning of the next tick().
+	 * Ignored for keys without a voice or with an already released one.
+	 * @param channel channel (eg. MIDI channel) of the voice; channels beyond the count of voice sets get wrapped around
+	 * @param midiNoteNumber MIDI note number of the voice
+	 * @param pressure the new velocity; 0<=pressure<=1
+	 * @return true if the given MIDI note is in range, false otherwise
+	 */
+	public abstract boolean setPressure(int channel, int midiNoteNumber, double pressure);
+	
+	/**
+	 * Adds a listener which gets all note events (note on, note off and sustain changes) in the order they were received, called from the ticking thread right before they are applied.
+	 * @param listener The listener to add.
+	 */
+	public abstract void addNoteEventListener(INoteEventListener listener);
+	
+	/**
+	 * Applies the latest state published by tick() (consonances and pressed keys) to the graphic elements.
+	 * Must be called from the drawing thread, which may be a different one than the ticking thread.
+	 * @return true if a new state was applied since the last call, false if the graphic elements are unchanged.
+	 */
+	public abstract boolean updateGraphics();
+	
+	/**
+	 * May be called from any thread.
+	 * @return true if tick() published a state which the next call of updateGraphics() will apply.
+	 */
+	public abstract boolean isGraphicsUpdateAvailable();
+	
+	/**
+	 * Changes the tuning which maps keys to pitches.
+	 * Returns immediately, the new tuning gets prepared in the background and tick() keeps using the previous one until it is ready.
+	 * @param tuning The new tuning.
+	 */
+	public abstract void setTuning(ITuning tuning);
 
 }
\ No newline at end of file
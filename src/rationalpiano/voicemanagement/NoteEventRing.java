@@ -0,0 +1,138 @@
+package rationalpiano.voicemanagement;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import rationalpiano.voicemanagement.INoteEventListener.eventTypes;
+
+/**
+ * A bounded lock-free ring buffer of preallocated note events which may be filled by several threads and is emptied by a single one.
+ * Every slot has a sequence number which tells producers whether it is free and the consumer whether it has been completely written (after D. Vyukov's bounded queue).
+ * Producers claim a slot with a compare-and-set on the tail position, so no thread ever waits for a lock; the events stay in the order in which their slots were claimed.
+ * Neither offer() nor drain() allocate any objects.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.3
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class NoteEventRing {
+
+	private int mask;
+
+	//indexed by position & mask
+	private AtomicLongArray sequences;
+	private eventTypes[] types;
+	private int[] channels;
+	private int[] midiNoteNumbers;
+	private double[] velocities;
+	private long[] nanoTimes;
+
+	private AtomicLong tail = new AtomicLong(0); //next position to write, shared by the producers
+	private long head = 0; //next position to read, only used by the consumer
+
+	private AtomicLong dropped = new AtomicLong(0);
+
+	/**
+	 * @param capacity Maximum count of events which can be held until drain() is called. Gets rounded up to the next power of two.
+	 */
+	public NoteEventRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+
+		sequences = new AtomicLongArray(size);
+		types = new eventTypes[size];
+		channels = new int[size];
+		midiNoteNumbers = new int[size];
+		velocities = new double[size];
+		nanoTimes = new long[size];
+
+		for(int i = 0; i < size; i++){
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Adds an event. May be called concurrently from any count of threads.
+	 * @param type Type of the event.
+	 * @param channel Voice set (MIDI channel) of the event.
+	 * @param midiNoteNumber MIDI note number of the event.
+	 * @param velocity Velocity of the event.
+	 * @return true if the event was added, false if the ring was full and the event got dropped.
+	 */
+	public boolean offer(eventTypes type, int channel, int midiNoteNumber, double velocity) {
+		long nanoTime = System.nanoTime();
+		long position;
+
+		while(true){
+			position = tail.get();
+			long diff = sequences.get((int)position & mask) - position;
+			if(diff == 0){
+				if(tail.compareAndSet(position, position + 1)){
+					break;
+				}
+			}else if(diff < 0){
+				//the consumer hasn't freed this slot yet
+				dropped.incrementAndGet();
+				return false;
+			}
+			//else another producer claimed this position in the meantime, try the next one
+		}
+
+		int index = (int)position & mask;
+		types[index] = type;
+		channels[index] = channel;
+		midiNoteNumbers[index] = midiNoteNumber;
+		velocities[index] = velocity;
+		nanoTimes[index] = nanoTime;
+		sequences.set(index, position + 1); //publish, the volatile write makes the fields above visible to the consumer
+
+		return true;
+	}
+
+	/**
+	 * Passes all completely written events to the given listener in order and frees their slots.
+	 * Must only be called by one thread at a time.
+	 * @param listener The listener to pass the events to.
+	 * @return The count of events passed.
+	 */
+	public int drain(INoteEventListener listener) {
+		int count = 0;
+
+		while(true){
+			int index = (int)head & mask;
+			if(sequences.get(index) != head + 1){
+				//empty or the next event is still being written
+				return count;
+			}
+
+			eventTypes type = types[index];
+			int channel = channels[index];
+			int midiNoteNumber = midiNoteNumbers[index];
+			double velocity = velocities[index];
+			long nanoTime = nanoTimes[index];
+
+			sequences.set(index, head + mask + 1); //free the slot for the next round before calling the listener, so a failing listener can't block the ring
+			head++;
+			count++;
+
+			listener.noteEvent(type, channel, midiNoteNumber, velocity, nanoTime);
+		}
+	}
+
+	/**
+	 * Must only be called by the thread which calls drain(), or by another thread while drain() isn't running and the end of its last call is visible to it.
+	 * @return true if no event is waiting, including events which are still being written.
+	 */
+	public boolean isEmpty() {
+		return tail.get() == head;
+	}
+
+	/**
+	 * @return The count of events which got dropped because the ring was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+}
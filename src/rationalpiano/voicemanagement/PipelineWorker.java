@@ -0,0 +1,106 @@
+package rationalpiano.voicemanagement;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Ticks an ITickable on its own thread once per trigger, so the drawing thread can draw frame N while the next frame gets calculated.
+ * The drawing thread takes the state published by the last tick at the start of a frame and then calls trigger(), which adds one frame of latency.
+ * If the previous tick hasn't finished when trigger() gets called, no new tick is started and the frame is drawn with the state it already has (a stall).
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class PipelineWorker implements Runnable {
+
+	private ITickable tickable;
+
+	private volatile Thread thread;
+	private volatile boolean running = false;
+	private AtomicBoolean busy = new AtomicBoolean(false);
+
+	private volatile long stalls = 0;
+
+	private static final Logger logger = Logger.getLogger(PipelineWorker.class.getName());
+
+	/**
+	 * @param tickable The object to tick.
+	 */
+	public PipelineWorker(ITickable tickable) {
+		this.tickable = tickable;
+	}
+
+	/**
+	 * Starts the worker thread.
+	 */
+	public synchronized void start() {
+		if(running){
+			return;
+		}
+		logger.info("Starting pipelined ticking");
+		running = true;
+		thread = new Thread(this, "PipelineWorker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the worker thread after the current tick.
+	 */
+	public synchronized void stop() {
+		running = false;
+		Thread t = thread;
+		if(t != null){
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Starts the calculation of the next frame on the worker thread. Must only be called by the drawing thread.
+	 * @return false if the previous tick is still running, so no new one was started.
+	 */
+	public boolean trigger() {
+		if(!busy.compareAndSet(false, true)){
+			stalls++;
+			logger.fine("Pipelined tick didn't finish within one frame");
+			return false;
+		}
+		Thread t = thread;
+		if(t != null){
+			LockSupport.unpark(t);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if a tick was triggered and hasn't finished yet. When this returns false, the results of the last tick are visible to the caller.
+	 */
+	public boolean isBusy() {
+		return busy.get();
+	}
+
+	/**
+	 * @return The count of frames at which the previous tick hadn't finished yet.
+	 */
+	public long getStalls() {
+		return stalls;
+	}
+
+	@Override
+	public void run() {
+		while(running){
+			if(busy.get()){
+				tickable.tick();
+				busy.set(false);
+			}else{
+				LockSupport.park(this);
+			}
+		}
+
+		thread = null;
+	}
+
+}
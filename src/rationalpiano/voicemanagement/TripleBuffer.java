@@ -0,0 +1,77 @@
+package rationalpiano.voicemanagement;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes states from one writing thread to one reading thread without locks and without either of them ever waiting.
+ * Holds three preallocated buffers: the writer fills its back buffer and publishes it by swapping it with the middle one, the reader takes the middle one if a new state was published since it last looked.
+ * So the reader always gets the latest completely written state, which isn't touched by the writer until the reader gives it back; intermediate states may get skipped.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class TripleBuffer<T> {
+
+	private static final int INDEX_MASK = 3;
+	private static final int NEW_FLAG = 4;
+
+	private T[] buffers;
+	private int writeIndex = 0; //only used by the writer
+	private int readIndex = 1; //only used by the reader
+	private AtomicInteger middle = new AtomicInteger(2); //index of the middle buffer, NEW_FLAG set if it was published after the reader took the last one
+
+	/**
+	 * @param first First preallocated buffer.
+	 * @param second Second preallocated buffer.
+	 * @param third Third preallocated buffer.
+	 */
+	@SuppressWarnings("unchecked")
+	public TripleBuffer(T first, T second, T third) {
+		buffers = (T[])new Object[]{first, second, third};
+	}
+
+	/**
+	 * Must only be called by the writing thread.
+	 * @return The buffer to write the next state into. Its content is an older state and has to be overwritten completely.
+	 */
+	public T getWriteBuffer() {
+		return buffers[writeIndex];
+	}
+
+	/**
+	 * Publishes the write buffer to the reader. Must only be called by the writing thread.
+	 */
+	public void publish() {
+		writeIndex = middle.getAndSet(writeIndex | NEW_FLAG) & INDEX_MASK;
+	}
+
+	/**
+	 * Takes the latest published state, if there is a new one. Must only be called by the reading thread.
+	 * @return true if a new state was published since the last call and getReadBuffer() now returns it.
+	 */
+	public boolean update() {
+		if((middle.get() & NEW_FLAG) == 0){
+			return false;
+		}
+		readIndex = middle.getAndSet(readIndex) & INDEX_MASK;
+		return true;
+	}
+
+	/**
+	 * @return true if a new state was published which update() would take.
+	 */
+	public boolean isUpdateAvailable() {
+		return (middle.get() & NEW_FLAG) != 0;
+	}
+
+	/**
+	 * Must only be called by the reading thread.
+	 * @return The state taken by the last successful call of update().
+	 */
+	public T getReadBuffer() {
+		return buffers[readIndex];
+	}
+
+}
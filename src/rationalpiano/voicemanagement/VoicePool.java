@@ -0,0 +1,344 @@
+package rationalpiano.voicemanagement;
+
+/**
+ * Holds the state of all voices in preallocated primitive arrays with one slot per key, so that starting, retriggering and removing voices never allocates.
+ * The slots of the active voices are additionally kept in a dense list, so iterating over the active voices doesn't have to scan all slots and removing a voice from the list is O(1) (the last entry is moved into the gap).
+ * Every voice also has its own rates for the attack, decay and release phases, which speed up (>1) or slow down (<1) the shared envelope, eg. depending on its key or velocity.
+ * Every active voice also has a priority and is kept in a binary min-heap on it, so the voice with the lowest priority (the one to steal when the polyphony is exhausted) is found in O(1) and priorities are changed in O(log n).
+ * Not thread safe, the caller has to synchronize.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.6
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class VoicePool {
+
+	//indexed by slot
+	private double[] initialVelocity;
+	private double[] previousVolume;
+	private long[] startTime;
+	private long[] releaseTime;
+	private double[] releaseLevel;
+	private double[] attackRate;
+	private double[] decayRate;
+	private double[] releaseRate;
+	private boolean[] released;
+	private boolean[] releasePending;
+	private int[] activePosition; //position in activeSlots, -1 if not active
+	private long[] priority; //doubles get stored as order preserving bits, so times from System.nanoTime() keep their full precision
+	private int[] heapPosition; //position in heap
+
+	//dense list of active slots
+	private int[] activeSlots;
+	private int activeCount = 0;
+
+	//binary min-heap of active slots on their priority, holds activeCount entries
+	private int[] heap;
+
+	/**
+	 * @param slotCount Count of slots, one per key.
+	 */
+	public VoicePool(int slotCount) {
+		initialVelocity = new double[slotCount];
+		previousVolume = new double[slotCount];
+		startTime = new long[slotCount];
+		releaseTime = new long[slotCount];
+		releaseLevel = new double[slotCount];
+		attackRate = new double[slotCount];
+		decayRate = new double[slotCount];
+		releaseRate = new double[slotCount];
+		released = new boolean[slotCount];
+		releasePending = new boolean[slotCount];
+		activePosition = new int[slotCount];
+		activeSlots = new int[slotCount];
+		priority = new long[slotCount];
+		heapPosition = new int[slotCount];
+		heap = new int[slotCount];
+
+		for(int slot = 0; slot < slotCount; slot++){
+			activePosition[slot] = -1;
+		}
+	}
+
+	/**
+	 * Starts the voice in the given slot, or retriggers it if it is already active, which resets all parameters except its priority.
+	 * A new voice gets the priority 0; the envelope rates get reset to 1.
+	 * @param slot The slot of the voice.
+	 * @param velocity The velocity the key has been struck with. Between 0 and 1.
+	 * @param previousVolume The volume the voice had when it was retriggered, 0 for a new voice. Between 0 and 1.
+	 * @param nanoTime The time the key has been struck at, as given by System.nanoTime().
+	 */
+	public void start(int slot, double velocity, double previousVolume, long nanoTime) {
+		initialVelocity[slot] = velocity;
+		this.previousVolume[slot] = previousVolume;
+		startTime[slot] = nanoTime;
+		releaseTime[slot] = nanoTime;
+		released[slot] = false;
+		releasePending[slot] = false;
+		attackRate[slot] = 1;
+		decayRate[slot] = 1;
+		releaseRate[slot] = 1;
+
+		if(activePosition[slot] < 0){
+			activePosition[slot] = activeCount;
+			activeSlots[activeCount] = slot;
+			priority[slot] = 0;
+			heap[activeCount] = slot;
+			heapPosition[slot] = activeCount;
+			activeCount++;
+			siftUp(activeCount - 1);
+		}
+	}
+
+	/**
+	 * Removes the voice in the given slot from the active voices in O(log n). Does nothing if it isn't active.
+	 * The last entry of the active list gets moved to the position of the removed one, so when removing while iterating, iterate from the back.
+	 * @param slot The slot of the voice.
+	 */
+	public void remove(int slot) {
+		int position = activePosition[slot];
+		if(position < 0){
+			return;
+		}
+
+		int last = activeSlots[--activeCount];
+		activeSlots[position] = last;
+		activePosition[last] = position;
+		activePosition[slot] = -1;
+		releasePending[slot] = false;
+
+		//move the last heap entry into the gap and restore the heap order
+		int gap = heapPosition[slot];
+		int lastHeap = heap[activeCount];
+		if(lastHeap != slot){
+			heap[gap] = lastHeap;
+			heapPosition[lastHeap] = gap;
+			siftUp(gap);
+			siftDown(heapPosition[lastHeap]);
+		}
+	}
+
+	/**
+	 * Changes the priority of an active voice in O(log n).
+	 * @param slot The slot of the voice, must be active.
+	 * @param priority The new priority; the voice with the lowest priority gets returned by getLowestPrioritySlot().
+	 */
+	public void setPriority(int slot, double priority) {
+		long bits = Double.doubleToLongBits(priority + 0.); //+ 0. turns -0 into 0
+		setPriority(slot, bits ^ ((bits >> 63) & Long.MAX_VALUE)); //negative doubles in reversed order
+	}
+
+	/**
+	 * Changes the priority of an active voice in O(log n). Priorities set as doubles compare to these like the longs they are stored as; 0 is the same in both.
+	 * @param slot The slot of the voice, must be active.
+	 * @param priority The new priority, eg. a time from System.nanoTime(); the voice with the lowest priority gets returned by getLowestPrioritySlot().
+	 */
+	public void setPriority(int slot, long priority) {
+		long previous = this.priority[slot];
+		this.priority[slot] = priority;
+		if(priority < previous){
+			siftUp(heapPosition[slot]);
+		}else{
+			siftDown(heapPosition[slot]);
+		}
+	}
+
+	/**
+	 * @return The slot of the active voice with the lowest priority in O(1); -1 if no voice is active.
+	 */
+	public int getLowestPrioritySlot() {
+		return (activeCount > 0) ? heap[0] : -1;
+	}
+
+	/**
+	 * Moves the heap entry at the given position up until its parent has a lower or equal priority.
+	 */
+	private void siftUp(int position) {
+		int slot = heap[position];
+		while(position > 0){
+			int parent = (position - 1) / 2;
+			if(priority[heap[parent]] <= priority[slot]){
+				break;
+			}
+			heap[position] = heap[parent];
+			heapPosition[heap[position]] = position;
+			position = parent;
+		}
+		heap[position] = slot;
+		heapPosition[slot] = position;
+	}
+
+	/**
+	 * Moves the heap entry at the given position down until its children have higher or equal priorities.
+	 */
+	private void siftDown(int position) {
+		int slot = heap[position];
+		while(true){
+			int child = 2 * position + 1;
+			if(child >= activeCount){
+				break;
+			}
+			if(child + 1 < activeCount && priority[heap[child + 1]] < priority[heap[child]]){
+				child++;
+			}
+			if(priority[slot] <= priority[heap[child]]){
+				break;
+			}
+			heap[position] = heap[child];
+			heapPosition[heap[position]] = position;
+			position = child;
+		}
+		heap[position] = slot;
+		heapPosition[slot] = position;
+	}
+
+	/**
+	 * Sets the voice in the given slot as released. Only possible once per start.
+	 * @param slot The slot of the voice.
+	 * @param nanoTime The time the key has been released at, as given by System.nanoTime().
+	 * @param level The volume the voice had when it was released, where the release phase starts from.
+	 */
+	public void release(int slot, long nanoTime, double level) {
+		if(released[slot] == false){
+			released[slot] = true;
+			releaseTime[slot] = nanoTime;
+			releaseLevel[slot] = level;
+		}
+		releasePending[slot] = false;
+	}
+
+	/**
+	 * Changes the velocity of an already started voice, eg. by aftertouch. The envelope then continues with the new velocity as its level.
+	 * @param slot The slot of the voice.
+	 * @param velocity The new velocity. Between 0 and 1.
+	 */
+	public void setVelocity(int slot, double velocity) {
+		initialVelocity[slot] = velocity;
+	}
+
+	/**
+	 * Sets the rates at which the voice in the given slot runs through the phases of the envelope. A rate of 2 makes a phase take half of its time.
+	 * @param slot The slot of the voice.
+	 * @param attackRate Rate of the attack phase. >0
+	 * @param decayRate Rate of the decay phase. >0
+	 * @param releaseRate Rate of the release phase. >0
+	 */
+	public void setEnvelopeRates(int slot, double attackRate, double decayRate, double releaseRate) {
+		this.attackRate[slot] = attackRate;
+		this.decayRate[slot] = decayRate;
+		this.releaseRate[slot] = releaseRate;
+	}
+
+	/**
+	 * @return The count of active voices.
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * @param index Index into the list of active voices. 0<=index<getActiveCount()
+	 * @return The slot of the active voice at the given index.
+	 */
+	public int getActiveSlot(int index) {
+		return activeSlots[index];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return true if the voice in the given slot is active.
+	 */
+	public boolean isActive(int slot) {
+		return activePosition[slot] >= 0;
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return If the voice in the given slot is already released.
+	 */
+	public boolean isReleased(int slot) {
+		return released[slot];
+	}
+
+	/**
+	 * Marks the voice in the given slot to be released as soon as the sustain gets turned off.
+	 * @param slot The slot of the voice.
+	 */
+	public void setReleasePending(int slot) {
+		releasePending[slot] = true;
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return If the voice in the given slot waits to be released when the sustain gets turned off.
+	 */
+	public boolean isReleasePending(int slot) {
+		return releasePending[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The velocity the voice in the given slot has been struck with, or the latest one set by setVelocity(). Between 0 and 1.
+	 */
+	public double getInitialVelocity(int slot) {
+		return initialVelocity[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The volume the voice in the given slot had when it was retriggered.
+	 */
+	public double getPreviousVolume(int slot) {
+		return previousVolume[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The time the voice in the given slot has been started at, as given by System.nanoTime().
+	 */
+	public long getStartTime(int slot) {
+		return startTime[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The time the voice in the given slot has been released at, as given by System.nanoTime(); only valid if isReleased() is true.
+	 */
+	public long getReleaseTime(int slot) {
+		return releaseTime[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The volume the voice in the given slot had when it was released; only valid if isReleased() is true.
+	 */
+	public double getReleaseLevel(int slot) {
+		return releaseLevel[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The rate of the attack phase of the voice in the given slot.
+	 */
+	public double getAttackRate(int slot) {
+		return attackRate[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The rate of the decay phase of the voice in the given slot.
+	 */
+	public double getDecayRate(int slot) {
+		return decayRate[slot];
+	}
+
+	/**
+	 * @param slot The slot of the voice.
+	 * @return The rate of the release phase of the voice in the given slot.
+	 */
+	public double getReleaseRate(int slot) {
+		return releaseRate[slot];
+	}
+
+}
@@ -0,0 +1,66 @@
+package rationalpiano.voicemanagement;
+
+/**
+ * The state of all keys after one tick, as needed for drawing: the consonance of each key and whether it is pressed.
+ * Gets filled by Voices on the ticking thread and is read-only for everyone else once it's published.
+ *
+ * @author Fabian Ehrentraud
+ * @date 2026-10-19
+ * @version 1.0
+ * @licence Licensed under the Open Software License (OSL 3.0)
+ */
+public class VoiceSnapshot {
+
+	//indexed by key - notestart
+	private double[] consonances;
+	private boolean[] keysPressed;
+	private long nanoTime;
+
+	/**
+	 * @param notecount Count of keys.
+	 */
+	VoiceSnapshot(int notecount) {
+		consonances = new double[notecount];
+		keysPressed = new boolean[notecount];
+	}
+
+	/**
+	 * Overwrites the whole state.
+	 */
+	void fill(double[] consonances, boolean[] keysPressed, long nanoTime) {
+		System.arraycopy(consonances, 0, this.consonances, 0, this.consonances.length);
+		System.arraycopy(keysPressed, 0, this.keysPressed, 0, this.keysPressed.length);
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * @param key Index of the key relative to notestart.
+	 * @return The consonance of the given key. Between 0 and 1.
+	 */
+	public double getConsonance(int key) {
+		return consonances[key];
+	}
+
+	/**
+	 * @param key Index of the key relative to notestart.
+	 * @return true if the given key is pressed.
+	 */
+	public boolean isKeyPressed(int key) {
+		return keysPressed[key];
+	}
+
+	/**
+	 * @return The time of the tick this state results from, as given by System.nanoTime().
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+
+	/**
+	 * @return The count of keys.
+	 */
+	public int getKeyCount() {
+		return consonances.length;
+	}
+
+}
@@ -1,21 +1,34 @@
 package rationalpiano.voicemanagement;
 
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Logger;
 
-import rationalpiano.consonance.Consonance;
+import rationalpiano.consonance.ConsonanceEngines;
+import rationalpiano.consonance.DissonanceCurve;
 import rationalpiano.consonance.IConsonance;
+import rationalpiano.consonance.JustIntonationSolver;
+import rationalpiano.consonance.TuningConsonance;
 import rationalpiano.graphic.IGraphicControls;
+import rationalpiano.graphic.IGraphicVisualizationElement;
+import rationalpiano.noteout.ConsonanceStream;
+import rationalpiano.noteout.INoteOutput;
+import rationalpiano.noteout.NoteOutput;
+import rationalpiano.tuning.EqualTemperament;
+import rationalpiano.tuning.ITuning;
+import rationalpiano.voicemanagement.FadeTracking.envelopeShapes;
+import rationalpiano.voicemanagement.INoteEventListener.eventTypes;
 import processing.core.PApplet;
 
 /**
  * Manages all active voices and provides functions to add/remove voices and to calculate the consonances of all keys in range which also sets the visual element strengthness
+ * Frames in which no voice value changed skip the consonance calculation. When no voice is active, the ticking may be stopped; new input then calls the wake up handler, which restarts the PApplet's loop by default.
+ * Each channel (up to 16, eg. MIDI channels) has its own set of voices and its own sustain. The consonance of each key is calculated against the union of all channels in one pass: the volumes of the channels get weighted and summed up per key, so a single calculate() call covers all of them.
+ * Aftertouch (setPressure()) doesn't go through the note event ring, but is coalesced per key and channel into the latest value, so a burst of messages costs one velocity update per tick.
+ * If a ConsonanceStream is set, the consonances of the sounding keys also get streamed to the note output every tick.
+ * tick() doesn't touch the graphic elements, but publishes the consonances and pressed keys as a VoiceSnapshot through a TripleBuffer, which updateGraphics() applies on the drawing thread. So tick() may run on a different thread than the drawing.
  * 
  * @author Fabian Ehrentraud
- * @date 2011-01-28
- * @version 1.11
+ * @date 2026-10-19
+ * @version 1.34
  * @licence Licensed under the Open Software License (OSL 3.0)
  */
 public class Voices implements IVoices {
@@ -25,12 +38,85 @@ public class Voices implements IVoices {
 	
 	private FadeTracking fade;
 	private IConsonance consonance;
+	private JustIntonationSolver justIntonation;
+	private INoteOutput noteoutput;
+	private ConsonanceStream consonanceStream;
+	private NoteOutput tuningOutput;
 
-	private HashMap<Integer,Double> voicesValues = new HashMap<Integer,Double>();
+	private int notestart;
+	private int notecount;
 	
-	private ConcurrentHashMap<Integer, OneVoice> activeVoices = new ConcurrentHashMap<Integer, OneVoice>();
-	private ConcurrentSkipListSet<Integer> scheduledRemoveVoices = new ConcurrentSkipListSet<Integer>();  
-	private boolean sustain;
+	/**
+	 * Maximum count of channels, as many as MIDI has
+	 */
+	public static final int MAX_CHANNELS = 16;
+	
+	private int channelCount;
+	private double[] channelWeights;
+	
+	//indexed by slot = channel * notecount + key - notestart
+	private double[] voicesValues;
+	private boolean[] slotsPressed;
+	
+	//indexed by key - notestart, the union of all channels
+	private double[] keyVolumes; //weighted sum of the volumes of all channels, clamped to 1
+	private int[] soundingKeys;
+	private int soundingCount;
+	private double[] voiceConsonances;
+	private double[] sentCentOffsets;
+	private int[] pressedCount; //count of channels the key is pressed in
+	private boolean[] keysPressed;
+	
+	private static final int JUST_INTONATION_ITERATIONS = 4;
+	private static final double RETUNE_THRESHOLD_CENTS = 0.5;
+	
+	private static final int NOTE_EVENT_CAPACITY = 1024;
+	
+	//lowest velocity aftertouch can set, so a held voice doesn't end when the pressure drops to 0
+	private static final double MIN_PRESSURE_VELOCITY = 1. / 127;
+	
+	//input threads only write to the event ring, everything else is only touched by the ticking thread
+	private NoteEventRing events = new NoteEventRing(NOTE_EVENT_CAPACITY);
+	private volatile INoteEventListener[] listeners = new INoteEventListener[0];
+	private CoalescingValues pressures;
+	private int[] pressureSlots;
+	private double[] pressureValues;
+	
+	//one slot per key and channel
+	private VoicePool pool;
+	private boolean[] sustain;
+	
+	private boolean changed = true;
+	private volatile boolean idle = false;
+	private volatile boolean tuningChanged = false; //set by other threads, makes the next tick calculate the consonances anew
+	private volatile Runnable wakeUpHandler;
+	
+	private TripleBuffer<VoiceSnapshot> snapshots;
+	
+	private int polyphony;
+	private stealingPolicies stealingPolicy;
+	
+	private INoteEventListener applier = new INoteEventListener() {
+		@Override
+		public void noteEvent(eventTypes type, int channel, int midiNoteNumber, double velocity, long nanoTime) {
+			switch(type){
+				case NOTE_ON:
+					startVoice(channel, midiNoteNumber, velocity, nanoTime);
+					break;
+				case NOTE_OFF:
+					stopVoice(channel, midiNoteNumber, nanoTime);
+					break;
+				case SUSTAIN:
+					setSustain(channel, velocity > 0, nanoTime);
+					break;
+			}
+			
+			INoteEventListener[] l = listeners;
+			for(int i = 0; i < l.length; i++){
+				l[i].noteEvent(type, channel, midiNoteNumber, velocity, nanoTime);
+			}
+		}
+	};
 	
 	private static final Logger logger = Logger.getLogger(Voices.class.getName());
 	
@@ -38,147 +124,482 @@ public class Voices implements IVoices {
 	 * Initializing this class with standard ADSR values
 	 * @param papplet The processing applet belonging to this voice management object.
 	 * @param graphiccontrols The GraphicControls object to ask for line positions and to manipulate lines.
-	 * @param framerate Frame Rate of the target PApplet. Needed for scaling the attack, decay and release values which are given in seconds to frame counts.
 	 * @param holdSustain true if a voice should hold its sustain level after attack + decay phase; false = pluck mode: there is no decay phase at all, the release phase starts directly after the attack phase. 
 	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for. 157 is a good value. High values will cause longer initialization times!
 	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth==1 means it's inflection point is at +- 1/Sqrt(e) semitones. bellWidth>0
 	 */
-	public Voices(PApplet papplet, IGraphicControls graphiccontrols, float framerate, Boolean holdSustain, int maxfrac, double bellWidth) {
-		this(papplet, graphiccontrols, framerate, 0.15, 0.5, 0.65, 1, true, maxfrac, bellWidth); //standard values for attack, decay, stustain, release and use holdSustain
+	public Voices(PApplet papplet, IGraphicControls graphiccontrols, Boolean holdSustain, int maxfrac, double bellWidth) {
+		this(papplet, graphiccontrols, 0.15, 0.5, 0.65, 1, true, envelopeShapes.LINEAR, 0, 0, 0, stealingPolicies.OLDEST, 1, null, maxfrac, bellWidth, new EqualTemperament(), null, ConsonanceEngines.AUTO, null, false); //standard values for attack, decay, stustain, release and use holdSustain with linear curves without velocity and key tracking, unlimited polyphony, one channel, 12TET tuning, fastest consonance engine, no just intonation
 	}
 	
 	/**
 	 * Initializing this class with the given parameters
-	 * @param papplet The processing applet belonging to this voice management object.
+	 * @param papplet The processing applet belonging to this voice management object. Its loop gets restarted when input arrives while idle, unless another wake up handler is set.
 	 * @param graphiccontrols The GraphicControls object to ask for line positions and to manipulate lines.
-	 * @param framerate Frame Rate of the target PApplet. Needed for scaling the attack, decay and release values which are given in seconds to frame counts.
 	 * @param attack Attack time in seconds. Time the voice volume reaches the velocity after activating it.
 	 * @param decay Decay time in seconds. Time the voice volume reaches the sustain level after the attack phase.
 	 * @param sustain Fraction of the velocity value where a voice gets held at after attack + decay phase. 0<=sustain<=1.
 	 * @param release Release Time in seconds. Time the voice volume fades to 0 after releasing it.
 	 * @param holdSustain true if a voice should hold its sustain level after attack + decay phase; false = pluck mode: there is no decay phase at all, the release phase starts directly after the attack phase.
+	 * @param envelopeShape The shape of the attack, decay and release curves.
+	 * @param attackVelocityTracking How much faster the attack of a voice gets with its velocity: the attack time is divided by 1 + attackVelocityTracking * velocity. >=0
+	 * @param keyTracking How much faster decay and release get towards higher pitches of the tuning: their times are halved every 12 / keyTracking semitones above middle C (and doubled below). >=0
+	 * @param polyphony Maximum count of simultaneously active voices, 0 for no limit. When the limit is reached, starting a new voice steals an active one.
+	 * @param stealingPolicy Which voice to steal when the polyphony limit is reached.
+	 * @param channels Count of independent voice sets, one per channel. 1<=channels<=MAX_CHANNELS
+	 * @param channelWeights Weight of each channel's volumes in the consonance calculation; null for weight 1 for all channels. Missing entries get weight 1.
 	 * @param maxfrac The maximum dissonance value for rational numbers (numerator * denominator) to take account for. 157 is a good value. High values will cause longer initialization times!
 	 * @param bellWidth The width of the bell shaped curve with which each fraction's point get's "fuzzified". bellWidth==1 means it's inflection point is at +- 1/Sqrt(e) semitones. bellWidth>0
+	 * @param tuning The tuning which maps keys to pitches.
+	 * @param tuningCacheFolder Folder to cache dissonance matrices of non equal tempered tunings in; null disables caching.
+	 * @param consonanceEngine Name of the IConsonance engine to use, or "auto" to choose the fastest one at startup.
+	 * @param noteoutput The NoteOutput object to send the just intonation pitch offsets and the note offs of stolen voices to; may be null. Gets called from the ticking thread while the input calls it as well, so it has to be safe for that, eg. an AsyncNoteOutput.
+	 * @param justIntonation true if the sounding voices should get retuned towards just intervals, which get sent to noteoutput.
 	 */
-	public Voices(PApplet papplet, IGraphicControls graphiccontrols, float framerate, double attack, double decay, double sustain, double release, boolean holdSustain, int maxfrac, double bellWidth) {
+	public Voices(PApplet papplet, IGraphicControls graphiccontrols, double attack, double decay, double sustain, double release, boolean holdSustain, envelopeShapes envelopeShape, double attackVelocityTracking, double keyTracking, int polyphony, stealingPolicies stealingPolicy, int channels, double[] channelWeights, int maxfrac, double bellWidth, ITuning tuning, String tuningCacheFolder, String consonanceEngine, INoteOutput noteoutput, boolean justIntonation) {
 		logger.info("Setting up voice management");
 		this.papplet = papplet;
+		wakeUpHandler = new Runnable() {
+			@Override
+			public void run() {
+				Voices.this.papplet.loop();
+			}
+		};
 		this.graphiccontrols = graphiccontrols;
+		this.noteoutput = noteoutput;
+		this.polyphony = polyphony;
+		this.stealingPolicy = stealingPolicy;
+		
+		channelCount = Math.max(1, Math.min(MAX_CHANNELS, channels));
+		this.channelWeights = new double[channelCount];
+		for(int channel = 0; channel < channelCount; channel++){
+			this.channelWeights[channel] = (channelWeights != null && channel < channelWeights.length) ? channelWeights[channel] : 1;
+		}
+		this.sustain = new boolean[channelCount];
+		
+		fade = new FadeTracking(attack, decay, sustain, release, holdSustain, envelopeShape, attackVelocityTracking, keyTracking);
+		fade.setTuning(tuning);
+		
+		notestart = graphiccontrols.getGraphicVisualizationElementArray().getLowestNote();
+		notecount = graphiccontrols.getGraphicVisualizationElementArray().getHighestNote() - notestart + 1;
 		
-		fade = new FadeTracking(framerate, attack, decay, sustain, release, holdSustain);
+		pool = new VoicePool(channelCount * notecount);
+		voicesValues = new double[channelCount * notecount];
+		slotsPressed = new boolean[channelCount * notecount];
+		pressures = new CoalescingValues(channelCount * notecount);
+		pressureSlots = new int[channelCount * notecount];
+		pressureValues = new double[channelCount * notecount];
+		keyVolumes = new double[notecount];
+		soundingKeys = new int[notecount];
+		voiceConsonances = new double[notecount];
+		sentCentOffsets = new double[notecount];
+		pressedCount = new int[notecount];
+		keysPressed = new boolean[notecount];
+		snapshots = new TripleBuffer<VoiceSnapshot>(new VoiceSnapshot(notecount), new VoiceSnapshot(notecount), new VoiceSnapshot(notecount));
 		
-		consonance = new Consonance(graphiccontrols.getGraphicVisualizationElementArray().getLowestNote(), graphiccontrols.getGraphicVisualizationElementArray().getHighestNote() - graphiccontrols.getGraphicVisualizationElementArray().getLowestNote() + 1, maxfrac, bellWidth);
+		consonance = ConsonanceEngines.create(consonanceEngine, notestart, notecount, maxfrac, bellWidth, tuning, tuningCacheFolder);
+		if(consonance instanceof TuningConsonance){
+			((TuningConsonance)consonance).setSwitchHandler(new Runnable() {
+				@Override
+				public void run() {
+					tuningChanged();
+				}
+			});
+		}
+		
+		if(justIntonation){
+			this.justIntonation = new JustIntonationSolver(notestart, notecount, new DissonanceCurve(maxfrac, bellWidth), tuning, JUST_INTONATION_ITERATIONS);
+		}
 	}
 	
 	@Override
 	public boolean newVoice(int midiNoteNumber, double velocity){
-		try{
-			scheduledRemoveVoices.remove(midiNoteNumber); //only interesting when sustain=true
-			graphiccontrols.getGraphicVisualizationElementArray().getElement(midiNoteNumber).setActive(true);
-
-			if(activeVoices.keySet().contains(midiNoteNumber)){
-				double previousVolume = fade.getCurrentVelocity(activeVoices.get(midiNoteNumber));
-				if(velocity < previousVolume){
-					//don't do a "downward attack", but rather keep the current level 
-					velocity = previousVolume;
-				}
-				activeVoices.get(midiNoteNumber).retrigger(velocity,previousVolume);
-			}else{
-				activeVoices.put(midiNoteNumber, new OneVoice(midiNoteNumber, velocity));
-			}
-			return true;
-		}catch(NullPointerException e){
+		return newVoice(0, midiNoteNumber, velocity);
+	}
+	
+	@Override
+	public boolean newVoice(int channel, int midiNoteNumber, double velocity){
+		if(midiNoteNumber < notestart || midiNoteNumber >= notestart + notecount){
 			return false;
 		}
+		return offer(eventTypes.NOTE_ON, channel % channelCount, midiNoteNumber, velocity);
 	}
 	
 	@Override
 	public boolean releaseVoice(int midiNoteNumber){
+		return releaseVoice(0, midiNoteNumber);
+	}
+	
+	@Override
+	public boolean releaseVoice(int channel, int midiNoteNumber){
+		if(midiNoteNumber < notestart || midiNoteNumber >= notestart + notecount){
+			return false;
+		}
+		return offer(eventTypes.NOTE_OFF, channel % channelCount, midiNoteNumber, 0);
+	}
+
+	@Override
+	public void setSustain(boolean sustain) {
+		setSustain(0, sustain);
+	}
+
+	@Override
+	public void setSustain(int channel, boolean sustain) {
+		offer(eventTypes.SUSTAIN, channel % channelCount, -1, sustain ? 1 : 0);
+	}
+	
+	@Override
+	public boolean setPressure(int channel, int midiNoteNumber, double pressure) {
+		if(midiNoteNumber < notestart || midiNoteNumber >= notestart + notecount){
+			return false;
+		}
+		pressures.set((channel % channelCount) * notecount + midiNoteNumber - notestart, pressure);
+		return true;
+	}
+	
+	@Override
+	public synchronized void addNoteEventListener(INoteEventListener listener) {
+		INoteEventListener[] l = new INoteEventListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, l, 0, listeners.length);
+		l[listeners.length] = listener;
+		listeners = l;
+	}
+	
+	/**
+	 * Adds an event to the event ring and logs if it got dropped.
+	 * @return true if the event was added.
+	 */
+	private boolean offer(eventTypes type, int channel, int midiNoteNumber, double velocity) {
+		if(events.offer(type, channel, midiNoteNumber, velocity)){
+			if(idle){
+				wakeUpHandler.run();
+			}
+			return true;
+		}
+		logger.warning("Note event ring is full, dropped " + type + " event for note " + midiNoteNumber + " (" + events.getDroppedCount() + " dropped so far)");
+		return false;
+	}
+	
+	/**
+	 * Marks the key of the given slot as pressed or not pressed in its channel and updates whether it is pressed in any channel. Only called from the ticking thread.
+	 */
+	private void setPressed(int slot, boolean pressed) {
+		if(slotsPressed[slot] == pressed){
+			return;
+		}
+		slotsPressed[slot] = pressed;
+		
+		int key = slot % notecount;
+		pressedCount[key] += pressed ? 1 : -1;
+		keysPressed[key] = (pressedCount[key] > 0);
+	}
+	
+	/**
+	 * Starts or retriggers the voice of the given key in the given channel. Only called from the ticking thread.
+	 */
+	private void startVoice(int channel, int midiNoteNumber, double velocity, long nanoTime) {
+		int slot = channel * notecount + midiNoteNumber - notestart;
+		
+		setPressed(slot, true);
+
+		if(pool.isActive(slot)){
+			double previousVolume = fade.getCurrentVelocity(pool, slot, nanoTime);
+			if(velocity < previousVolume){
+				//don't do a "downward attack", but rather keep the current level 
+				velocity = previousVolume;
+			}
+			pool.start(slot, velocity, previousVolume, nanoTime);
+		}else{
+			if(polyphony > 0 && pool.getActiveCount() >= polyphony){
+				stealVoice();
+			}
+			pool.start(slot, velocity, 0, nanoTime);
+		}
+		fade.assignEnvelope(pool, slot, midiNoteNumber);
+		
+		//initial priority until the next tick updates it
+		switch(stealingPolicy){
+			case OLDEST:
+				pool.setPriority(slot, nanoTime);
+				break;
+			case QUIETEST:
+				pool.setPriority(slot, velocity);
+				break;
+			case MOST_DISSONANT:
+				pool.setPriority(slot, voiceConsonances[slot % notecount]); //consonance of this key with the voices of the last tick
+				break;
+		}
+	}
+	
+	/**
+	 * Removes the active voice with the lowest priority according to the stealing policy and turns its note off, unless the key still sounds in another channel. Only called from the ticking thread.
+	 */
+	private void stealVoice() {
+		int slot = pool.getLowestPrioritySlot();
+		int key = slot % notecount;
+		
+		pool.remove(slot);
+		voicesValues[slot] = 0;
+		
+		setPressed(slot, false);
+		
+		boolean sounding = false;
+		for(int channel = 0; channel < channelCount; channel++){
+			if(pool.isActive(channel * notecount + key)){
+				sounding = true;
+				break;
+			}
+		}
+		if(!sounding){
+			sentCentOffsets[key] = 0;
+			if(noteoutput != null){
+				noteoutput.noteOff(notestart + key);
+			}
+		}
+		
+		logger.fine("Polyphony of " + polyphony + " reached, stole voice " + (notestart + slot % notecount) + " of channel " + (slot / notecount));
+	}
+	
+	/**
+	 * Releases the voice of the given key in the given channel, or marks it to be released when the channel's sustain is active. Only called from the ticking thread.
+	 */
+	private void stopVoice(int channel, int midiNoteNumber, long nanoTime) {
+		int slot = channel * notecount + midiNoteNumber - notestart;
+		
 		//the following line is not in the if branch because it would not release the voice when the voice was already faded out and after that the voice is released (only in holdSustain mode)
-		try{
-			graphiccontrols.getGraphicVisualizationElementArray().getElement(midiNoteNumber).setActive(false);
+		setPressed(slot, false);
 
-			if(activeVoices.keySet().contains(midiNoteNumber) && activeVoices.get(midiNoteNumber).isReleased() == false){
-				if(sustain == true){
-					scheduledRemoveVoices.add(midiNoteNumber);
-				}else{
-					activeVoices.get(midiNoteNumber).release();
+		if(pool.isActive(slot) && pool.isReleased(slot) == false){
+			if(sustain[channel] == true){
+				pool.setReleasePending(slot);
+			}else{
+				pool.release(slot, nanoTime, fade.getCurrentVelocity(pool, slot, nanoTime));
+			}
+		}
+	}
+	
+	/**
+	 * Changes the sustain of the given channel and releases all voices of the channel which were released while the sustain was active when it gets turned off. Only called from the ticking thread.
+	 */
+	private void setSustain(int channel, boolean sustain, long nanoTime) {
+		this.sustain[channel] = sustain;
+		
+		if(sustain == false){
+			for(int index = 0; index < pool.getActiveCount(); index++){
+				int slot = pool.getActiveSlot(index);
+				if(slot / notecount == channel && pool.isReleasePending(slot)){
+					pool.release(slot, nanoTime, fade.getCurrentVelocity(pool, slot, nanoTime));
 				}
-				
-				return true;
 			}
-			
-			return false;
-		}catch(NullPointerException e){
-			return false;
 		}
 	}
 	
 	/**
 	 * Can be concurrently called with newVoice() or releaseVoice().
-	 * Increments the hold time for each voice which sets its internal value to a new one according to ADSR.
-	 * Also calculates the consonance anew.
+	 * First applies all note events which arrived since the last call in the order they were received and passes them on to the note event listeners, then the latest aftertouch value of each voice.
+	 * Then calculates the current value of each voice according to ADSR at the current time, so the envelopes don't depend on the actual frame rate.
+	 * While doing so, the weighted volumes of all channels get summed up per key, so the consonance of the union of all channels is calculated anew with one call.
+	 * Only touches the active voices and doesn't allocate any objects.
+	 * If neither a note event arrived nor any voice value changed (eg. no voice is active or all are sustaining) nor the tuning changed, the consonances and line widths are left as they are.
+	 * Finally flushes the note output, so note messages collected during this frame get sent together.
 	 */
 	@Override
 	public void tick(){
-		OneVoice voice;
-		double velo;
+		changed = (events.drain(applier) > 0);
+		if(tuningChanged){
+			tuningChanged = false;
+			changed = true;
+		}
 		
-		if(sustain == false){
-			for(Integer midiNoteNumber : scheduledRemoveVoices){
-				try{
-					activeVoices.get(midiNoteNumber).release();
-				}catch(NullPointerException e){
-				}
-				scheduledRemoveVoices.remove(midiNoteNumber);
+		int pressureCount = pressures.take(pressureSlots, pressureValues);
+		for(int a = 0; a < pressureCount; a++){
+			int slot = pressureSlots[a];
+			if(pool.isActive(slot) && pool.isReleased(slot) == false){
+				pool.setVelocity(slot, Math.max(MIN_PRESSURE_VELOCITY, Math.min(1, pressureValues[a])));
 			}
 		}
 		
-		//calculate current voice velocities
+		//calculate current voice velocities and sum them up per key, clamped to the volume of a single voice
+		
+		long now = System.nanoTime(); //after draining, so no event is newer
 		
-		for(Integer key : activeVoices.keySet()){
-			try{
-				voice = activeVoices.get(key);
-				voice.incrementHoldtime();
-				velo = fade.getCurrentVelocity(voice);
-				if(velo <= 0){
-					activeVoices.remove(key);
-					
-					if(voicesValues.containsKey(key)){
-						voicesValues.remove(key);
+		for(int a = 0; a < soundingCount; a++){
+			keyVolumes[soundingKeys[a]] = 0;
+		}
+		soundingCount = 0;
+		
+		//iterate from the back as removing moves the last active voice into the gap
+		for(int index = pool.getActiveCount() - 1; index >= 0; index--){
+			int slot = pool.getActiveSlot(index);
+			
+			double velo = fade.getCurrentVelocity(pool, slot, now);
+			if(velo != voicesValues[slot]){
+				changed = true;
+			}
+			
+			if(velo <= 0){
+				pool.remove(slot);
+				
+				voicesValues[slot] = 0;
+				sentCentOffsets[slot % notecount] = 0; //a new voice on this key starts untuned
+				
+				//graphiccontrols.setLineWidth(key, 0); //would set the line width to 0
+				
+				//graphiccontrols.setLineActive(key, false); //would visually release voice if adsr approaches 0
+				
+			}else{
+				voicesValues[slot] = velo;
+				
+				int key = slot % notecount;
+				double volume = channelWeights[slot / notecount] * velo;
+				if(volume > 0){
+					if(keyVolumes[key] == 0){
+						soundingKeys[soundingCount++] = key;
 					}
-					
-					//graphiccontrols.setLineWidth(key, 0); //would set the line width to 0
-					
-					//graphiccontrols.setLineActive(key, false); //would visually release voice if adsr approaches 0
-					
-				}else{
-					voicesValues.put(key, velo);
-					
-					//graphiccontrols.setLineWidth(key, (int)(255*fade.getCurrentVelocity(voice))); //would set the line to the width according to its current adsr value
+					keyVolumes[key] = Math.min(1, keyVolumes[key] + volume);
+				}
+				
+				if(stealingPolicy == stealingPolicies.QUIETEST){
+					pool.setPriority(slot, velo);
 				}
-			}catch(NullPointerException e){
+				
+				//graphiccontrols.setLineWidth(key, (int)(255*fade.getCurrentVelocity(voice))); //would set the line to the width according to its current adsr value
 			}
 		}
+		
+		idle = (pool.getActiveCount() == 0);
 
 		
-		//calculate consonances
+		//calculate consonances, unless nothing changed since the last tick
+		
+		if(changed){
+			consonance.calculate(keyVolumes, soundingKeys, soundingCount, voiceConsonances);
+			
+			if(stealingPolicy == stealingPolicies.MOST_DISSONANT){
+				for(int index = 0; index < pool.getActiveCount(); index++){
+					int slot = pool.getActiveSlot(index);
+					pool.setPriority(slot, voiceConsonances[slot % notecount]);
+				}
+			}
+		}
 		
-		HashMap<Integer, Double> voiceConsonances = consonance.calculate(voicesValues);
-
 		
-		//set line widths according to found consonances
+		//retune sounding voices towards just intervals
 		
-		for(Integer key : voiceConsonances.keySet()){
-			try{
-				graphiccontrols.getGraphicVisualizationElementArray().getElement(key).setVolume(voiceConsonances.get(key));
-			}catch(NullPointerException e){
+		if(justIntonation != null){
+			justIntonation.solve(keyVolumes, soundingKeys, soundingCount);
+			
+			for(int a = 0; a < soundingCount; a++){
+				int i = soundingKeys[a];
+				double cents = justIntonation.getOffset(i);
+				if(Math.abs(cents - sentCentOffsets[i]) > RETUNE_THRESHOLD_CENTS){
+					noteoutput.retune(notestart + i, cents);
+					sentCentOffsets[i] = cents;
+				}
 			}
 		}
+
+		
+		//stream the consonances to the synths
+		
+		if(consonanceStream != null){
+			consonanceStream.update(voiceConsonances, soundingKeys, soundingCount, now);
+		}
+		
+		
+		//publish line widths according to found consonances
+		
+		if(changed){
+			snapshots.getWriteBuffer().fill(voiceConsonances, keysPressed, now);
+			snapshots.publish();
+		}
+		
+		//send the note messages of this frame together
+		
+		if(noteoutput != null){
+			noteoutput.flush();
+		}
+	}
+	
+	@Override
+	public boolean updateGraphics() {
+		if(!snapshots.update()){
+			return false;
+		}
+		
+		VoiceSnapshot snapshot = snapshots.getReadBuffer();
+		for(int i = 0; i < notecount; i++){
+			IGraphicVisualizationElement element = graphiccontrols.getGraphicVisualizationElementArray().getElement(notestart + i);
+			element.setVolume(snapshot.getConsonance(i));
+			element.setActive(snapshot.isKeyPressed(i));
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean isGraphicsUpdateAvailable() {
+		return snapshots.isUpdateAvailable();
+	}
+	
+	@Override
+	public void setWakeUpHandler(Runnable wakeUpHandler) {
+		this.wakeUpHandler = wakeUpHandler;
+	}
+	
+	/**
+	 * Sets the stream to send the consonances of the sounding keys to in every tick. Must be set before ticking starts.
+	 * @param consonanceStream The stream, or null to not stream the consonances.
+	 */
+	public void setConsonanceStream(ConsonanceStream consonanceStream) {
+		this.consonanceStream = consonanceStream;
+	}
+	
+	/**
+	 * Sets the note output which gets the new tuning as well when setTuning() is called, so its MPE pitch bends follow the tuning. Must be set before ticking starts.
+	 * @param tuningOutput The output, or null if no output depends on the tuning.
+	 */
+	public void setTuningOutput(NoteOutput tuningOutput) {
+		this.tuningOutput = tuningOutput;
+	}
+	
+	@Override
+	public boolean isChanged() {
+		return changed;
+	}
+	
+	/**
+	 * Must be called from the ticking thread, or from another thread while no tick is running and the end of the last one is visible to it.
+	 */
+	@Override
+	public boolean isIdle() {
+		return idle && !tuningChanged && events.isEmpty();
+	}
+	
+	/**
+	 * Makes the next tick calculate the consonances anew, waking up the ticking if it is idle.
+	 */
+	private void tuningChanged() {
+		tuningChanged = true;
+		if(idle){
+			wakeUpHandler.run();
+		}
 	}
 
 	@Override
-	public void setSustain(boolean sustain) {
-		this.sustain = sustain;
+	public void setTuning(ITuning tuning) {
+		if(consonance instanceof TuningConsonance){
+			((TuningConsonance)consonance).setTuning(tuning);
+		}else{
+			logger.warning("The tuning can only be changed at runtime when a non equal tempered tuning was loaded at startup, ignoring tuning '" + tuning.getDescription() + "'");
+			return;
+		}
+		if(justIntonation != null){
+			justIntonation.setTuning(tuning);
+		}
+		fade.setTuning(tuning);
+		if(tuningOutput != null){
+			tuningOutput.setTuning(tuning);
+		}
+		tuningChanged();
 	}
 }